@@ -0,0 +1,66 @@
+package chord.analyses;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import chord.project.Chord;
+import chord.project.JavaTask;
+import chord.project.ProgramRel;
+import chord.util.bddbddb.Dom;
+import chord.util.bddbddb.Rel.IntTupleVisitor;
+import chord.util.tuple.integer.IntTrio;
+
+/**
+ * Checks that relation cha computed in Java by
+ * {@link chord.rels.RelCha} is the same as relation chaDlog computed
+ * by <tt>cha.dlog</tt>.
+ */
+@Chord(
+	name = "cha-check-java",
+	consumedNames = { "cha", "chaDlog" }
+)
+public class ChaCheck extends JavaTask {
+	public void run() {
+		ProgramRel relCha = (ProgramRel) project.getTrgt("cha");
+		ProgramRel relChaDlog = (ProgramRel) project.getTrgt("chaDlog");
+		Set<IntTrio> chaTuples = getTuples(relCha);
+		Set<IntTrio> chaDlogTuples = getTuples(relChaDlog);
+		Dom[] doms = relCha.getDoms();
+		int numErrs = 0;
+		for (IntTrio tuple : chaTuples) {
+			if (!chaDlogTuples.contains(tuple)) {
+				System.err.println("ERROR: Tuple " + toString(doms, tuple) +
+					" in cha but not in chaDlog.");
+				numErrs++;
+			}
+		}
+		for (IntTrio tuple : chaDlogTuples) {
+			if (!chaTuples.contains(tuple)) {
+				System.err.println("ERROR: Tuple " + toString(doms, tuple) +
+					" in chaDlog but not in cha.");
+				numErrs++;
+			}
+		}
+		if (numErrs > 0) {
+			throw new RuntimeException("Relations cha and chaDlog differ in " +
+				numErrs + " tuples.");
+		}
+		System.out.println("Relations cha and chaDlog agree on " +
+			chaTuples.size() + " tuples.");
+	}
+	private static Set<IntTrio> getTuples(ProgramRel rel) {
+		final Set<IntTrio> tuples = new HashSet<IntTrio>();
+		rel.load();
+		rel.forEachTuple(new IntTupleVisitor() {
+			public void visit(int[] idxs) {
+				tuples.add(new IntTrio(idxs[0], idxs[1], idxs[2]));
+			}
+		});
+		rel.close();
+		return tuples;
+	}
+	private static String toString(Dom[] doms, IntTrio tuple) {
+		return "(M=" + doms[0].get(tuple.idx0) + ", T=" +
+			doms[1].get(tuple.idx1) + ", M=" + doms[2].get(tuple.idx2) + ")";
+	}
+}
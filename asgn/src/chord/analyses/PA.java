@@ -2,8 +2,10 @@ package chord.analyses;
 
 import java.io.PrintWriter;
 
+import chord.doms.DomF;
+import chord.doms.DomH;
+import chord.doms.DomV;
 import chord.program.Field;
-import chord.program.Var;
 import chord.program.insts.ObjValAsgnInst;
 import chord.program.insts.InvkInst;
 import chord.program.Method;
@@ -11,8 +13,9 @@ import chord.project.Chord;
 import chord.project.JavaTask;
 import chord.project.ProgramRel;
 import chord.util.FileUtils;
+import chord.util.bddbddb.Dom;
+import chord.util.bddbddb.Rel.IntTupleVisitor;
 import chord.util.tuple.object.Pair;
-import chord.util.tuple.object.Trio;
 
 /**
  * Context insensitive pointer analysis with call-graph construction.
@@ -40,26 +43,36 @@ public class PA extends JavaTask {
 		out.close();
 	}
 	private void printVH() {
-		PrintWriter out = FileUtils.newPrintWriter("VH.txt");
+		final PrintWriter out = FileUtils.newPrintWriter("VH.txt");
         ProgramRel relVH = (ProgramRel) project.getTrgt("VH");
 		relVH.load();
-        Iterable<Pair<Var, ObjValAsgnInst>> tuples = relVH.getAry2ValTuples();
-		for (Pair<Var, ObjValAsgnInst> tuple : tuples) {
-			out.println("V=" + tuple.val0 + " H=" + tuple.val1);
-		}
+		Dom[] doms = relVH.getDoms();
+		final DomV domV = (DomV) doms[0];
+		final DomH domH = (DomH) doms[1];
+		relVH.forEachTuple(new IntTupleVisitor() {
+			public void visit(int[] idxs) {
+				out.println("V=" + domV.get(idxs[0]) +
+					" H=" + domH.get(idxs[1]));
+			}
+		});
 		relVH.close();
 		out.close();
 	}
 	private void printHFH() {
-		PrintWriter out = FileUtils.newPrintWriter("HFH.txt");
+		final PrintWriter out = FileUtils.newPrintWriter("HFH.txt");
         ProgramRel relHFH = (ProgramRel) project.getTrgt("HFH");
 		relHFH.load();
-        Iterable<Trio<ObjValAsgnInst, Field, ObjValAsgnInst>> tuples =
-			relHFH.getAry3ValTuples();
-		for (Trio<ObjValAsgnInst, Field, ObjValAsgnInst> tuple : tuples) {
-			out.println("H=" + tuple.val0 + " F=" + tuple.val1 +
-				" H=" + tuple.val2);
-		}
+		Dom[] doms = relHFH.getDoms();
+		final DomH domH0 = (DomH) doms[0];
+		final DomF domF = (DomF) doms[1];
+		final DomH domH1 = (DomH) doms[2];
+		relHFH.forEachTuple(new IntTupleVisitor() {
+			public void visit(int[] idxs) {
+				out.println("H=" + domH0.get(idxs[0]) +
+					" F=" + domF.get(idxs[1]) +
+					" H=" + domH1.get(idxs[2]));
+			}
+		});
 		relHFH.close();
 		out.close();
 	}
@@ -51,6 +51,9 @@ public class DomM extends ProgramDom<Method> {
 				set(meth);
 		}
 	}
+	protected int getNumFixedIdxs() {
+		return 2;
+	}
 	public String toXMLAttrsString(Method meth) {
 		Type type = meth.getCtnrType();
 		String sign = type.getName() + "." +
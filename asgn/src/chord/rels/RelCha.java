@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.rels;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import chord.doms.DomM;
+import chord.doms.DomT;
+import chord.program.Method;
+import chord.program.Program;
+import chord.program.Type;
+import chord.program.TypeHierarchy;
+import chord.program.TypeKind;
+import chord.project.Chord;
+import chord.project.ProgramRel;
+
+/**
+ * Relation containing each tuple (m1,t,m2) such that a dynamically
+ * dispatching call site (i.e. invoke virtual/interface) with resolved
+ * method m1 and receiver object with run-time type t has target method
+ * m2.
+ * <p>
+ * This is the relation computed by Class Hierarchy Analysis (CHA) in
+ * <tt>cha.dlog</tt>, computed directly from the type hierarchy: m1 is
+ * any non-static, non-private, non-constructor method, t is any class
+ * type that is a subtype of the type declaring m1, and m2 is the method
+ * with the signature of m1 in the vtable of t, provided the type
+ * declaring m2 is also a subtype of the type declaring m1.
+ * Interface methods need no separate tables, since the classes
+ * implementing an interface are its subtypes.
+ */
+@Chord(
+	name = "cha",
+	sign = "M1,T1,M0:M0xM1_T1",
+	storage = "table"
+)
+public class RelCha extends ProgramRel {
+	// map from each class type to its vtable, i.e., the map from the
+	// signature of each method it declares or inherits from its
+	// superclasses to the method
+	private Map<Type, Map<String, Method>> vtables;
+	public void fill() {
+		DomM domM = (DomM) doms[0];
+		DomT domT = (DomT) doms[1];
+		Program program = project.getProgram();
+		TypeHierarchy hierarchy = program.getTypeHierarchy();
+		vtables = new HashMap<Type, Map<String, Method>>();
+		int numT = domT.size();
+		for (int dIdx = 0; dIdx < numT; dIdx++) {
+			Type dVal = domT.get(dIdx);
+			BitSet subtypeIds = null;
+			for (Method m1Val : dVal.getMethods()) {
+				if (m1Val.isStatic() || m1Val.isPrivate() || m1Val.isInit())
+					continue;
+				if (subtypeIds == null)
+					subtypeIds = hierarchy.getSubtypeIds(hierarchy.getId(dVal));
+				int m1Idx = domM.get(m1Val);
+				String sign = m1Val.getSign();
+				for (int i = subtypeIds.nextSetBit(0); i >= 0;
+						i = subtypeIds.nextSetBit(i + 1)) {
+					Type tVal = hierarchy.getType(i);
+					if (!isClass(tVal))
+						continue;
+					Method m2Val = getVtable(tVal).get(sign);
+					if (m2Val != null &&
+							m2Val.getCtnrType().isSubtypeOf(dVal)) {
+						int tIdx = domT.get(tVal);
+						int m2Idx = domM.get(m2Val);
+						add(m1Idx, tIdx, m2Idx);
+					}
+				}
+			}
+		}
+		vtables = null;
+	}
+	private static boolean isClass(Type type) {
+		TypeKind kind = type.getKind();
+		return kind == TypeKind.CONCRETE_CLASS_TYPE ||
+			kind == TypeKind.ABSTRACT_CLASS_TYPE;
+	}
+	private Map<String, Method> getVtable(Type type) {
+		Map<String, Method> vtable = vtables.get(type);
+		if (vtable != null)
+			return vtable;
+		List<Type> suptypes = type.getSuptypes();
+		if (suptypes.isEmpty() ||
+				type.getName().equals("java.lang.Object"))
+			vtable = new HashMap<String, Method>();
+		else
+			vtable = new HashMap<String, Method>(getVtable(suptypes.get(0)));
+		for (Method method : type.getMethods())
+			vtable.put(method.getSign(), method);
+		vtables.put(type, vtable);
+		return vtable;
+	}
+}
@@ -11,7 +11,8 @@ import chord.program.Method;
  */
 @Chord(
 	name = "clinitM",
-	sign = "M0"
+	sign = "M0",
+	storage = "table"
 )
 
 public class RelClinitM extends ProgramRel {
@@ -19,7 +19,8 @@ import chord.project.ProgramRel;
  */
 @Chord(
 	name = "HT",
-	sign = "H0,T1:T1_H0"
+	sign = "H0,T1:T1_H0",
+	storage = "table"
 )
 public class RelHT extends ProgramRel {
 	public void fill() {
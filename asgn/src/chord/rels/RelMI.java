@@ -13,7 +13,8 @@ import chord.project.ProgramRel;
  */
 @Chord(
 	name = "MI",
-	sign = "M0,I0:I0xM0"
+	sign = "M0,I0:I0xM0",
+	storage = "table"
 )
 public class RelMI extends ProgramRel {
 	public void fill() {
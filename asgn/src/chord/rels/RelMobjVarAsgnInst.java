@@ -1,5 +1,8 @@
 package chord.rels;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import chord.doms.DomM;
 import chord.doms.DomV;
 import chord.program.Method;
@@ -24,22 +27,27 @@ public class RelMobjVarAsgnInst extends ProgramRel {
 	public void fill() {
         //throw new RuntimeException("cs265: implement this method");
 		DomM domM = (DomM) doms[0];
-		int numM = domM.size();
+		DomV domV = (DomV) doms[1];
+		List<int[]> tuples = new ArrayList<int[]>();
 		for(Method mVal: domM) {
 			if(mVal.hasCFG()) {
+				int mIdx = domM.get(mVal);
 				for (Inst inst : mVal.getCFG().getNodes()) {
 					if (inst instanceof ObjVarAsgnInst) {
 						ObjVarAsgnInst varAsgn = (ObjVarAsgnInst) inst;
-						add(mVal, varAsgn.getLvar(), varAsgn.getRvar());
+						tuples.add(new int[] { mIdx, domV.get(varAsgn.getLvar()),
+							domV.get(varAsgn.getRvar()) });
 					} else if (inst instanceof  PhiExpAsgnInst) {
 						PhiExpAsgnInst expAsgn = (PhiExpAsgnInst) inst;
+						int lIdx = domV.get(expAsgn.getLvar());
 						for(Var rVar:expAsgn.getRvars()) {
-							add(mVal, expAsgn.getLvar(), rVar);
+							tuples.add(new int[] { mIdx, lIdx, domV.get(rVar) });
 						}
 					}
 
 				}
 			}
-		}	
+		}
+		addAll(tuples.toArray(new int[tuples.size()][]));
 	}
 }
@@ -14,7 +14,8 @@ import chord.project.ProgramRel;
  */
 @Chord(
 	name = "specIM",
-	sign = "I0,M0:I0xM0"
+	sign = "I0,M0:I0xM0",
+	storage = "table"
 )
 public class RelSpecIM extends ProgramRel {
 	public void fill() {
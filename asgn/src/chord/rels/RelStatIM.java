@@ -15,7 +15,8 @@ import chord.project.ProgramRel;
  */
 @Chord(
 	name = "statIM",
-	sign = "I0,M0:I0xM0"
+	sign = "I0,M0:I0xM0",
+	storage = "table"
 )
 public class RelStatIM extends ProgramRel {
 	public void fill() {
@@ -5,11 +5,14 @@
  */
 package chord.rels;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 import chord.doms.DomT;
 import chord.program.Type;
 import chord.program.Program;
+import chord.program.TypeHierarchy;
 import chord.project.Chord;
 import chord.project.ProgramRel;
 
@@ -27,15 +30,17 @@ public class RelSub extends ProgramRel {
 	public void fill() {
 		DomT domT = (DomT) doms[0];
 		Program program = project.getProgram();
-		Collection<Type> types = program.getTypes();
+		TypeHierarchy hierarchy = program.getTypeHierarchy();
+		List<int[]> tuples = new ArrayList<int[]>();
 		for (Type type1 : program.getTypes()) {
 			int t1Idx = domT.get(type1);
-			for (Type type2 : types) {
-				if (type1.isSubtypeOf(type2)) {
-					int t2Idx = domT.get(type2);
-					add(t1Idx, t2Idx);
-				}
+			BitSet suptypeIds = hierarchy.getSuptypeIds(hierarchy.getId(type1));
+			for (int i = suptypeIds.nextSetBit(0); i >= 0;
+					i = suptypeIds.nextSetBit(i + 1)) {
+				int t2Idx = domT.get(hierarchy.getType(i));
+				tuples.add(new int[] { t1Idx, t2Idx });
 			}
 		}
+		addAll(tuples.toArray(new int[tuples.size()][]));
 	}
 }
@@ -26,10 +26,12 @@ public class RelVT extends ProgramRel {
 		DomV domV = (DomV) doms[0];
 		DomT domT = (DomT) doms[1];
 		int numV = domV.size();
+		int[][] tuples = new int[numV][];
 		for (int vIdx = 0; vIdx < numV; vIdx++) {
 			Var vVal = domV.get(vIdx);
 			int tIdx = domT.get(vVal.getType());
-			add(vIdx, tIdx);
+			tuples[vIdx] = new int[] { vIdx, tIdx };
 		}
+		addAll(tuples);
 	}
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.program;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import chord.program.insts.Inst;
+import chord.util.IndexMap;
+
+/**
+ * Generic gen/kill dataflow analysis over a control-flow graph whose
+ * facts are densely numbered and represented as bit vectors.
+ * <p>
+ * A subclass numbers the facts of interest (e.g., the definitions or
+ * the local variables of the method) and provides the facts each
+ * statement generates and kills.  The facts flowing into a statement
+ * are the union of those flowing out of its predecessors (forward
+ * analyses) or successors (backward analyses), and the facts flowing
+ * out of it are those it generates together with those flowing into
+ * it that it does not kill.
+ * <p>
+ * The fixpoint is computed by a worklist that always processes the
+ * pending statement earliest in reverse post-order (forward analyses)
+ * or latest in it (backward analyses).
+ */
+public abstract class BitVectorAnalysis {
+	protected final CFG cfg;
+	protected final boolean isForward;
+	/**
+	 * Map from each statement in the control-flow graph to its index
+	 * in reverse post-order.
+	 */
+	protected final IndexMap<Inst> insts;
+	private BitSet[] entrySets;
+	private BitSet[] exitSets;
+	/**
+	 * Constructor.
+	 *
+	 * @param	cfg	The control-flow graph to be analyzed.
+	 * @param	isForward	true iff facts flow from each statement
+	 * 			to its successors.
+	 */
+	public BitVectorAnalysis(CFG cfg, boolean isForward) {
+		this.cfg = cfg;
+		this.isForward = isForward;
+		List<Inst> rpo = cfg.getNodesInRPO();
+		insts = new IndexMap<Inst>(rpo.size());
+		for (Inst inst : rpo)
+			insts.set(inst);
+	}
+	/**
+	 * Provides the facts generated and killed by a given statement.
+	 *
+	 * @param	inst	A statement.
+	 * @param	gen	An empty bit vector to be filled with the facts
+	 * 			generated by the statement.
+	 * @param	kill	An empty bit vector to be filled with the facts
+	 * 			killed by the statement.
+	 */
+	protected abstract void initTransfer(Inst inst, BitSet gen, BitSet kill);
+	/**
+	 * Provides the facts holding at the entry of the head statement
+	 * (forward analyses) or at the exit of the tail statement
+	 * (backward analyses).  There are none by default.
+	 *
+	 * @param	facts	An empty bit vector to be filled with the
+	 * 			boundary facts.
+	 */
+	protected void initBoundary(BitSet facts) { }
+	/**
+	 * Computes the facts holding at the entry and exit of each
+	 * statement in the control-flow graph.
+	 */
+	public void solve() {
+		int n = insts.size();
+		BitSet[] gens = new BitSet[n];
+		BitSet[] kills = new BitSet[n];
+		int[][] srcs = new int[n][];
+		int[][] dsts = new int[n][];
+		for (int i = 0; i < n; i++) {
+			Inst inst = insts.get(i);
+			gens[i] = new BitSet();
+			kills[i] = new BitSet();
+			initTransfer(inst, gens[i], kills[i]);
+			srcs[i] = toIdxs(isForward ? cfg.getPreds(inst) :
+				cfg.getSuccs(inst));
+			dsts[i] = toIdxs(isForward ? cfg.getSuccs(inst) :
+				cfg.getPreds(inst));
+		}
+		Inst root = isForward ? cfg.getHead() : cfg.getTail();
+		int rootIdx = (root == null) ? -1 : insts.get(root);
+		BitSet boundary = new BitSet();
+		initBoundary(boundary);
+		// ins[i] and outs[i] are the facts flowing into and out of the
+		// statement at index i in the direction of the analysis
+		BitSet[] ins = new BitSet[n];
+		BitSet[] outs = new BitSet[n];
+		for (int i = 0; i < n; i++) {
+			ins[i] = new BitSet();
+			outs[i] = new BitSet();
+		}
+		// the worklist is keyed by position in the processing order
+		BitSet work = new BitSet(n);
+		work.set(0, n);
+		BitSet out = new BitSet();
+		for (int k = work.nextSetBit(0); k >= 0; k = work.nextSetBit(0)) {
+			work.clear(k);
+			int i = isForward ? k : n - 1 - k;
+			BitSet in = ins[i];
+			in.clear();
+			if (i == rootIdx)
+				in.or(boundary);
+			for (int j : srcs[i])
+				in.or(outs[j]);
+			out.clear();
+			out.or(in);
+			out.andNot(kills[i]);
+			out.or(gens[i]);
+			if (!out.equals(outs[i])) {
+				BitSet tmp = outs[i];
+				outs[i] = out;
+				out = tmp;
+				for (int j : dsts[i])
+					work.set(isForward ? j : n - 1 - j);
+			}
+		}
+		entrySets = isForward ? ins : outs;
+		exitSets = isForward ? outs : ins;
+	}
+	private int[] toIdxs(Set<Inst> set) {
+		int[] idxs = new int[set.size()];
+		int k = 0;
+		for (Inst inst : set)
+			idxs[k++] = insts.get(inst);
+		return idxs;
+	}
+	/**
+	 * Provides the facts holding at the entry of a given statement.
+	 * The returned bit vector must not be modified.
+	 *
+	 * @param	inst	A statement.
+	 *
+	 * @return	The facts holding at the entry of the given statement,
+	 * 			or null if it is not reachable in the control-flow
+	 * 			graph.
+	 */
+	public BitSet getEntryFacts(Inst inst) {
+		int i = insts.get(inst);
+		return (i < 0) ? null : entrySets[i];
+	}
+	/**
+	 * Provides the facts holding at the exit of a given statement.
+	 * The returned bit vector must not be modified.
+	 *
+	 * @param	inst	A statement.
+	 *
+	 * @return	The facts holding at the exit of the given statement,
+	 * 			or null if it is not reachable in the control-flow
+	 * 			graph.
+	 */
+	public BitSet getExitFacts(Inst inst) {
+		int i = insts.get(inst);
+		return (i < 0) ? null : exitSets[i];
+	}
+	/**
+	 * Read-only view of a bit vector of facts as the set of objects
+	 * they are numbered by.
+	 *
+	 * @param	<T>	The type of the objects numbered by the facts.
+	 */
+	protected static class FactSet<T> extends AbstractSet<T> {
+		private final BitSet bits;
+		private final IndexMap<T> facts;
+		public FactSet(BitSet bits, IndexMap<T> facts) {
+			this.bits = bits;
+			this.facts = facts;
+		}
+		public int size() {
+			return bits.cardinality();
+		}
+		public boolean isEmpty() {
+			return bits.isEmpty();
+		}
+		public boolean contains(Object o) {
+			int i = facts.get(o);
+			return i >= 0 && bits.get(i);
+		}
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int i = bits.nextSetBit(0);
+				public boolean hasNext() {
+					return i >= 0;
+				}
+				public T next() {
+					if (i < 0)
+						throw new NoSuchElementException();
+					T val = facts.get(i);
+					i = bits.nextSetBit(i + 1);
+					return val;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
@@ -5,6 +5,7 @@
  */
 package chord.program;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -13,6 +14,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Stack;
 
@@ -36,6 +38,7 @@ import chord.program.insts.TailInst;
 import chord.util.ArraySet;
 import chord.util.Assertions;
 import chord.util.IndexMap;
+import chord.util.graph.IGraph;
 import chord.util.graph.MutableGraph;
 import chord.util.tuple.object.Pair;
 import chord.util.CollectionUtils;
@@ -47,6 +50,14 @@ import chord.util.CollectionUtils;
  * The entry and exit nodes are distinct.
  * Every node in the control-flow graph is reachable
  * from the entry node.
+ * <p>
+ * A control-flow graph may be frozen by {@link #freeze()} once it is
+ * no longer transformed, which replaces the maps from each node to
+ * the sets of its immediate predecessors and successors by an array
+ * of the nodes in reverse post-order and arrays of the indices of
+ * the immediate predecessors and successors of each node, all stored
+ * contiguously.  A frozen control-flow graph provides the same views
+ * of its nodes and edges; modifying it thaws it first.
  * 
  * @author Mayur Naik (mhn@cs.stanford.edu)
  */
@@ -95,6 +106,27 @@ public class CFG extends MutableGraph<Inst> {
 	 * Containing method of this control-flow graph.
 	 */
 	private Method ctnrMethod;
+	/**
+	 * Nodes of this control-flow graph in reverse post-order if it
+	 * is frozen, and null otherwise.
+	 */
+	private Inst[] insts;
+	/**
+	 * Indices in {@link #insts} of the immediate successors of the
+	 * node at each index i, at positions
+	 * <tt>succOffsets[i]</tt> to <tt>succOffsets[i + 1] - 1</tt> of
+	 * <tt>succIdxs</tt>, if this control-flow graph is frozen.
+	 */
+	private int[] succOffsets;
+	private int[] succIdxs;
+	/**
+	 * Indices of the immediate predecessors of each node, laid out
+	 * like those of its immediate successors.
+	 */
+	private int[] predOffsets;
+	private int[] predIdxs;
+	private Map<Inst, Integer> instToIdxMap;
+	private List<Inst> instList;
 	/**
 	 * Constructor.
 	 * 
@@ -131,6 +163,274 @@ public class CFG extends MutableGraph<Inst> {
 		this.rets = rets;
 		this.sync = sync;
 	}
+	// creates a frozen control-flow graph from the arrays of its
+	// frozen form, whose nodes must be in reverse post-order
+	CFG(HeadInst head, TailInst tail,
+			List<Var> args, List<Var> tmps, List<Var> rets, Var sync,
+			Inst[] insts, int[] predOffsets, int[] predIdxs,
+			int[] succOffsets, int[] succIdxs) {
+		this.roots = Collections.singleton((Inst) head);
+		this.nodeToPreds = null;
+		this.nodeToSuccs = null;
+		this.head = head;
+		this.tail = tail;
+		this.args = args;
+		this.tmps = tmps;
+		this.rets = rets;
+		this.sync = sync;
+		setFrozen(insts, null, predOffsets, predIdxs,
+			succOffsets, succIdxs);
+	}
+	/**
+	 * Freezes this control-flow graph, if it is not frozen already.
+	 * Every node must be reachable from the entry node.
+	 */
+	public void freeze() {
+		if (insts != null)
+			return;
+		List<Inst> rpo = getNodesInRPO();
+		Assertions.Assert(rpo.size() == nodeToPreds.size());
+		int numInsts = rpo.size();
+		Inst[] insts = rpo.toArray(new Inst[numInsts]);
+		Map<Inst, Integer> instToIdxMap =
+			new HashMap<Inst, Integer>(numInsts);
+		for (int i = 0; i < numInsts; i++)
+			instToIdxMap.put(insts[i], i);
+		int[] predOffsets = new int[numInsts + 1];
+		int[] succOffsets = new int[numInsts + 1];
+		for (int i = 0; i < numInsts; i++) {
+			predOffsets[i + 1] = predOffsets[i] +
+				nodeToPreds.get(insts[i]).size();
+			succOffsets[i + 1] = succOffsets[i] +
+				nodeToSuccs.get(insts[i]).size();
+		}
+		int[] predIdxs = new int[predOffsets[numInsts]];
+		int[] succIdxs = new int[succOffsets[numInsts]];
+		for (int i = 0; i < numInsts; i++) {
+			int k = predOffsets[i];
+			for (Inst pred : nodeToPreds.get(insts[i]))
+				predIdxs[k++] = instToIdxMap.get(pred);
+			k = succOffsets[i];
+			for (Inst succ : nodeToSuccs.get(insts[i]))
+				succIdxs[k++] = instToIdxMap.get(succ);
+		}
+		nodeToPreds = null;
+		nodeToSuccs = null;
+		evictCache();
+		setFrozen(insts, instToIdxMap, predOffsets, predIdxs,
+			succOffsets, succIdxs);
+	}
+	/**
+	 * Determines whether this control-flow graph is frozen.
+	 *
+	 * @return	true iff this control-flow graph is frozen.
+	 */
+	public boolean isFrozen() {
+		return insts != null;
+	}
+	private void setFrozen(Inst[] insts, Map<Inst, Integer> instToIdxMap,
+			int[] predOffsets, int[] predIdxs,
+			int[] succOffsets, int[] succIdxs) {
+		this.insts = insts;
+		this.predOffsets = predOffsets;
+		this.predIdxs = predIdxs;
+		this.succOffsets = succOffsets;
+		this.succIdxs = succIdxs;
+		this.instList = Collections.unmodifiableList(Arrays.asList(insts));
+		if (instToIdxMap == null) {
+			int numInsts = insts.length;
+			instToIdxMap = new HashMap<Inst, Integer>(numInsts);
+			for (int i = 0; i < numInsts; i++)
+				instToIdxMap.put(insts[i], i);
+		}
+		this.instToIdxMap = instToIdxMap;
+	}
+	// converts this control-flow graph back to its mutable form
+	private void thaw() {
+		if (insts == null)
+			return;
+		int numInsts = insts.length;
+		nodeToPreds = new HashMap<Inst, Set<Inst>>(numInsts);
+		nodeToSuccs = new HashMap<Inst, Set<Inst>>(numInsts);
+		for (int i = 0; i < numInsts; i++) {
+			nodeToPreds.put(insts[i], new ArraySet<Inst>(
+				new InstSet(predIdxs, predOffsets[i], predOffsets[i + 1])));
+			nodeToSuccs.put(insts[i], new ArraySet<Inst>(
+				new InstSet(succIdxs, succOffsets[i], succOffsets[i + 1])));
+		}
+		insts = null;
+		predOffsets = null;
+		predIdxs = null;
+		succOffsets = null;
+		succIdxs = null;
+		instToIdxMap = null;
+		instList = null;
+		evictCache();
+	}
+	private int getIdx(Inst inst) {
+		Integer idx = instToIdxMap.get(inst);
+		return (idx == null) ? -1 : idx.intValue();
+	}
+	// view of the nodes at the specified positions of an array of
+	// indices of the frozen form
+	private class InstSet extends AbstractSet<Inst> {
+		private final int[] idxs;
+		private final int lo;
+		private final int hi;
+		public InstSet(int[] idxs, int lo, int hi) {
+			this.idxs = idxs;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		public int size() {
+			return hi - lo;
+		}
+		public boolean contains(Object o) {
+			for (int k = lo; k < hi; k++) {
+				if (insts[idxs[k]] == o)
+					return true;
+			}
+			return false;
+		}
+		public Iterator<Inst> iterator() {
+			final Inst[] insts = CFG.this.insts;
+			return new Iterator<Inst>() {
+				private int k = lo;
+				public boolean hasNext() {
+					return k < hi;
+				}
+				public Inst next() {
+					if (k >= hi)
+						throw new NoSuchElementException();
+					return insts[idxs[k++]];
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	// view of all nodes of the frozen form
+	private class AllInstSet extends AbstractSet<Inst> {
+		public int size() {
+			return insts.length;
+		}
+		public boolean contains(Object o) {
+			return instToIdxMap.containsKey(o);
+		}
+		public Iterator<Inst> iterator() {
+			return instList.iterator();
+		}
+	}
+	public int numNodes() {
+		if (insts == null)
+			return super.numNodes();
+		return insts.length;
+	}
+	public boolean hasNode(Inst inst) {
+		if (insts == null)
+			return super.hasNode(inst);
+		return instToIdxMap.containsKey(inst);
+	}
+	public Set<Inst> getNodes() {
+		if (insts == null)
+			return super.getNodes();
+		return new AllInstSet();
+	}
+	public List<Inst> getNodesInRPO() {
+		if (insts == null)
+			return super.getNodesInRPO();
+		return instList;
+	}
+	public int numPreds(Inst inst) {
+		if (insts == null)
+			return super.numPreds(inst);
+		int i = getIdx(inst);
+		return (i < 0) ? 0 : predOffsets[i + 1] - predOffsets[i];
+	}
+	public int numSuccs(Inst inst) {
+		if (insts == null)
+			return super.numSuccs(inst);
+		int i = getIdx(inst);
+		return (i < 0) ? 0 : succOffsets[i + 1] - succOffsets[i];
+	}
+	public Set<Inst> getPreds(Inst inst) {
+		if (insts == null)
+			return super.getPreds(inst);
+		int i = getIdx(inst);
+		if (i < 0)
+			return Collections.emptySet();
+		return new InstSet(predIdxs, predOffsets[i], predOffsets[i + 1]);
+	}
+	public Set<Inst> getSuccs(Inst inst) {
+		if (insts == null)
+			return super.getSuccs(inst);
+		int i = getIdx(inst);
+		if (i < 0)
+			return Collections.emptySet();
+		return new InstSet(succIdxs, succOffsets[i], succOffsets[i + 1]);
+	}
+	public boolean hasEdge(Inst inst1, Inst inst2) {
+		if (insts == null)
+			return super.hasEdge(inst1, inst2);
+		int i = getIdx(inst1);
+		int j = getIdx(inst2);
+		if (i < 0 || j < 0)
+			return false;
+		for (int k = succOffsets[i]; k < succOffsets[i + 1]; k++) {
+			if (succIdxs[k] == j)
+				return true;
+		}
+		return false;
+	}
+	public boolean insertNode(Inst inst) {
+		thaw();
+		return super.insertNode(inst);
+	}
+	public boolean insertRoot(Inst inst) {
+		thaw();
+		return super.insertRoot(inst);
+	}
+	public boolean insertRootStrict(Inst inst) {
+		thaw();
+		return super.insertRootStrict(inst);
+	}
+	public boolean bypassNode(Inst inst) {
+		thaw();
+		return super.bypassNode(inst);
+	}
+	public boolean removeRootStrict(Inst inst) {
+		thaw();
+		return super.removeRootStrict(inst);
+	}
+	public boolean removeNode(Inst inst) {
+		thaw();
+		return super.removeNode(inst);
+	}
+	public boolean replaceNode(Inst oldInst, Inst newInst) {
+		thaw();
+		return super.replaceNode(oldInst, newInst);
+	}
+	public boolean insertEdge(Inst inst1, Inst inst2) {
+		thaw();
+		return super.insertEdge(inst1, inst2);
+	}
+	public boolean insertEdgeStrict(Inst inst1, Inst inst2) {
+		thaw();
+		return super.insertEdgeStrict(inst1, inst2);
+	}
+	public boolean removeEdge(Inst inst1, Inst inst2) {
+		thaw();
+		return super.removeEdge(inst1, inst2);
+	}
+	public void computeTransitiveClosure() {
+		thaw();
+		super.computeTransitiveClosure();
+	}
+	public void union(IGraph<Inst> graph) {
+		thaw();
+		super.union(graph);
+	}
 	/**
 	 * Sets the containing method of this control-flow graph.
 	 * 
@@ -325,47 +625,9 @@ public class CFG extends MutableGraph<Inst> {
 	 * 			performed on this control-flow graph.
 	 */
     public IReachingDefsAnalysis getReachingDefs() {
-    	final Map<Inst, Set<Pair<Var, Inst>>> incDefsMap =
-    		new HashMap<Inst, Set<Pair<Var, Inst>>>();
-    	final Map<Inst, Set<Pair<Var, Inst>>> outDefsMap =
-    		new HashMap<Inst, Set<Pair<Var, Inst>>>();
-    	List<Inst> insts = getNodesInRPO();
-    	for (Inst inst : insts) {
-    		incDefsMap.put(inst, new HashSet<Pair<Var, Inst>>());
-    		outDefsMap.put(inst, new HashSet<Pair<Var, Inst>>());
-    	}
-    	boolean changed = true;
-    	while (changed) {
-    		changed = false;
-    		for (Inst inst : insts) {
-    			Set<Pair<Var, Inst>> incDefs = incDefsMap.get(inst);
-    			for (Inst pred : getPreds(inst)) {
-    				Set<Pair<Var, Inst>> outDefs =
-    					outDefsMap.get(pred);
-    				changed |= incDefs.addAll(outDefs);
-    			}
-    			Set<Pair<Var, Inst>> outDefs = outDefsMap.get(inst);
-    			Var[] defVars = inst.getDefs();
-    			for (Var var : defVars) {
-    				Pair<Var, Inst> genDef =
-    					new Pair<Var, Inst>(var, inst);
-    				changed |= outDefs.add(genDef);
-    			}
-				for (Pair<Var, Inst> incDef : incDefs) {
-					Var var = incDef.val0;
-					if (!inst.defs(var))
-						changed |= outDefs.add(incDef);
-				}
-    		}
-    	}
-    	return new IReachingDefsAnalysis() {
-			public Set<Pair<Var, Inst>> getIncomingDefs(Inst inst) {
-				return incDefsMap.get(inst);
-			}
-			public Set<Pair<Var, Inst>> getOutgoingDefs(Inst inst) {
-				return outDefsMap.get(inst);
-			}
-    	};
+    	ReachingDefsAnalysis analysis = new ReachingDefsAnalysis(this);
+    	analysis.solve();
+    	return analysis;
     }
 	/**
 	 * Performs liveness dataflow analysis on this control-flow graph.
@@ -374,43 +636,9 @@ public class CFG extends MutableGraph<Inst> {
 	 * 			control-flow graph.
 	 */
     public ILivenessAnalysis getLiveVars() {
-    	final Map<Inst, Set<Var>> incLiveVarsMap =
-    		new HashMap<Inst, Set<Var>>();
-    	final Map<Inst, Set<Var>> outLiveVarsMap =
-    		new HashMap<Inst, Set<Var>>();
-    	List<Inst> insts = getNodesInRPO();
-    	for (Inst inst : insts) {
-    		incLiveVarsMap.put(inst, new HashSet<Var>());
-    		outLiveVarsMap.put(inst, new HashSet<Var>());
-    	}
-    	boolean changed = true;
-    	while (changed) {
-    		changed = false;
-    		for (int i = insts.size() - 1; i >= 0; i--) {
-    			Inst inst = insts.get(i);
-    			Set<Var> outLiveVars = outLiveVarsMap.get(inst);
-    			for (Inst succ : getSuccs(inst)) {
-    				Set<Var> incLiveVars = incLiveVarsMap.get(succ);
-    				changed |= outLiveVars.addAll(incLiveVars);
-    			}
-    			Set<Var> incLiveVars = incLiveVarsMap.get(inst);
-    			List<Var> useVars = Arrays.asList(inst.getUses());
-    			changed |= incLiveVars.addAll(useVars);
-    			List<Var> defVars = Arrays.asList(inst.getDefs());
-    			for (Var var : outLiveVars) {
-    				if (!defVars.contains(var))
-    					changed |= incLiveVars.add(var);
-    			}
-    		}
-    	}
-    	return new ILivenessAnalysis() {
-			public Set<Var> getIncomingLiveVars(Inst inst) {
-				return incLiveVarsMap.get(inst);
-			}
-			public Set<Var> getOutgoingLiveVars(Inst inst) {
-				return outLiveVarsMap.get(inst);
-			}
-    	};
+    	LivenessAnalysis analysis = new LivenessAnalysis(this);
+    	analysis.solve();
+    	return analysis;
     }
 	/**
 	 * Computes all loops in this control-flow graph.
@@ -54,6 +54,12 @@ public class Field implements java.io.Serializable {
 	public Type getCtnrType() {
 		return ctnrType;
 	}
+	int getModifiers() {
+		return modifiers;
+	}
+	void setModifiers(int modifiers) {
+		this.modifiers = modifiers;
+	}
 	public int getLineNum() {
 		return lineNum;	
 	}
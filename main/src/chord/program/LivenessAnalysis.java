@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.program;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import chord.program.insts.Inst;
+import chord.util.IndexMap;
+
+/**
+ * Liveness dataflow analysis implemented on top of
+ * {@link BitVectorAnalysis}.
+ * <p>
+ * Each local variable read or written in the control-flow graph is
+ * numbered once; the variables live at each statement are bit
+ * vectors viewed as sets of variables.
+ */
+public class LivenessAnalysis extends BitVectorAnalysis
+		implements ILivenessAnalysis {
+	private final IndexMap<Var> vars = new IndexMap<Var>();
+	/**
+	 * Constructor.
+	 *
+	 * @param	cfg	The control-flow graph to be analyzed.
+	 */
+	public LivenessAnalysis(CFG cfg) {
+		super(cfg, false);
+		for (Var var : cfg.getArgs())
+			vars.set(var);
+		for (Var var : cfg.getTmps())
+			vars.set(var);
+		for (Inst inst : insts) {
+			for (Var var : inst.getUses())
+				vars.set(var);
+			for (Var var : inst.getDefs())
+				vars.set(var);
+		}
+	}
+	protected void initTransfer(Inst inst, BitSet gen, BitSet kill) {
+		for (Var var : inst.getUses())
+			gen.set(vars.get(var));
+		for (Var var : inst.getDefs())
+			kill.set(vars.get(var));
+	}
+	public Set<Var> getIncomingLiveVars(Inst inst) {
+		BitSet bits = getEntryFacts(inst);
+		return (bits == null) ? null : new FactSet<Var>(bits, vars);
+	}
+	public Set<Var> getOutgoingLiveVars(Inst inst) {
+		BitSet bits = getExitFacts(inst);
+		return (bits == null) ? null : new FactSet<Var>(bits, vars);
+	}
+}
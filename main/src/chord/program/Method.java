@@ -5,6 +5,8 @@
  */
 package chord.program;
 
+import java.lang.ref.SoftReference;
+
 import chord.program.insts.Inst;
 import chord.util.Assertions;
 
@@ -42,9 +44,29 @@ public class Method implements java.io.Serializable {
 	 */
 	private Method ctnrMethod;
 	/**
-	 * Control-flow graph of this method.
+	 * Control-flow graph of this method, unless it is decoded on
+	 * demand from a serialized program.
 	 */
 	private transient CFG cfg;
+	/**
+	 * Reader of the serialized program from which the control-flow
+	 * graph of this method is decoded on demand.  It is null if this
+	 * method was not loaded from a serialized program or if its
+	 * control-flow graph has been set since.
+	 */
+	private transient volatile ProgramSerializer.Reader cfgReader;
+	/**
+	 * Offset of the serialized control-flow graph of this method.
+	 */
+	private transient int cfgOffset;
+	/**
+	 * Control-flow graph of this method most recently decoded from
+	 * the serialized program, if it has not been reclaimed since.
+	 * It is reclaimed only if no part of it (e.g., an instruction or
+	 * variable) is strongly reachable, in which case decoding it anew
+	 * cannot be told apart from keeping it.
+	 */
+	private transient volatile SoftReference<CFG> cfgRef;
 	/**
 	 * The first line number of this method's declaration in its
 	 * declaring file.
@@ -226,6 +248,8 @@ public class Method implements java.io.Serializable {
 	 */
 	public void setCFG(CFG cfg) {
 		this.cfg = cfg;
+		cfgReader = null;
+		cfgRef = null;
 	}
 	/**
 	 * Determines whether this method has a control-flow graph.
@@ -233,19 +257,74 @@ public class Method implements java.io.Serializable {
 	 * @return	true iff this method has a control-flow graph.
 	 */
 	public boolean hasCFG() {
-		return cfg != null;
+		return cfg != null || cfgReader != null;
 	}
 	/**
 	 * Provides the control-flow graph of this method.
 	 * <p>
 	 * It is null if the method does not contain any code, e.g., if
 	 * it is an abstract or native method.
+	 * <p>
+	 * If this method was loaded from a serialized program, its
+	 * control-flow graph is decoded the first time it is requested,
+	 * and may be reclaimed under memory pressure once it is no longer
+	 * used (see {@link ProgramSerializer}).  A control-flow graph
+	 * obtained from this method and modified in place must therefore
+	 * be set by {@link #setCFG(CFG)} for the modifications to persist.
 	 * 
 	 * @return	The control-flow graph of this method.
 	 */
 	public CFG getCFG() {
+		ProgramSerializer.Reader reader = cfgReader;
+		if (reader == null)
+			return cfg;
+		SoftReference<CFG> ref = cfgRef;
+		CFG cfg = (ref == null) ? null : ref.get();
+		if (cfg == null)
+			cfg = readCFG();
+		reader.use(this, cfg);
+		return cfg;
+	}
+	private synchronized CFG readCFG() {
+		ProgramSerializer.Reader reader = cfgReader;
+		if (reader == null)
+			return cfg;
+		SoftReference<CFG> ref = cfgRef;
+		CFG cfg = (ref == null) ? null : ref.get();
+		if (cfg == null) {
+			cfg = reader.readCFG(this, cfgOffset);
+			cfgRef = new SoftReference<CFG>(cfg);
+		}
 		return cfg;
 	}
+	// the control-flow graph of this method if it is in memory
+	private CFG getCFGIfPresent() {
+		if (cfgReader == null)
+			return cfg;
+		SoftReference<CFG> ref = cfgRef;
+		return (ref == null) ? null : ref.get();
+	}
+	void setCFGReader(ProgramSerializer.Reader reader, int offset) {
+		cfg = null;
+		cfgRef = null;
+		cfgOffset = offset;
+		cfgReader = reader;
+	}
+	ProgramSerializer.Reader getCFGReader() {
+		return cfgReader;
+	}
+	int getCFGOffset() {
+		return cfgOffset;
+	}
+	int getModifiers() {
+		return modifiers;
+	}
+	void setModifiers(int modifiers) {
+		this.modifiers = modifiers;
+	}
+	void setCtnrMethod(Method ctnrMethod) {
+		this.ctnrMethod = ctnrMethod;
+	}
 	/**
 	 * Provides the first line number of this method's declaration
 	 * in its containing file.
@@ -376,8 +455,11 @@ public class Method implements java.io.Serializable {
 	 * its body has already been stripped of all skip statements.
 	 */
 	public void removeSkips() {
-		if (cfg != null)
+		CFG cfg = getCFG();
+		if (cfg != null) {
 			cfg.removeSkips();
+			setCFG(cfg);
+		}
 	}
 	/**
 	 * Converts the body of this method into Static Single Assignment
@@ -387,8 +469,11 @@ public class Method implements java.io.Serializable {
 	 * its body has already been converted into SSA form.
 	 */
 	public void convertToSSA() {
-		if (cfg != null)
+		CFG cfg = getCFG();
+		if (cfg != null) {
 			cfg.convertToSSA();
+			setCFG(cfg);
+		}
 	}
 	/**
 	 * Validates this method (checks its partial specification).
@@ -397,6 +482,9 @@ public class Method implements java.io.Serializable {
 		Assertions.Assert(sign != null);
 		// Check that sign matches a certain regular expression
 		Assertions.Assert(ctnrType != null);
+		// a control-flow graph not in memory was validated before the
+		// program was serialized
+		CFG cfg = getCFGIfPresent();
 		if (cfg != null) {
 			for (Inst inst : cfg.getNodes()) {
 				Method method = inst.getImmediateCtnrMethod();
@@ -409,6 +497,7 @@ public class Method implements java.io.Serializable {
 		}
 	}
 	public String toLongString() {
+		CFG cfg = getCFG();
 		return toString() + "\nmodifiers: " +
 			Modifiers.toString(modifiers) +
 			"\ncfg: " + ((cfg == null) ? "null" : cfg.toString());
@@ -33,12 +33,28 @@ public class Program implements java.io.Serializable {
 	private boolean removedLoops;
 	private boolean removedSkips;
 	private boolean convertedToSSA;
+	private transient TypeHierarchy typeHierarchy;
 	public Program(List<Type> types,
 			String mainClassName, String srcPathName) {
 		this.types = types;
 		this.mainClassName = mainClassName;
 		this.srcPathName = srcPathName;
 	}
+	String getMainClassName() {
+		return mainClassName;
+	}
+	String getSrcPathName() {
+		return srcPathName;
+	}
+	// records the transformations performed on a program before it
+	// was serialized
+	void setTransformed(boolean removedSyncs, boolean removedLoops,
+			boolean removedSkips, boolean convertedToSSA) {
+		this.removedSyncs = removedSyncs;
+		this.removedLoops = removedLoops;
+		this.removedSkips = removedSkips;
+		this.convertedToSSA = convertedToSSA;
+	}
 	/**
 	 * Provides the main method of this program.  It is a static method
 	 * with signature <tt>void main(java.lang.String[])</tt>.
@@ -73,6 +89,19 @@ public class Program implements java.io.Serializable {
 		}
 		return null;
 	}
+	/**
+	 * Provides the index of the subtype relation over all types in
+	 * this program, building it on first call.  It must not be
+	 * called before the supertypes of all types are set.
+	 *
+	 * @return	The index of the subtype relation over all types in
+	 * 			this program.
+	 */
+	public synchronized TypeHierarchy getTypeHierarchy() {
+		if (typeHierarchy == null)
+			typeHierarchy = new TypeHierarchy(types);
+		return typeHierarchy;
+	}
 	public boolean removedSyncs() {
 		return removedSyncs;
 	}
@@ -144,6 +173,20 @@ public class Program implements java.io.Serializable {
 			convertedToSSA = true;
 		}
 	}
+	/**
+	 * Freezes the control-flow graph of each method in each class
+	 * in this program (see {@link CFG#freeze()}).  It should be done
+	 * once all transformations of this program have been performed.
+	 */
+	public void freeze() {
+		for (Type type : getTypes()) {
+			for (Method method : type.getMethods()) {
+				CFG cfg = method.getCFG();
+				if (cfg != null)
+					cfg.freeze();
+			}
+		}
+	}
 	private void writeObject(java.io.ObjectOutputStream out)
 			throws IOException  {
 		out.defaultWriteObject();
@@ -212,6 +255,7 @@ public class Program implements java.io.Serializable {
 	 * Validates this program (checks its partial specification).
 	 */
 	public void validate() {
+		getTypeHierarchy();
 		for (Type type : getTypes())
 			type.validate();
 	}
@@ -0,0 +1,817 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.program;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import gnu.trove.TIntArrayList;
+
+import chord.program.insts.AcqLockInst;
+import chord.program.insts.AryElemRefInst;
+import chord.program.insts.ClsVarAsgnInst;
+import chord.program.insts.HeadInst;
+import chord.program.insts.Inst;
+import chord.program.insts.InstFldRefInst;
+import chord.program.insts.InstVisitor;
+import chord.program.insts.InvkInst;
+import chord.program.insts.InvkKind;
+import chord.program.insts.NilValAsgnInst;
+import chord.program.insts.ObjValAsgnInst;
+import chord.program.insts.ObjVarAsgnInst;
+import chord.program.insts.PhiExpAsgnInst;
+import chord.program.insts.RelLockInst;
+import chord.program.insts.SkipInst;
+import chord.program.insts.StatFldRefInst;
+import chord.program.insts.StrValAsgnInst;
+import chord.program.insts.TailInst;
+
+/**
+ * Compact binary serialization of programs.
+ * <p>
+ * Types, fields, and methods are numbered in the order in which
+ * they occur in the program, and are referred to by number; names,
+ * signatures, and other strings are stored once in a string table.
+ * The body (control-flow graph) of each method is stored as a
+ * separate block, with its own table of local variables and
+ * strings, referring to types, fields, and methods by number.
+ * <p>
+ * A program is loaded by reading the file in one go and decoding
+ * all types, fields, and methods, but not the bodies of methods:
+ * the body of each method is decoded from its block the first time
+ * it is requested by {@link Method#getCFG()}.
+ * <p>
+ * Decoded bodies are held softly, so that bodies that are no longer
+ * used can be reclaimed under memory pressure and are decoded anew
+ * if requested again.  The bodies most recently requested, up to the
+ * number specified by system property <tt>chord.cfg.cache.size</tt>
+ * (default 5000), are held strongly and are never reclaimed.
+ */
+public class ProgramSerializer {
+	private static final int MAGIC = 0x43484f50;	// "CHOP"
+	private static final int VERSION = 1;
+	// kinds of instructions
+	private static final int SKIP = 0;
+	private static final int NIL_VAL_ASGN = 1;
+	private static final int STR_VAL_ASGN = 2;
+	private static final int CLS_VAR_ASGN = 3;
+	private static final int OBJ_VAL_ASGN = 4;
+	private static final int OBJ_VAR_ASGN = 5;
+	private static final int PHI_EXP_ASGN = 6;
+	private static final int ARY_ELEM_REF = 7;
+	private static final int INST_FLD_REF = 8;
+	private static final int STAT_FLD_REF = 9;
+	private static final int INVK = 10;
+	private static final int ACQ_LOCK = 11;
+	private static final int REL_LOCK = 12;
+	private static final int HEAD = 13;
+	private static final int TAIL = 14;
+	private static final TypeKind[] typeKinds = TypeKind.values();
+	private static final InvkKind[] invkKinds = InvkKind.values();
+
+	/**
+	 * Saves the specified program to the specified file.
+	 *
+	 * @param	program	A program.
+	 * @param	fileName	The name of the file to which the program
+	 * 			must be saved.
+	 */
+	public static void save(Program program, String fileName) {
+		try {
+			OutputStream out = new FileOutputStream(fileName);
+			try {
+				write(program, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	/**
+	 * Writes the serialized form of the specified program to the
+	 * specified stream.  Bodies of methods that have not been loaded
+	 * yet are copied as they are, without being loaded.
+	 *
+	 * @param	program	A program.
+	 * @param	out	The stream to which the serialized form of the
+	 * 			program must be written.
+	 */
+	public static void write(Program program, OutputStream out)
+			throws IOException {
+		new Writer(program).write(out);
+	}
+	/**
+	 * Loads a program from the specified file.
+	 *
+	 * @param	fileName	The name of a file to which a program was
+	 * 			saved by {@link #save(Program, String)}.
+	 *
+	 * @return	The program saved to the specified file.
+	 */
+	public static Program load(String fileName) {
+		File file = new File(fileName);
+		byte[] buf = new byte[(int) file.length()];
+		try {
+			DataInputStream in =
+				new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(buf);
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		return new Reader(buf, fileName).read();
+	}
+
+	// a byte buffer to which numbers and strings are written in a
+	// compact form
+	private static class Out extends ByteArrayOutputStream {
+		// writes a number as a varint, zigzag-encoded so that small
+		// negative numbers (e.g., -1 for none) take a single byte
+		public void writeNum(int v) {
+			int u = (v << 1) ^ (v >> 31);
+			while ((u & ~0x7F) != 0) {
+				write((u & 0x7F) | 0x80);
+				u >>>= 7;
+			}
+			write(u);
+		}
+		public void writeStr(String s) {
+			byte[] b;
+			try {
+				b = s.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				throw new RuntimeException(ex);
+			}
+			writeNum(b.length);
+			write(b, 0, b.length);
+		}
+		public void writeOut(Out out) {
+			write(out.buf, 0, out.count);
+		}
+	}
+	// a table of strings, each referred to by its position
+	private static class StrTable {
+		private final Map<String, Integer> strToIdxMap =
+			new HashMap<String, Integer>();
+		private final Out out = new Out();
+		public int get(String s) {
+			if (s == null)
+				return -1;
+			Integer idx = strToIdxMap.get(s);
+			if (idx == null) {
+				idx = strToIdxMap.size();
+				strToIdxMap.put(s, idx);
+				out.writeStr(s);
+			}
+			return idx;
+		}
+		public void writeTo(Out dst) {
+			dst.writeNum(strToIdxMap.size());
+			dst.writeOut(out);
+		}
+	}
+
+	private static class Writer {
+		private final Program program;
+		private final Map<Type, Integer> typeToIdxMap =
+			new HashMap<Type, Integer>();
+		private final Map<Field, Integer> fieldToIdxMap =
+			new HashMap<Field, Integer>();
+		private final Map<Method, Integer> methodToIdxMap =
+			new HashMap<Method, Integer>();
+		public Writer(Program program) {
+			this.program = program;
+		}
+		public void write(OutputStream dst) throws IOException {
+			List<Type> types = program.getTypes();
+			for (Type type : types) {
+				typeToIdxMap.put(type, typeToIdxMap.size());
+				for (Field field : type.getFields())
+					fieldToIdxMap.put(field, fieldToIdxMap.size());
+				for (Method method : type.getMethods())
+					methodToIdxMap.put(method, methodToIdxMap.size());
+			}
+			StrTable strs = new StrTable();
+			Out out = new Out();
+			out.writeNum(strs.get(program.getMainClassName()));
+			out.writeNum(strs.get(program.getSrcPathName()));
+			out.writeNum(types.size());
+			for (Type type : types) {
+				out.writeNum(strs.get(type.getName()));
+				out.writeNum(type.getKind().ordinal());
+				out.writeNum(strs.get(type.getFileName()));
+			}
+			for (Type type : types) {
+				List<Type> suptypes = type.getSuptypes();
+				out.writeNum(suptypes.size());
+				for (Type suptype : suptypes)
+					out.writeNum(getIdx(suptype));
+				out.writeNum(getIdx(type.getElemType()));
+				List<Field> fields = type.getFields();
+				out.writeNum(fields.size());
+				for (Field field : fields) {
+					out.writeNum(strs.get(field.getName()));
+					out.writeNum(getIdx(field.getDeclType()));
+					out.writeNum(field.getModifiers());
+					out.writeNum(field.getLineNum());
+				}
+				List<Method> methods = type.getMethods();
+				out.writeNum(methods.size());
+				for (Method method : methods) {
+					out.writeNum(strs.get(method.getSign()));
+					out.writeNum(method.getModifiers());
+					out.writeNum(method.getLineNum());
+					out.writeNum(getIdx(method.getImmediateCtnrMethod()));
+				}
+			}
+			for (Type type : types) {
+				for (Method method : type.getMethods())
+					writeBody(method, out);
+			}
+			Out header = new Out();
+			header.write(MAGIC >>> 24);
+			header.write(MAGIC >>> 16);
+			header.write(MAGIC >>> 8);
+			header.write(MAGIC);
+			header.writeNum(VERSION);
+			int flags = 0;
+			if (program.removedSyncs())
+				flags |= 1;
+			if (program.removedLoops())
+				flags |= 2;
+			if (program.removedSkips())
+				flags |= 4;
+			if (program.convertedToSSA())
+				flags |= 8;
+			header.writeNum(flags);
+			strs.writeTo(header);
+			header.writeTo(dst);
+			out.writeTo(dst);
+		}
+		private int getIdx(Type type) {
+			if (type == null)
+				return -1;
+			Integer idx = typeToIdxMap.get(type);
+			if (idx == null) {
+				throw new RuntimeException("Type '" + type +
+					"' is not in the program.");
+			}
+			return idx;
+		}
+		private int getIdx(Field field) {
+			Integer idx = fieldToIdxMap.get(field);
+			if (idx == null) {
+				throw new RuntimeException("Field '" + field +
+					"' is not in the program.");
+			}
+			return idx;
+		}
+		private int getIdx(Method method) {
+			if (method == null)
+				return -1;
+			Integer idx = methodToIdxMap.get(method);
+			if (idx == null) {
+				throw new RuntimeException("Method '" + method +
+					"' is not in the program.");
+			}
+			return idx;
+		}
+		// writes the body of the specified method as a block preceded
+		// by its length, or -1 if the method has no body
+		private void writeBody(Method method, Out out) {
+			Reader reader = method.getCFGReader();
+			if (reader != null) {
+				reader.copyBody(method.getCFGOffset(), out);
+				return;
+			}
+			CFG cfg = method.getCFG();
+			if (cfg == null) {
+				out.writeNum(-1);
+				return;
+			}
+			BodyWriter bodyWriter = new BodyWriter(cfg);
+			Out body = new Out();
+			bodyWriter.strs.writeTo(body);
+			body.writeOut(bodyWriter.out);
+			out.writeNum(body.size());
+			out.writeOut(body);
+		}
+		// writes the local variables and instructions of a
+		// control-flow graph
+		private class BodyWriter implements InstVisitor {
+			private final StrTable strs = new StrTable();
+			private final Out out = new Out();
+			private final Map<Var, Integer> varToIdxMap =
+				new HashMap<Var, Integer>();
+			private final Map<Inst, Integer> instToIdxMap =
+				new HashMap<Inst, Integer>();
+			public BodyWriter(CFG cfg) {
+				// instructions are numbered in reverse post-order,
+				// rather than in the unspecified order of getNodes(),
+				// so that serializing a program is deterministic
+				List<Inst> insts = new ArrayList<Inst>(cfg.getNodesInRPO());
+				if (insts.size() < cfg.numNodes()) {
+					Set<Inst> reached = new HashSet<Inst>(insts);
+					for (Inst inst : cfg.getNodes()) {
+						if (!reached.contains(inst))
+							insts.add(inst);
+					}
+				}
+				// number all variables first, since they are decoded
+				// before the instructions using them
+				List<Var> vars = new ArrayList<Var>();
+				addVars(cfg.getArgs(), vars);
+				addVars(cfg.getTmps(), vars);
+				addVars(cfg.getRets(), vars);
+				for (Inst inst : insts) {
+					if (inst instanceof HeadInst || inst instanceof TailInst)
+						continue;
+					for (Var var : inst.getUses())
+						addVar(var, vars);
+					for (Var var : inst.getDefs())
+						addVar(var, vars);
+				}
+				out.writeNum(vars.size());
+				for (Var var : vars) {
+					out.writeNum(strs.get(var.getName()));
+					out.writeNum(getIdx(var.getType()));
+				}
+				writeVars(cfg.getArgs());
+				writeVars(cfg.getTmps());
+				writeVars(cfg.getRets());
+				writeVar(cfg.getSync());
+				out.writeNum(insts.size());
+				for (Inst inst : insts) {
+					instToIdxMap.put(inst, instToIdxMap.size());
+					inst.accept(this);
+				}
+				out.writeNum(instToIdxMap.get(cfg.getHead()));
+				TailInst tail = cfg.getTail();
+				out.writeNum(tail == null ? -1 : instToIdxMap.get(tail));
+				for (Inst inst : insts) {
+					writeInsts(cfg.getPreds(inst));
+					writeInsts(cfg.getSuccs(inst));
+				}
+			}
+			private void addVars(List<Var> src, List<Var> dst) {
+				for (Var var : src)
+					addVar(var, dst);
+			}
+			private void addVar(Var var, List<Var> dst) {
+				if (var != null && !varToIdxMap.containsKey(var)) {
+					varToIdxMap.put(var, dst.size());
+					dst.add(var);
+				}
+			}
+			private void writeVar(Var var) {
+				out.writeNum(var == null ? -1 : varToIdxMap.get(var));
+			}
+			private void writeVars(Iterable<Var> vars) {
+				int n = 0;
+				for (Var var : vars)
+					n++;
+				out.writeNum(n);
+				for (Var var : vars)
+					writeVar(var);
+			}
+			private void writeInsts(Set<Inst> insts) {
+				// predecessors and successors are unordered, and the
+				// order of the former depends on identity hash codes
+				int[] idxs = new int[insts.size()];
+				int i = 0;
+				for (Inst inst : insts)
+					idxs[i++] = instToIdxMap.get(inst);
+				Arrays.sort(idxs);
+				out.writeNum(idxs.length);
+				for (int idx : idxs)
+					out.writeNum(idx);
+			}
+			private void writeKind(int kind, Inst inst) {
+				out.writeNum(kind);
+				out.writeNum(inst.getLineNum());
+			}
+			public void visit(SkipInst inst) {
+				writeKind(SKIP, inst);
+			}
+			public void visit(NilValAsgnInst inst) {
+				writeKind(NIL_VAL_ASGN, inst);
+				writeVar(inst.getVar());
+			}
+			public void visit(StrValAsgnInst inst) {
+				writeKind(STR_VAL_ASGN, inst);
+				writeVar(inst.getVar());
+				out.writeNum(strs.get(inst.getStr()));
+			}
+			public void visit(ClsVarAsgnInst inst) {
+				writeKind(CLS_VAR_ASGN, inst);
+				writeVar(inst.getVar());
+				writeVar(inst.getBase());
+			}
+			public void visit(ObjValAsgnInst inst) {
+				writeKind(OBJ_VAL_ASGN, inst);
+				writeVar(inst.getVar());
+				out.writeNum(getIdx(inst.getType()));
+			}
+			public void visit(ObjVarAsgnInst inst) {
+				writeKind(OBJ_VAR_ASGN, inst);
+				writeVar(inst.getLvar());
+				writeVar(inst.getRvar());
+			}
+			public void visit(PhiExpAsgnInst inst) {
+				writeKind(PHI_EXP_ASGN, inst);
+				writeVar(inst.getLvar());
+				// the operands of a phi are unordered
+				Set<Var> rvars = inst.getRvars();
+				int[] idxs = new int[rvars.size()];
+				int i = 0;
+				for (Var var : rvars)
+					idxs[i++] = varToIdxMap.get(var);
+				Arrays.sort(idxs);
+				out.writeNum(idxs.length);
+				for (int idx : idxs)
+					out.writeNum(idx);
+			}
+			public void visit(AryElemRefInst inst) {
+				writeKind(ARY_ELEM_REF, inst);
+				writeVar(inst.getVar());
+				writeVar(inst.getBase());
+				out.writeNum(inst.isWr() ? 1 : 0);
+			}
+			public void visit(InstFldRefInst inst) {
+				writeKind(INST_FLD_REF, inst);
+				writeVar(inst.getVar());
+				writeVar(inst.getBase());
+				out.writeNum(getIdx(inst.getField()));
+				out.writeNum(inst.isWr() ? 1 : 0);
+			}
+			public void visit(StatFldRefInst inst) {
+				writeKind(STAT_FLD_REF, inst);
+				writeVar(inst.getVar());
+				out.writeNum(getIdx(inst.getField()));
+				out.writeNum(inst.isWr() ? 1 : 0);
+			}
+			public void visit(InvkInst inst) {
+				writeKind(INVK, inst);
+				out.writeNum(inst.getInvkKind().ordinal());
+				out.writeNum(getIdx(inst.getRslvMethod()));
+				writeVars(inst.getArgs());
+				writeVars(inst.getRets());
+			}
+			public void visit(AcqLockInst inst) {
+				writeKind(ACQ_LOCK, inst);
+				writeVar(inst.getVar());
+			}
+			public void visit(RelLockInst inst) {
+				writeKind(REL_LOCK, inst);
+			}
+			public void visit(HeadInst inst) {
+				writeKind(HEAD, inst);
+			}
+			public void visit(TailInst inst) {
+				writeKind(TAIL, inst);
+			}
+		}
+	}
+
+	// a cursor over a byte buffer from which numbers and strings are
+	// read in the form written by Out
+	private static class In {
+		private final byte[] buf;
+		private int pos;
+		public In(byte[] buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+		}
+		public int readNum() {
+			int u = 0;
+			for (int shift = 0; ; shift += 7) {
+				int b = buf[pos++];
+				u |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return (u >>> 1) ^ -(u & 1);
+			}
+		}
+		public String readStr() {
+			int len = readNum();
+			String s;
+			try {
+				s = new String(buf, pos, len, "UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				throw new RuntimeException(ex);
+			}
+			pos += len;
+			return s;
+		}
+		public String[] readStrs() {
+			String[] strs = new String[readNum()];
+			for (int i = 0; i < strs.length; i++)
+				strs[i] = readStr();
+			return strs;
+		}
+	}
+
+	/**
+	 * Decoder of a serialized program, which retains the serialized
+	 * form to decode the bodies of methods on demand.
+	 */
+	static class Reader {
+		private final byte[] buf;
+		private final String fileName;
+		private final int cacheSize =
+			Integer.getInteger("chord.cfg.cache.size", 5000);
+		// bodies most recently requested, least recently first
+		private final Map<Method, CFG> cache =
+			new LinkedHashMap<Method, CFG>(16, 0.75f, true) {
+				protected boolean removeEldestEntry(
+						Map.Entry<Method, CFG> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		private Type[] types;
+		private Field[] fields;
+		private Method[] methods;
+		private Reader(byte[] buf, String fileName) {
+			this.buf = buf;
+			this.fileName = fileName;
+		}
+		private Program read() {
+			if (buf.length < 4 || (((buf[0] & 0xFF) << 24) |
+					((buf[1] & 0xFF) << 16) | ((buf[2] & 0xFF) << 8) |
+					(buf[3] & 0xFF)) != MAGIC) {
+				throw new RuntimeException("File '" + fileName +
+					"' is not a serialized program; delete it to " +
+					"rebuild the program.");
+			}
+			In in = new In(buf, 4);
+			int version = in.readNum();
+			if (version != VERSION) {
+				throw new RuntimeException("File '" + fileName +
+					"' has version " + version + " of the serialized " +
+					"program format; expected version " + VERSION +
+					"; delete it to rebuild the program.");
+			}
+			int flags = in.readNum();
+			String[] strs = in.readStrs();
+			String mainClassName = getStr(strs, in.readNum());
+			String srcPathName = getStr(strs, in.readNum());
+			int numTypes = in.readNum();
+			types = new Type[numTypes];
+			for (int i = 0; i < numTypes; i++) {
+				String name = strs[in.readNum()];
+				TypeKind kind = typeKinds[in.readNum()];
+				String fileName = getStr(strs, in.readNum());
+				types[i] = new Type(name, kind, fileName);
+			}
+			List<Field> allFields = new ArrayList<Field>();
+			List<Method> allMethods = new ArrayList<Method>();
+			List<Integer> ctnrMethodIdxs = new ArrayList<Integer>();
+			for (Type type : types) {
+				int numSuptypes = in.readNum();
+				List<Type> suptypes = new ArrayList<Type>(numSuptypes);
+				for (int i = 0; i < numSuptypes; i++)
+					suptypes.add(types[in.readNum()]);
+				type.setSuptypes(suptypes);
+				type.setElemType(getType(in.readNum()));
+				int numFields = in.readNum();
+				List<Field> fields = new ArrayList<Field>(numFields);
+				for (int i = 0; i < numFields; i++) {
+					String name = strs[in.readNum()];
+					Type declType = types[in.readNum()];
+					int modifiers = in.readNum();
+					int lineNum = in.readNum();
+					Field field = new Field(name, declType, type, lineNum);
+					field.setModifiers(modifiers);
+					fields.add(field);
+				}
+				type.setFields(fields);
+				allFields.addAll(fields);
+				int numMethods = in.readNum();
+				List<Method> methods = new ArrayList<Method>(numMethods);
+				for (int i = 0; i < numMethods; i++) {
+					String sign = strs[in.readNum()];
+					int modifiers = in.readNum();
+					int lineNum = in.readNum();
+					ctnrMethodIdxs.add(in.readNum());
+					// the containing method, if any, is set below
+					// since it may not be decoded yet
+					Method method = new Method(sign, type, null, lineNum);
+					method.setModifiers(modifiers);
+					methods.add(method);
+				}
+				type.setMethods(methods);
+				allMethods.addAll(methods);
+			}
+			fields = allFields.toArray(new Field[allFields.size()]);
+			methods = allMethods.toArray(new Method[allMethods.size()]);
+			for (int i = 0; i < methods.length; i++) {
+				int idx = ctnrMethodIdxs.get(i);
+				if (idx >= 0)
+					methods[i].setCtnrMethod(methods[idx]);
+			}
+			for (Method method : methods) {
+				int offset = in.pos;
+				int len = in.readNum();
+				if (len >= 0) {
+					method.setCFGReader(this, offset);
+					in.pos += len;
+				}
+			}
+			List<Type> typeList = new ArrayList<Type>(numTypes);
+			for (Type type : types)
+				typeList.add(type);
+			Program program =
+				new Program(typeList, mainClassName, srcPathName);
+			program.setTransformed((flags & 1) != 0, (flags & 2) != 0,
+				(flags & 4) != 0, (flags & 8) != 0);
+			return program;
+		}
+		private static String getStr(String[] strs, int idx) {
+			return (idx < 0) ? null : strs[idx];
+		}
+		private Type getType(int idx) {
+			return (idx < 0) ? null : types[idx];
+		}
+		/**
+		 * Records that the specified body of the specified method has
+		 * been requested, keeping it from being reclaimed while it is
+		 * among the bodies most recently requested.
+		 *
+		 * @param	method	A method.
+		 * @param	cfg	The control-flow graph of the method.
+		 */
+		void use(Method method, CFG cfg) {
+			if (cacheSize <= 0)
+				return;
+			synchronized (cache) {
+				cache.put(method, cfg);
+			}
+		}
+		// copies the block of the body at the specified offset,
+		// preceded by its length, to the specified buffer
+		private void copyBody(int offset, Out out) {
+			In in = new In(buf, offset);
+			int len = in.readNum();
+			out.write(buf, offset, in.pos - offset + len);
+		}
+		/**
+		 * Decodes the body of the specified method from the block at
+		 * the specified offset.
+		 *
+		 * @param	method	A method.
+		 * @param	offset	The offset of the block of the body of the
+		 * 			method.
+		 *
+		 * @return	The control-flow graph of the method.
+		 */
+		CFG readCFG(Method method, int offset) {
+			In in = new In(buf, offset);
+			in.readNum();
+			String[] strs = in.readStrs();
+			int numVars = in.readNum();
+			Var[] vars = new Var[numVars];
+			for (int i = 0; i < numVars; i++) {
+				String name = strs[in.readNum()];
+				vars[i] = new Var(name, types[in.readNum()]);
+			}
+			List<Var> args = readVars(in, vars);
+			List<Var> tmps = readVars(in, vars);
+			List<Var> rets = readVars(in, vars);
+			Var sync = readVar(in, vars);
+			int numInsts = in.readNum();
+			Inst[] insts = new Inst[numInsts];
+			for (int i = 0; i < numInsts; i++)
+				insts[i] = readInst(in, vars, strs);
+			HeadInst head = (HeadInst) insts[in.readNum()];
+			int tailIdx = in.readNum();
+			TailInst tail = (tailIdx < 0) ? null : (TailInst) insts[tailIdx];
+			// instructions are written in reverse post-order, so the
+			// body is decoded directly into the frozen form of its cfg
+			int[] predOffsets = new int[numInsts + 1];
+			int[] succOffsets = new int[numInsts + 1];
+			TIntArrayList predIdxs = new TIntArrayList();
+			TIntArrayList succIdxs = new TIntArrayList();
+			for (int i = 0; i < numInsts; i++) {
+				readIdxs(in, predIdxs);
+				predOffsets[i + 1] = predIdxs.size();
+				readIdxs(in, succIdxs);
+				succOffsets[i + 1] = succIdxs.size();
+			}
+			CFG cfg = new CFG(head, tail, args, tmps, rets, sync, insts,
+				predOffsets, predIdxs.toNativeArray(), succOffsets,
+				succIdxs.toNativeArray());
+			for (Var var : vars)
+				var.setCFG(cfg);
+			for (Inst inst : insts)
+				inst.setCFG(cfg);
+			cfg.setCtnrMethod(method);
+			return cfg;
+		}
+		private static Var readVar(In in, Var[] vars) {
+			int idx = in.readNum();
+			return (idx < 0) ? null : vars[idx];
+		}
+		private static List<Var> readVars(In in, Var[] vars) {
+			int n = in.readNum();
+			List<Var> list = new ArrayList<Var>(n);
+			for (int i = 0; i < n; i++)
+				list.add(vars[in.readNum()]);
+			return list;
+		}
+		private static void readIdxs(In in, TIntArrayList idxs) {
+			int n = in.readNum();
+			for (int i = 0; i < n; i++)
+				idxs.add(in.readNum());
+		}
+		private Inst readInst(In in, Var[] vars, String[] strs) {
+			int kind = in.readNum();
+			int lineNum = in.readNum();
+			switch (kind) {
+			case SKIP:
+				return new SkipInst(lineNum);
+			case NIL_VAL_ASGN:
+				return new NilValAsgnInst(readVar(in, vars), lineNum);
+			case STR_VAL_ASGN: {
+				Var var = readVar(in, vars);
+				return new StrValAsgnInst(var, strs[in.readNum()], lineNum);
+			}
+			case CLS_VAR_ASGN: {
+				Var var = readVar(in, vars);
+				Var base = readVar(in, vars);
+				return new ClsVarAsgnInst(var, base, lineNum);
+			}
+			case OBJ_VAL_ASGN: {
+				Var var = readVar(in, vars);
+				return new ObjValAsgnInst(var, types[in.readNum()], lineNum);
+			}
+			case OBJ_VAR_ASGN: {
+				Var lvar = readVar(in, vars);
+				Var rvar = readVar(in, vars);
+				return new ObjVarAsgnInst(lvar, rvar, lineNum);
+			}
+			case PHI_EXP_ASGN: {
+				Var lvar = readVar(in, vars);
+				Set<Var> rvars = new HashSet<Var>(readVars(in, vars));
+				return new PhiExpAsgnInst(lvar, rvars, lineNum);
+			}
+			case ARY_ELEM_REF: {
+				Var var = readVar(in, vars);
+				Var base = readVar(in, vars);
+				boolean isWr = in.readNum() != 0;
+				return new AryElemRefInst(var, base, isWr, lineNum);
+			}
+			case INST_FLD_REF: {
+				Var var = readVar(in, vars);
+				Var base = readVar(in, vars);
+				Field field = fields[in.readNum()];
+				boolean isWr = in.readNum() != 0;
+				return new InstFldRefInst(var, base, field, isWr, lineNum);
+			}
+			case STAT_FLD_REF: {
+				Var var = readVar(in, vars);
+				Field field = fields[in.readNum()];
+				boolean isWr = in.readNum() != 0;
+				return new StatFldRefInst(var, field, isWr, lineNum);
+			}
+			case INVK: {
+				InvkKind invkKind = invkKinds[in.readNum()];
+				Method rslvMethod = methods[in.readNum()];
+				List<Var> args = readVars(in, vars);
+				List<Var> rets = readVars(in, vars);
+				return new InvkInst(invkKind, rslvMethod, args, rets, lineNum);
+			}
+			case ACQ_LOCK:
+				return new AcqLockInst(readVar(in, vars), lineNum);
+			case REL_LOCK:
+				return new RelLockInst(lineNum);
+			case HEAD:
+				return new HeadInst(lineNum);
+			case TAIL:
+				return new TailInst(lineNum);
+			default:
+				throw new RuntimeException("Unknown kind " + kind +
+					" of instruction in file '" + fileName + "'.");
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.program;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import chord.program.insts.Inst;
+import chord.util.IndexMap;
+import chord.util.tuple.object.Pair;
+
+/**
+ * Reaching definitions dataflow analysis implemented on top of
+ * {@link BitVectorAnalysis}.
+ * <p>
+ * Each definition, a pair of a local variable and a statement
+ * writing it, is numbered once; the definitions reaching each
+ * statement are bit vectors viewed as sets of such pairs.
+ */
+public class ReachingDefsAnalysis extends BitVectorAnalysis
+		implements IReachingDefsAnalysis {
+	private final IndexMap<Pair<Var, Inst>> defs =
+		new IndexMap<Pair<Var, Inst>>();
+	private final Map<Var, BitSet> varToDefsMap =
+		new HashMap<Var, BitSet>();
+	/**
+	 * Constructor.
+	 *
+	 * @param	cfg	The control-flow graph to be analyzed.
+	 */
+	public ReachingDefsAnalysis(CFG cfg) {
+		super(cfg, true);
+		for (Inst inst : insts) {
+			for (Var var : inst.getDefs()) {
+				int i = defs.set(new Pair<Var, Inst>(var, inst));
+				BitSet varDefs = varToDefsMap.get(var);
+				if (varDefs == null) {
+					varDefs = new BitSet();
+					varToDefsMap.put(var, varDefs);
+				}
+				varDefs.set(i);
+			}
+		}
+	}
+	protected void initTransfer(Inst inst, BitSet gen, BitSet kill) {
+		for (Var var : inst.getDefs()) {
+			gen.set(defs.get(new Pair<Var, Inst>(var, inst)));
+			kill.or(varToDefsMap.get(var));
+		}
+	}
+	public Set<Pair<Var, Inst>> getIncomingDefs(Inst inst) {
+		BitSet bits = getEntryFacts(inst);
+		return (bits == null) ? null : new FactSet<Pair<Var, Inst>>(bits, defs);
+	}
+	public Set<Pair<Var, Inst>> getOutgoingDefs(Inst inst) {
+		BitSet bits = getExitFacts(inst);
+		return (bits == null) ? null : new FactSet<Pair<Var, Inst>>(bits, defs);
+	}
+}
@@ -65,6 +65,15 @@ public class Type implements java.io.Serializable {
 	 * or <tt>CONCRETE_CLASS_TYPE</tt> and an empty list otherwise.
 	 */
 	private transient List<Method> methods;
+	/**
+	 * Index of the subtype relation containing this type, if one has
+	 * been built, and null otherwise.
+	 */
+	private transient TypeHierarchy hierarchy;
+	/**
+	 * Id of this type in {@link #hierarchy}.
+	 */
+	private transient int id;
 
 	public Type(String name, TypeKind kind, String fileName) {
 		Assertions.Assert(name != null);
@@ -138,6 +147,16 @@ public class Type implements java.io.Serializable {
 		}
 		return null;
 	}
+	void setHierarchy(TypeHierarchy hierarchy, int id) {
+		this.hierarchy = hierarchy;
+		this.id = id;
+	}
+	TypeHierarchy getHierarchy() {
+		return hierarchy;
+	}
+	int getId() {
+		return id;
+	}
 	public boolean isSubtypeOf(Type that) {
         if (that == this)
             return true;
@@ -145,6 +164,8 @@ public class Type implements java.io.Serializable {
             return true;
 		if (that.kind == TypeKind.NULL_TYPE)
 			return false;
+		if (hierarchy != null && that.hierarchy == hierarchy)
+			return hierarchy.isSubtype(id, that.id);
         if (suptypes.contains(that))
             return true;
         for (Type t : suptypes) {
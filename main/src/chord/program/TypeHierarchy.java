@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.program;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import chord.util.Assertions;
+
+/**
+ * Index of the subtype relation over the types of a program.
+ * <p>
+ * Each type is assigned a dense id, its position in the list of
+ * types of the program, and the ids of all its supertypes (including
+ * itself) are stored in a bit set, so that subtype tests take
+ * constant time.  The supertypes of an array type include the array
+ * types whose element type is a supertype of its element type.  The
+ * null type is a subtype of every type.
+ * <p>
+ * The index is built once the types of the program and their
+ * supertypes are final; see {@link Program#getTypeHierarchy()}.
+ * The bit sets of subtypes of each type are computed on first use.
+ */
+public class TypeHierarchy {
+	private final List<Type> types;
+	private final BitSet[] suptypeSets;
+	private BitSet[] subtypeSets;
+	/**
+	 * Builds the index of the subtype relation over the given types,
+	 * and attaches it to them so that {@link Type#isSubtypeOf(Type)}
+	 * uses it.
+	 *
+	 * @param	types	A list of types closed under supertypes and
+	 * 			element types.
+	 */
+	public TypeHierarchy(List<Type> types) {
+		this.types = types;
+		int numTypes = types.size();
+		for (int i = 0; i < numTypes; i++)
+			types.get(i).setHierarchy(this, i);
+		Map<Type, List<Type>> elemToAryTypesMap =
+			new HashMap<Type, List<Type>>();
+		for (Type type : types) {
+			if (type.getKind() == TypeKind.ARRAY_TYPE) {
+				Type elemType = type.getElemType();
+				List<Type> aryTypes = elemToAryTypesMap.get(elemType);
+				if (aryTypes == null) {
+					aryTypes = new ArrayList<Type>();
+					elemToAryTypesMap.put(elemType, aryTypes);
+				}
+				aryTypes.add(type);
+			}
+		}
+		suptypeSets = new BitSet[numTypes];
+		boolean[] visiting = new boolean[numTypes];
+		for (int i = 0; i < numTypes; i++)
+			computeSuptypes(i, elemToAryTypesMap, visiting);
+	}
+	private BitSet computeSuptypes(int i,
+			Map<Type, List<Type>> elemToAryTypesMap, boolean[] visiting) {
+		BitSet set = suptypeSets[i];
+		if (set != null)
+			return set;
+		Assertions.Assert(!visiting[i],
+			"Cyclic supertypes of type '" + types.get(i) + "'.");
+		visiting[i] = true;
+		Type type = types.get(i);
+		int numTypes = types.size();
+		set = new BitSet(numTypes);
+		if (type.getKind() == TypeKind.NULL_TYPE)
+			set.set(0, numTypes);
+		set.set(i);
+		for (Type suptype : type.getSuptypes()) {
+			set.or(computeSuptypes(getIdStrict(suptype),
+				elemToAryTypesMap, visiting));
+		}
+		if (type.getKind() == TypeKind.ARRAY_TYPE) {
+			BitSet elemSuptypes = computeSuptypes(
+				getIdStrict(type.getElemType()), elemToAryTypesMap, visiting);
+			for (int j = elemSuptypes.nextSetBit(0); j >= 0;
+					j = elemSuptypes.nextSetBit(j + 1)) {
+				List<Type> aryTypes = elemToAryTypesMap.get(types.get(j));
+				if (aryTypes != null) {
+					for (Type aryType : aryTypes)
+						set.set(aryType.getId());
+				}
+			}
+		}
+		visiting[i] = false;
+		suptypeSets[i] = set;
+		return set;
+	}
+	/**
+	 * Provides the number of types in this index.
+	 *
+	 * @return	The number of types in this index.
+	 */
+	public int numTypes() {
+		return types.size();
+	}
+	/**
+	 * Provides the type having a given id.
+	 *
+	 * @param	id	An id in the range [0..numTypes()-1].
+	 *
+	 * @return	The type having the given id.
+	 */
+	public Type getType(int id) {
+		return types.get(id);
+	}
+	/**
+	 * Provides the id of a given type.
+	 *
+	 * @param	type	A type.
+	 *
+	 * @return	The id of the given type, or -1 if it is not in this
+	 * 			index.
+	 */
+	public int getId(Type type) {
+		return (type.getHierarchy() == this) ? type.getId() : -1;
+	}
+	private int getIdStrict(Type type) {
+		if (type.getHierarchy() != this) {
+			throw new RuntimeException("Type '" + type +
+				"' is not in the type hierarchy.");
+		}
+		return type.getId();
+	}
+	/**
+	 * Determines whether one type is a subtype of another.
+	 *
+	 * @param	id1	The id of a type.
+	 * @param	id2	The id of a type.
+	 *
+	 * @return	true iff the former type is a subtype of the latter.
+	 */
+	public boolean isSubtype(int id1, int id2) {
+		return suptypeSets[id1].get(id2);
+	}
+	/**
+	 * Provides the ids of all supertypes of a given type, including
+	 * itself.  The returned bit set must not be modified.
+	 *
+	 * @param	id	The id of a type.
+	 *
+	 * @return	The ids of all supertypes of the given type.
+	 */
+	public BitSet getSuptypeIds(int id) {
+		return suptypeSets[id];
+	}
+	/**
+	 * Provides the ids of all subtypes of a given type, including
+	 * itself.  The returned bit set must not be modified.
+	 *
+	 * @param	id	The id of a type.
+	 *
+	 * @return	The ids of all subtypes of the given type.
+	 */
+	public synchronized BitSet getSubtypeIds(int id) {
+		if (subtypeSets == null) {
+			int numTypes = types.size();
+			BitSet[] sets = new BitSet[numTypes];
+			for (int i = 0; i < numTypes; i++)
+				sets[i] = new BitSet(numTypes);
+			for (int i = 0; i < numTypes; i++) {
+				BitSet set = suptypeSets[i];
+				for (int j = set.nextSetBit(0); j >= 0;
+						j = set.nextSetBit(j + 1))
+					sets[j].set(i);
+			}
+			subtypeSets = sets;
+		}
+		return subtypeSets[id];
+	}
+	/**
+	 * Provides all supertypes of a given type, including itself.
+	 *
+	 * @param	type	A type.
+	 *
+	 * @return	A view of all supertypes of the given type.
+	 */
+	public Set<Type> getSuptypes(Type type) {
+		return new TypeSet(getSuptypeIds(getIdStrict(type)));
+	}
+	/**
+	 * Provides all subtypes of a given type, including itself.
+	 *
+	 * @param	type	A type.
+	 *
+	 * @return	A view of all subtypes of the given type.
+	 */
+	public Set<Type> getSubtypes(Type type) {
+		return new TypeSet(getSubtypeIds(getIdStrict(type)));
+	}
+	// read-only view of a bit set of type ids as a set of types
+	private class TypeSet extends AbstractSet<Type> {
+		private final BitSet ids;
+		public TypeSet(BitSet ids) {
+			this.ids = ids;
+		}
+		public int size() {
+			return ids.cardinality();
+		}
+		public boolean contains(Object o) {
+			if (!(o instanceof Type))
+				return false;
+			Type type = (Type) o;
+			return type.getHierarchy() == TypeHierarchy.this &&
+				ids.get(type.getId());
+		}
+		public Iterator<Type> iterator() {
+			return new Iterator<Type>() {
+				private int i = ids.nextSetBit(0);
+				public boolean hasNext() {
+					return i >= 0;
+				}
+				public Type next() {
+					if (i < 0)
+						throw new NoSuchElementException();
+					Type type = types.get(i);
+					i = ids.nextSetBit(i + 1);
+					return type;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
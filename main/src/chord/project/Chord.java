@@ -23,6 +23,8 @@ public @interface Chord {
 	String name() default "";	// may be empty
 	String sign() default "";	// if non-empty then annotated class must be a subclass of ProgramRel
 								// format e.g.: "M0,F0,V0:M0_V0xF0" or just "M0,F0,V0"
+	String storage() default "";	// if non-empty then annotated class must be a subclass of ProgramRel
+									// one of "bdd", "table", or "auto"; see Rel.getStorage()
 	String[] consumedNames() default { };
 	String[] producedNames() default { };
 	String[] namesOfTypes() default { };
@@ -85,6 +85,18 @@ public class ChordAnnotParser {
 		 		"for Java analysis '" + type + "'");
 		}
 
+		String storage = chord.storage();
+		if (!storage.equals("")) {
+			if (!ClassUtils.isSubclass(type, ProgramRel.class)) {
+				error("Method storage() cannot return non-empty string " +
+					"for Java analysis '" + type + "'");
+			} else if (!storage.equals("bdd") && !storage.equals("table") &&
+					!storage.equals("auto")) {
+				error("Method storage() must return one of 'bdd', " +
+					"'table', and 'auto'.");
+			}
+		}
+
         String[] namesOfTypes = chord.namesOfTypes();
         Class [] types = chord.types();
         if (namesOfTypes.length != types.length) {
@@ -18,6 +18,7 @@ import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.HashSet;
 
+import chord.util.bddbddb.Dom;
 import chord.util.bddbddb.RelSign;
 import chord.util.bddbddb.Solver;
 import chord.util.Assertions;
@@ -67,6 +68,17 @@ public class DlogTask extends JavaTask {
 	public String getFileName() {
 		return fileName;
 	}
+	/**
+	 * Provides the BDD ordering of all domains specified via a line
+	 * of the form ".bddvarorder ..." in the file containing this
+	 * Datalog analysis.
+	 * 
+	 * @return	The BDD ordering of all domains of this Datalog
+	 * 			analysis.
+	 */
+	public String getOrder() {
+		return order;
+	}
 	/**
 	 * Parses the Datalog analysis in the specified file.
 	 * 
@@ -281,7 +293,10 @@ public class DlogTask extends JavaTask {
 	 * Executes this Datalog analysis.
 	 */
 	public void run() {
-		Solver.run(fileName);
+		Map<String, Dom> domKindToDomMap = new HashMap<String, Dom>();
+		for (String domName : majorDomNames)
+			domKindToDomMap.put(domName, (Dom) project.getTrgt(domName));
+		Solver.run(fileName, project.getBDDManager(), domKindToDomMap);
     }
 	/**
 	 * Provides the set of names of all domains of relations
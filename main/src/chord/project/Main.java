@@ -6,18 +6,16 @@
 package chord.project;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 
 import chord.program.Method;
 import chord.program.Program;
+import chord.program.ProgramSerializer;
 import chord.program.Type;
 import chord.program.builders.IProgramBuilder;
 import chord.program.builders.SootProgramBuilder;
 import chord.util.Assertions;
+import chord.util.Profiler;
 import chord.util.PropertyUtils;
 
 /**
@@ -105,9 +103,19 @@ public class Main {
 			System.out.println("chord.transform.ssa: " + doSSATransform);
 			System.out.println("chord.print.program: " + printProgram);
 			System.out.println("sun.boot.class.path: " + sunBootClassPathName);
+			System.out.println("chord.bdd.backend: " + System.getProperty("chord.bdd.backend"));
+			System.out.println("chord.bdd.binary: " + System.getProperty("chord.bdd.binary"));
+			System.out.println("chord.bdd.binary.compress: " + System.getProperty("chord.bdd.binary.compress"));
+			System.out.println("chord.rel.storage: " + System.getProperty("chord.rel.storage"));
+			System.out.println("chord.rel.table.limit: " + System.getProperty("chord.rel.table.limit"));
+			System.out.println("chord.max.threads: " + System.getProperty("chord.max.threads"));
+			System.out.println("chord.cache.dir: " + System.getProperty("chord.cache.dir"));
+			System.out.println("chord.incremental.dir: " + System.getProperty("chord.incremental.dir"));
+			System.out.println("chord.profile.dir: " + System.getProperty("chord.profile.dir"));
 			System.out.println("bddbddb.max.heap.size: " + System.getProperty("bddbddb.max.heap.size"));
 			System.out.println("bddbddb.class.path: " + System.getProperty("bddbddb.class.path"));
 			System.out.println("bddbddb.library.path: " + System.getProperty("bddbddb.library.path"));
+			System.out.println("bddbddb.solver.mode: " + System.getProperty("bddbddb.solver.mode"));
 			
 			if (doLoopRemovalTransform)
 				Assertions.Assert(doSyncRemovalTransform);
@@ -129,10 +137,9 @@ public class Main {
 				System.err.println("Found errors (see above). Exiting ...");
 				System.exit(1);
 			}
+			Profiler.Span span = Profiler.enter("program", "program");
 			if (loadProgram) {
-				FileInputStream fs = new FileInputStream(serialFileName);
-				ObjectInputStream os = new ObjectInputStream(fs);
-				program = (Program) os.readObject();
+				program = ProgramSerializer.load(serialFileName);
 				if (doSyncRemovalTransform)
 					Assertions.Assert(program.removedSyncs());
 				if (doLoopRemovalTransform)
@@ -141,7 +148,6 @@ public class Main {
 					Assertions.Assert(program.removedSkips());
 				if (doSSATransform)
 					Assertions.Assert(program.convertedToSSA());
-				os.close();
 				program.validate();
 			} else {
 				Assertions.Assert(classPathName != null);
@@ -161,15 +167,13 @@ public class Main {
 				if (doSSATransform)
 					program.convertToSSA();
 				program.validate();
+				program.freeze();
 			}
 			project.setProgram(program);
 			if (saveProgram) {
-				FileOutputStream fs =
-					new FileOutputStream(serialFileName);
-				ObjectOutputStream os = new ObjectOutputStream(fs);
-				os.writeObject(program);
-				os.close();
+				ProgramSerializer.save(program, serialFileName);
 			}
+			Profiler.leave(span);
 			if (printProgram) {
 				program.print();
 			}
@@ -178,6 +182,7 @@ public class Main {
 				for (String name : analysisAry)
 					project.runTask(name);
 			}
+			Profiler.save();
 		} catch (Throwable ex) {
 			ex.printStackTrace();
 			if (outStream != null)
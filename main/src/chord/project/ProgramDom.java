@@ -5,13 +5,20 @@
  */
 package chord.project;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import chord.project.ProgramDom;
 import chord.util.Assertions;
+import chord.util.Profiler;
 import chord.util.bddbddb.Dom;
 
 /**
@@ -38,13 +45,91 @@ public class ProgramDom<T> extends Dom<T> implements ITask {
 	public Project getProject() {
 		return project;
 	}
+	/**
+	 * Builds this domain and saves it to disk.
+	 * <p>
+	 * If system property <tt>chord.incremental.dir</tt> is set, the
+	 * values in the domain are renumbered so that each value that was
+	 * in the domain saved to disk by the previous run, as identified
+	 * by its string representation, keeps its index.  Relations over
+	 * the domain, and hence the Datalog analyses solved
+	 * incrementally over them, then change only where the program
+	 * did.
+	 */
 	public void run() {
 		clear();
 		fill();
+		if (System.getProperty("chord.incremental.dir") != null)
+			renumber();
 		save();
 	}
+	/**
+	 * Provides the number of leading values in this domain, in the
+	 * order in which they are added by {@link #fill()}, whose index
+	 * must not be changed by renumbering.  Subclasses giving special
+	 * indices to specific values must override this method; it
+	 * returns 0 by default.
+	 *
+	 * @return	The number of leading values in this domain whose
+	 * 			index is fixed.
+	 */
+	protected int getNumFixedIdxs() {
+		return 0;
+	}
+	private void renumber() {
+		File file = new File(name + ".map");
+		if (!file.exists())
+			return;
+		// index of each distinct line of the previous domain
+		Map<String, Integer> strToIdxMap = new HashMap<String, Integer>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			String line;
+			for (int i = 0; (line = in.readLine()) != null; i++) {
+				if (strToIdxMap.put(line, i) != null)
+					strToIdxMap.put(line, -1);
+			}
+			in.close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		int n = size();
+		int numFixed = Math.min(getNumFixedIdxs(), n);
+		List<T> vals = new ArrayList<T>(n);
+		for (int i = 0; i < n; i++)
+			vals.add(get(i));
+		List<T> slots = new ArrayList<T>(n);
+		for (int i = 0; i < n; i++)
+			slots.add(null);
+		boolean[] isPlaced = new boolean[n];
+		for (int i = 0; i < numFixed; i++) {
+			slots.set(i, vals.get(i));
+			isPlaced[i] = true;
+		}
+		for (int i = numFixed; i < n; i++) {
+			T val = vals.get(i);
+			Integer j = strToIdxMap.get(String.valueOf(val));
+			if (j != null && j >= numFixed && j < n && slots.get(j) == null) {
+				slots.set(j, val);
+				isPlaced[i] = true;
+			}
+		}
+		// remaining values take the free indices in order
+		for (int i = 0, j = 0; i < n; i++) {
+			if (isPlaced[i])
+				continue;
+			while (slots.get(j) != null)
+				j++;
+			slots.set(j, vals.get(i));
+		}
+		clear();
+		for (T val : slots)
+			set(val);
+	}
 	public void save() {
-		System.out.println("SAVING dom " + name + " size: " + size());
+		int size = size();
+		System.out.println("SAVING dom " + name + " size: " + size);
+		Profiler.addTrgt("dom", name, size, -1);
 		super.save();
 		project.setTrgtDone(this);
 	}
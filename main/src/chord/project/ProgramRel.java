@@ -6,6 +6,8 @@
 package chord.project;
 
 import chord.util.Assertions;
+import chord.util.Profiler;
+import chord.util.bddbddb.BDDManager;
 import chord.util.bddbddb.Rel;
 
 /**
@@ -26,13 +28,67 @@ public class ProgramRel extends Rel implements ITask {
 	public Project getProject() {
 		return project;
 	}
+	public BDDManager getBDDManager() {
+		return project.getBDDManager();
+	}
+	/**
+	 * Provides the kind of storage of this relation in memory, as
+	 * specified by the <tt>storage</tt> attribute of the Chord
+	 * annotation on its class if it is non-empty, and by
+	 * {@link Rel#getStorage()} otherwise.
+	 */
+	public String getStorage() {
+		Chord chord = getClass().getAnnotation(Chord.class);
+		if (chord != null && !chord.storage().equals(""))
+			return chord.storage();
+		return super.getStorage();
+	}
+	/**
+	 * Builds this relation and saves it to disk.
+	 * <p>
+	 * The relation is filled in a table, whatever its storage (see
+	 * {@link #getStorage()}), without locking the BDD factory shared
+	 * by program relations, so that other tasks may use the factory
+	 * meanwhile; the tuples are converted into a BDD in bulk when the
+	 * relation is saved, with the factory locked.  The {@link #fill()}
+	 * method of a relation must therefore synchronize on the
+	 * factory's {@link BDDManager} if it uses BDDs, e.g. by loading
+	 * other relations.
+	 * <p>
+	 * If dynamic reordering of BDD variables is requested (see
+	 * {@link BDDManager}), a relation not stored in a table is
+	 * instead filled directly in a BDD, with the factory locked and
+	 * reordering enabled.
+	 */
 	public void run() {
-		zero();
-		fill();
-		save();
+		BDDManager manager = getBDDManager();
+		if (getStorage().equals("table") || !manager.isReorderRequested()) {
+			synchronized (manager) {
+				zeroInTable();
+			}
+			fill();
+			synchronized (manager) {
+				save();
+			}
+		} else {
+			synchronized (manager) {
+				zero();
+				manager.setAutoReorder(true);
+				try {
+					fill();
+				} finally {
+					manager.setAutoReorder(false);
+				}
+				save();
+			}
+		}
 	}
 	public void save() {
-		System.out.println("SAVING rel " + name + " size: " + size());
+		int size = size();
+		int nodes = nodeCount();
+		System.out.println("SAVING rel " + name + " size: " + size +
+			" nodes: " + nodes);
+		Profiler.addTrgt("rel", name, size, nodes);
 		super.save();
 		project.setTrgtDone(this);
 	}
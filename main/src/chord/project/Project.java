@@ -5,11 +5,25 @@
  */
 package chord.project;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import chord.util.Profiler;
+import chord.util.PropertyUtils;
 import chord.util.Timer;
+import chord.util.bddbddb.BDDManager;
 import chord.program.Program;
 
 /**
@@ -17,6 +31,25 @@ import chord.program.Program;
  * 
  * It encapsulates a Java program to be analyzed along with
  * program analyses to be performed on it.
+ * <p>
+ * The tasks on which a task depends are run before it.  Tasks that
+ * do not depend on each other are run in parallel by up to as many
+ * worker threads as specified by system property
+ * <tt>chord.max.threads</tt> (default 1, meaning that all tasks are
+ * run on the calling thread).  Since the BDD factory shared by all
+ * program relations is not thread-safe, tasks synchronize on the
+ * project's {@link BDDManager} while they use it: program domains
+ * never use it, program relations and Datalog analyses use it only
+ * in specific phases, and all other analyses hold it while they run.
+ * <p>
+ * If system property <tt>chord.cache.dir</tt> is set, the relations
+ * produced by tasks are cached across runs in the specified
+ * directory (see {@link TrgtCache}).
+ * <p>
+ * If system property <tt>chord.profile.dir</tt> is set, the time,
+ * memory and BDD metrics of each task run, and the sizes of the
+ * domains and relations it produces, are recorded by
+ * {@link Profiler}.
  *
  * @author Mayur Naik (mhn@cs.stanford.edu)
  */
@@ -28,8 +61,23 @@ public class Project {
 	private Map<ITask, Set<Object>> taskToConsumedTrgtsMap;
 	private Map<Object, Set<ITask>> trgtToProducerTasksMap;
 	private Map<Object, Set<ITask>> trgtToConsumerTasksMap;
-	private Set<ITask> doneTasks = new HashSet<ITask>();
-	private Set<Object> doneTrgts = new HashSet<Object>();
+	private final Set<ITask> doneTasks =
+		Collections.synchronizedSet(new HashSet<ITask>());
+	private final Set<Object> doneTrgts =
+		Collections.synchronizedSet(new HashSet<Object>());
+	private BDDManager bddManager = new BDDManager();
+	private final int maxThreads =
+		PropertyUtils.getIntProperty("chord.max.threads", 1);
+	// whether the current thread is a worker running a task
+	private final ThreadLocal<Boolean> isWorker = new ThreadLocal<Boolean>();
+	private final TrgtCache cache = newCache();
+
+	private TrgtCache newCache() {
+		String dirName = System.getProperty("chord.cache.dir");
+		if (dirName == null || dirName.equals(""))
+			return null;
+		return new TrgtCache(new File(dirName), this);
+	}
 
 	public void setProgram(Program program) {
 		this.program = program;
@@ -37,6 +85,16 @@ public class Project {
 	public Program getProgram() {
 		return program;
 	}
+	/**
+	 * Provides the manager of the BDD factory shared by all program
+	 * relations in this project.
+	 * 
+	 * @return	The manager of the BDD factory shared by all program
+	 * 			relations in this project.
+	 */
+	public BDDManager getBDDManager() {
+		return bddManager;
+	}
 	public void setNameToTaskMap(Map<String, ITask> map) {
 		nameToTaskMap = map;
 	}
@@ -55,6 +113,12 @@ public class Project {
 	public void setTrgtToConsumerTasksMap(Map<Object, Set<ITask>> map) {
 		trgtToConsumerTasksMap = map;
 	}
+	Set<Object> getConsumedTrgts(ITask task) {
+		return taskToConsumedTrgtsMap.get(task);
+	}
+	Set<Object> getProducedTrgts(ITask task) {
+		return taskToProducedTrgtsMap.get(task);
+	}
 	public Object getTrgt(String name) {
 		Object trgt = nameToTrgtMap.get(name);
 		if (trgt == null) {
@@ -71,7 +135,24 @@ public class Project {
 		}
 		return task;
 	}
+	/**
+	 * Runs the specified task after running the tasks producing the
+	 * targets it consumes, transitively, that are not done yet.
+	 * <p>
+	 * If more than one worker thread is allowed, the tasks are run in
+	 * parallel as soon as the tasks they depend on are done;
+	 * otherwise, or if this method is called by a task itself, they
+	 * are run on the calling thread.
+	 *
+	 * @param	task	A task.
+	 */
 	public void runTask(ITask task) {
+		if (maxThreads > 1 && isWorker.get() == null)
+			runTaskInParallel(task);
+		else
+			runTaskSerially(task);
+	}
+	private void runTaskSerially(ITask task) {
 		System.out.print("ENTER: " + task);
 		if (isTaskDone(task)) {
 			System.out.println(" ALREADY DONE.");
@@ -81,27 +162,177 @@ public class Project {
 		for (Object trgt : taskToConsumedTrgtsMap.get(task)) {
 			if (isTrgtDone(trgt))
 				continue;
-			Set<ITask> tasks = trgtToProducerTasksMap.get(trgt);
-			if (tasks.size() != 1) {
-				throw new RuntimeException("Task producing trgt '" +
-					trgt + "' consumed by task '" + task +
-					"' not found");
+			ITask task2 = getProducerTask(trgt, task);
+			runTaskSerially(task2);
+		}
+		execute(task);
+	}
+	private void runTaskInParallel(ITask task) {
+		System.out.print("ENTER: " + task);
+		if (isTaskDone(task)) {
+			System.out.println(" ALREADY DONE.");
+			return;
+		}
+		System.out.println("");
+		// build the DAG of tasks that are not done and on which the
+		// given task depends, transitively
+		Map<ITask, Set<ITask>> taskToDepTasksMap =
+			new HashMap<ITask, Set<ITask>>();
+		List<ITask> worklist = new ArrayList<ITask>();
+		worklist.add(task);
+		taskToDepTasksMap.put(task, new HashSet<ITask>());
+		while (!worklist.isEmpty()) {
+			ITask task2 = worklist.remove(worklist.size() - 1);
+			Set<ITask> depTasks = taskToDepTasksMap.get(task2);
+			for (Object trgt : taskToConsumedTrgtsMap.get(task2)) {
+				if (isTrgtDone(trgt))
+					continue;
+				ITask task3 = getProducerTask(trgt, task2);
+				if (isTaskDone(task3))
+					continue;
+				depTasks.add(task3);
+				if (!taskToDepTasksMap.containsKey(task3)) {
+					taskToDepTasksMap.put(task3, new HashSet<ITask>());
+					worklist.add(task3);
+				}
+			}
+		}
+		Map<ITask, List<ITask>> taskToUserTasksMap =
+			new HashMap<ITask, List<ITask>>();
+		Map<ITask, Integer> taskToNumPendingMap =
+			new HashMap<ITask, Integer>();
+		List<ITask> readyTasks = new ArrayList<ITask>();
+		for (Map.Entry<ITask, Set<ITask>> e : taskToDepTasksMap.entrySet()) {
+			ITask task2 = e.getKey();
+			Set<ITask> depTasks = e.getValue();
+			taskToNumPendingMap.put(task2, depTasks.size());
+			if (depTasks.isEmpty())
+				readyTasks.add(task2);
+			for (ITask task3 : depTasks) {
+				List<ITask> userTasks = taskToUserTasksMap.get(task3);
+				if (userTasks == null) {
+					userTasks = new ArrayList<ITask>();
+					taskToUserTasksMap.put(task3, userTasks);
+				}
+				userTasks.add(task2);
 			}
-			ITask task2 = tasks.iterator().next();
-			runTask(task2);
 		}
-        Timer timer = new Timer(task.getName());
-		System.out.println("START: " + task);
-        timer.init();
-		task.run();
-        timer.done();
-        System.out.println("LEAVE: " + task +
-            " time: " + timer.getExecTimeStr());
+		int numThreads = Math.min(maxThreads, taskToDepTasksMap.size());
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		CompletionService<ITask> service =
+			new ExecutorCompletionService<ITask>(pool);
+		try {
+			int numRunning = 0;
+			int numDone = 0;
+			while (true) {
+				for (ITask task2 : readyTasks) {
+					final ITask task3 = task2;
+					service.submit(new Runnable() {
+						public void run() {
+							isWorker.set(Boolean.TRUE);
+							try {
+								execute(task3);
+							} finally {
+								isWorker.remove();
+							}
+						}
+					}, task3);
+					numRunning++;
+				}
+				readyTasks.clear();
+				if (numRunning == 0)
+					break;
+				ITask task2;
+				try {
+					task2 = service.take().get();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+				numRunning--;
+				numDone++;
+				List<ITask> userTasks = taskToUserTasksMap.get(task2);
+				if (userTasks == null)
+					continue;
+				for (ITask task3 : userTasks) {
+					int n = taskToNumPendingMap.get(task3) - 1;
+					taskToNumPendingMap.put(task3, n);
+					if (n == 0)
+						readyTasks.add(task3);
+				}
+			}
+			if (numDone != taskToDepTasksMap.size()) {
+				throw new RuntimeException("Tasks on which task '" +
+					task + "' depends have cyclic dependencies.");
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	private ITask getProducerTask(Object trgt, ITask task) {
+		Set<ITask> tasks = trgtToProducerTasksMap.get(trgt);
+		if (tasks.size() != 1) {
+			throw new RuntimeException("Task producing trgt '" +
+				trgt + "' consumed by task '" + task +
+				"' not found");
+		}
+		return tasks.iterator().next();
+	}
+	private void execute(ITask task) {
+		Profiler.Span span = Profiler.enter(task.getName(), getKind(task));
+		try {
+			String key = (cache == null) ? null : cache.getKey(task);
+			if (key != null && cache.restore(task, key)) {
+				System.out.println("CACHED: " + task);
+				Profiler.put("cached", 1);
+			} else {
+		        Timer timer = new Timer(task.getName());
+				System.out.println("START: " + task);
+		        timer.init();
+				if (task instanceof ProgramDom || task instanceof ProgramRel ||
+						task instanceof DlogTask) {
+					task.run();
+				} else {
+					synchronized (bddManager) {
+						task.run();
+					}
+				}
+		        timer.done();
+		        System.out.println("LEAVE: " + task +
+		            " time: " + timer.getExecTimeStr());
+				if (cache != null)
+					cache.save(task, key);
+			}
+			// program domains do not use the factory, and waiting for
+			// it would serialize them with other tasks
+			if (span != null && !(task instanceof ProgramDom)) {
+				Profiler.put("bddNodeNum", bddManager.getNodeNum());
+				Profiler.put("bddNodeTableSize",
+					bddManager.getNodeTableSize());
+			}
+		} finally {
+			Profiler.leave(span);
+		}
 		setTaskDone(task);
 		for (Object trgt : taskToProducedTrgtsMap.get(task)) {
 			setTrgtDone(trgt);
 		}
 	}
+	private static String getKind(ITask task) {
+		if (task instanceof ProgramDom)
+			return "dom";
+		if (task instanceof ProgramRel)
+			return "rel";
+		if (task instanceof DlogTask)
+			return "dlog";
+		return "java";
+	}
 	public ITask runTask(String name) {
 		ITask task = getTask(name);
 		runTask(task);
@@ -119,7 +350,7 @@ public class Project {
 	public void setTrgtDone(String name) {
 		setTrgtDone(getTrgt(name));
 	}
-	public void resetTrgtDone(Object trgt) {
+	public synchronized void resetTrgtDone(Object trgt) {
 		if (doneTrgts.remove(trgt)) {
 			for (ITask task : trgtToConsumerTasksMap.get(trgt)) {
 				resetTaskDone(task);
@@ -145,7 +376,7 @@ public class Project {
 	public void setTaskDone(String name) {
 		setTaskDone(getTask(name));
 	}
-	public void resetTaskDone(ITask task) {
+	public synchronized void resetTaskDone(ITask task) {
 		if (doneTasks.remove(task)) {
 			for (Object trgt : taskToProducedTrgtsMap.get(task)) {
 				resetTrgtDone(trgt);
@@ -10,6 +10,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -283,8 +285,56 @@ public class ProjectBuilder {
 		project.setTaskToProducedTrgtsMap(taskToProducedTrgtsMap);
 		project.setTrgtToConsumerTasksMap(trgtToConsumerTasksMap);
 		project.setTrgtToProducerTasksMap(trgtToProducerTasksMap);
+		project.getBDDManager().setOrder(buildGlobalOrder());
 		return project;
 	}
+
+	// merges the BDD orderings of domains specified via .bddvarorder
+	// in all Dlog tasks into a single ordering shared by all program
+	// relations; orderings with more domains take precedence and
+	// domains missing from them are appended in the order in which
+	// they occur in the remaining orderings
+	private String buildGlobalOrder() {
+		List<String> orders = new ArrayList<String>();
+		for (ITask task : nameToTaskMap.values()) {
+			if (task instanceof DlogTask) {
+				String order = ((DlogTask) task).getOrder();
+				if (order != null)
+					orders.add(order);
+			}
+		}
+		Collections.sort(orders, new Comparator<String>() {
+			public int compare(String order1, String order2) {
+				int n1 = order1.split("_|x").length;
+				int n2 = order2.split("_|x").length;
+				if (n1 != n2)
+					return n2 - n1;
+				return order1.compareTo(order2);
+			}
+		});
+		Set<String> seenDomNames = new HashSet<String>();
+		String globalOrder = null;
+		for (String order : orders) {
+			for (String group : order.split("_")) {
+				String newGroup = null;
+				for (String domName : group.split("x")) {
+					if (!seenDomNames.add(domName))
+						continue;
+					if (newGroup == null)
+						newGroup = domName;
+					else
+						newGroup = newGroup + "x" + domName;
+				}
+				if (newGroup == null)
+					continue;
+				if (globalOrder == null)
+					globalOrder = newGroup;
+				else
+					globalOrder = globalOrder + "_" + newGroup;
+			}
+		}
+		return globalOrder;
+	}
 	
 	private void createTrgt(String name, Class type, String location) {
 		TrgtInfo info = new TrgtInfo(type, location, null);
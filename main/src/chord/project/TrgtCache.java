@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.project;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import chord.program.ProgramSerializer;
+import chord.util.FileUtils;
+import chord.util.bddbddb.Dom;
+import chord.util.bddbddb.Rel;
+import chord.util.bddbddb.Solver;
+
+/**
+ * On-disk cache of the relations produced by tasks, shared across
+ * runs of Chord.
+ * <p>
+ * The relations produced by a program relation or a Datalog analysis
+ * are cached under a key that is a hash of the program being
+ * analyzed, the code of the task (the bytes of its class and its
+ * superclasses, or the contents of its Datalog file and the solver
+ * mode), the code of Chord and of the task (the jar files or class
+ * directories from which their classes are loaded), the global BDD
+ * ordering, and the hashes of the targets consumed by the task.  If an entry with the
+ * key of a task exists, its files are copied to the working
+ * directory instead of running the task.
+ * <p>
+ * The hash of a domain is that of the files to which it is saved,
+ * since domains are needed in memory by tasks that are not cached
+ * and are therefore always computed.  The hash of a relation
+ * produced by a cached task is derived from the key of the task, and
+ * that of any other relation from the file to which it is saved.  A
+ * task consuming a target that has no hash (e.g. one that is not a
+ * domain or relation) is not cached.
+ *
+ * @see	Project
+ */
+public class TrgtCache {
+	private final File dir;
+	private final Project project;
+	private final Map<Object, String> trgtToHashMap =
+		Collections.synchronizedMap(new HashMap<Object, String>());
+	private String programHash;
+	// hash of each jar file or class directory from which code is
+	// loaded, computed once per run
+	private final Map<File, String> codeSrcToHashMap =
+		new HashMap<File, String>();
+	/**
+	 * Constructor.
+	 *
+	 * @param	dir	The directory of the cache.  It is created if it
+	 * 			does not exist.
+	 * @param	project	The project whose targets are cached.
+	 */
+	public TrgtCache(File dir, Project project) {
+		FileUtils.mkdir(dir);
+		this.dir = dir;
+		this.project = project;
+	}
+	/**
+	 * Provides the key under which the targets produced by the
+	 * specified task are cached.
+	 *
+	 * @param	task	A task whose consumed targets are done.
+	 *
+	 * @return	The key of the task, or null if the task is not
+	 * 			cached.
+	 */
+	public String getKey(ITask task) {
+		if (!(task instanceof ProgramRel) && !(task instanceof DlogTask))
+			return null;
+		for (Object trgt : project.getProducedTrgts(task)) {
+			if (!(trgt instanceof Rel))
+				return null;
+		}
+		// sort consumed targets by name for a stable key
+		Map<String, String> nameToHashMap = new TreeMap<String, String>();
+		for (Object trgt : project.getConsumedTrgts(task)) {
+			String hash = trgtToHashMap.get(trgt);
+			if (hash == null)
+				return null;
+			nameToHashMap.put(getTrgtName(trgt), hash);
+		}
+		MessageDigest md = newDigest();
+		update(md, "chord-cache-1");
+		update(md, getProgramHash());
+		update(md, project.getBDDManager().getOrder());
+		update(md, task.getName());
+		try {
+			if (task instanceof DlogTask) {
+				update(md, new File(((DlogTask) task).getFileName()));
+				update(md, Solver.bddbddbSolverMode);
+			} else {
+				for (Class c = task.getClass(); c != null &&
+						c != Object.class; c = c.getSuperclass())
+					update(md, getClassBytes(c));
+			}
+			update(md, getCodeHash(TrgtCache.class));
+			update(md, getCodeHash(task.getClass()));
+		} catch (IOException ex) {
+			warning("Cannot read code of task '" + task + "': " +
+				ex.getMessage());
+			return null;
+		}
+		for (Map.Entry<String, String> e : nameToHashMap.entrySet()) {
+			update(md, e.getKey());
+			update(md, e.getValue());
+		}
+		return toHex(md.digest());
+	}
+	/**
+	 * Copies the targets cached under the specified key, if any, to
+	 * the working directory.
+	 *
+	 * @param	task	A task.
+	 * @param	key	The key of the task.
+	 *
+	 * @return	true iff the targets produced by the task were found
+	 * 			in the cache and copied.
+	 */
+	public boolean restore(ITask task, String key) {
+		File entryDir = new File(dir, key);
+		if (!entryDir.isDirectory())
+			return false;
+		try {
+			for (Object trgt : project.getProducedTrgts(task)) {
+				String name = getTrgtName(trgt);
+				// a stale binary file must not shadow the restored one
+				new File(name + ".bdd.bin").delete();
+				for (String fileName : getRelFileNames(name)) {
+					File file = new File(entryDir, fileName);
+					if (file.exists())
+						FileUtils.copy(file.getPath(), fileName);
+				}
+			}
+		} catch (RuntimeException ex) {
+			warning("Cannot restore entry '" + entryDir + "': " +
+				ex.getMessage());
+			return false;
+		}
+		for (Object trgt : project.getProducedTrgts(task))
+			trgtToHashMap.put(trgt, hash(key, getTrgtName(trgt)));
+		return true;
+	}
+	/**
+	 * Records that the specified task has run, caching the targets
+	 * it produced under the specified key if it is non-null and
+	 * computing their hashes.
+	 *
+	 * @param	task	A task that has run.
+	 * @param	key	The key of the task, or null if it is not cached.
+	 */
+	public void save(ITask task, String key) {
+		if (key == null) {
+			for (Object trgt : project.getProducedTrgts(task)) {
+				String hash = hashFiles(trgt);
+				if (hash != null)
+					trgtToHashMap.put(trgt, hash);
+			}
+			return;
+		}
+		for (Object trgt : project.getProducedTrgts(task))
+			trgtToHashMap.put(trgt, hash(key, getTrgtName(trgt)));
+		File entryDir = new File(dir, key);
+		if (entryDir.exists())
+			return;
+		// files are copied to a fresh directory which is then renamed
+		// so that concurrent runs never see a partial entry
+		File tmpDir = new File(dir, key + ".tmp" + System.nanoTime());
+		try {
+			FileUtils.mkdir(tmpDir);
+			for (Object trgt : project.getProducedTrgts(task)) {
+				for (String fileName : getRelFileNames(getTrgtName(trgt))) {
+					if (new File(fileName).exists()) {
+						FileUtils.copy(fileName,
+							new File(tmpDir, fileName).getPath());
+					}
+				}
+			}
+			if (tmpDir.renameTo(entryDir))
+				return;
+		} catch (RuntimeException ex) {
+			warning("Cannot create entry '" + entryDir + "': " +
+				ex.getMessage());
+		}
+		delete(tmpDir);
+	}
+	private synchronized String getProgramHash() {
+		if (programHash == null) {
+			MessageDigest md = newDigest();
+			try {
+				OutputStream out = new DigestOutputStream(new OutputStream() {
+					public void write(int b) { }
+					public void write(byte[] b, int off, int len) { }
+				}, md);
+				ProgramSerializer.write(project.getProgram(), out);
+				out.close();
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+			programHash = toHex(md.digest());
+		}
+		return programHash;
+	}
+	private synchronized String getCodeHash(Class c) throws IOException {
+		CodeSource src = c.getProtectionDomain().getCodeSource();
+		if (src == null || src.getLocation() == null)
+			throw new IOException("Code source of " + c + " unknown");
+		File file;
+		try {
+			file = new File(src.getLocation().toURI());
+		} catch (URISyntaxException ex) {
+			throw new IOException(ex.getMessage());
+		}
+		String hash = codeSrcToHashMap.get(file);
+		if (hash == null) {
+			MessageDigest md = newDigest();
+			if (file.isDirectory()) {
+				List<String> paths = new ArrayList<String>();
+				addClassFilePaths(file, "", paths);
+				Collections.sort(paths);
+				for (String path : paths) {
+					update(md, path);
+					update(md, new File(file, path));
+				}
+			} else
+				update(md, file);
+			hash = toHex(md.digest());
+			codeSrcToHashMap.put(file, hash);
+		}
+		return hash;
+	}
+	private static void addClassFilePaths(File dir, String prefix,
+			List<String> paths) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String path = prefix + file.getName();
+			if (file.isDirectory())
+				addClassFilePaths(file, path + "/", paths);
+			else if (path.endsWith(".class"))
+				paths.add(path);
+		}
+	}
+	private static String getTrgtName(Object trgt) {
+		if (trgt instanceof Rel)
+			return ((Rel) trgt).getName();
+		if (trgt instanceof Dom)
+			return ((Dom) trgt).getName();
+		return trgt.toString();
+	}
+	private static String[] getRelFileNames(String name) {
+		return new String[] { name + ".bdd", name + ".bdd.bin" };
+	}
+	private static String hashFiles(Object trgt) {
+		List<File> files = new ArrayList<File>();
+		if (trgt instanceof Rel) {
+			files.add(new File(((Rel) trgt).getName() + ".bdd"));
+		} else if (trgt instanceof Dom) {
+			String name = ((Dom) trgt).getName();
+			files.add(new File(name + ".dom"));
+			files.add(new File(name + ".map"));
+		} else
+			return null;
+		MessageDigest md = newDigest();
+		try {
+			for (File file : files) {
+				if (!file.exists())
+					return null;
+				update(md, file);
+			}
+		} catch (IOException ex) {
+			return null;
+		}
+		return toHex(md.digest());
+	}
+	private static String hash(String key, String name) {
+		MessageDigest md = newDigest();
+		update(md, key);
+		update(md, name);
+		return toHex(md.digest());
+	}
+	private static byte[] getClassBytes(Class c) throws IOException {
+		String resName = c.getName().replace('.', '/') + ".class";
+		ClassLoader loader = c.getClassLoader();
+		InputStream in = (loader == null) ?
+			ClassLoader.getSystemResourceAsStream(resName) :
+			loader.getResourceAsStream(resName);
+		if (in == null)
+			throw new IOException("Class file '" + resName + "' not found");
+		try {
+			return readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+	private static byte[] readFully(InputStream in) throws IOException {
+		byte[] buf = new byte[8192];
+		int len = 0;
+		int n;
+		while ((n = in.read(buf, len, buf.length - len)) != -1) {
+			len += n;
+			if (len == buf.length) {
+				byte[] t = new byte[buf.length * 2];
+				System.arraycopy(buf, 0, t, 0, len);
+				buf = t;
+			}
+		}
+		byte[] bytes = new byte[len];
+		System.arraycopy(buf, 0, bytes, 0, len);
+		return bytes;
+	}
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	private static void update(MessageDigest md, String s) {
+		try {
+			byte[] bytes = (s == null) ? new byte[0] : s.getBytes("UTF-8");
+			update(md, bytes);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	// length-prefixed so that consecutive values cannot be confused
+	private static void update(MessageDigest md, byte[] bytes) {
+		int n = bytes.length;
+		md.update(new byte[] {
+			(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n
+		});
+		md.update(bytes);
+	}
+	private static void update(MessageDigest md, File file)
+			throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buf)) != -1)
+				md.update(buf, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+	private static String toHex(byte[] bytes) {
+		StringBuilder s = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			s.append(Character.forDigit((b >>> 4) & 0xF, 16));
+			s.append(Character.forDigit(b & 0xF, 16));
+		}
+		return s.toString();
+	}
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files)
+				f.delete();
+		}
+		file.delete();
+	}
+	private static void warning(String msg) {
+		System.err.println("WARNING: Cache: " + msg + ".");
+	}
+}
@@ -64,7 +64,7 @@ public class IndexMap<T> implements java.io.Serializable, Iterable<T> {
      * 
      * @return	true iff the given object is present in the map.
      */
-    public boolean contains(T val) {
+    public boolean contains(Object val) {
         return hash.containsKey(val);
     }
     /**
@@ -76,7 +76,7 @@ public class IndexMap<T> implements java.io.Serializable, Iterable<T> {
      * @return	The integer mapped to the given object in the map,
      * 			if it exists, and -1 otherwise.
      */
-    public int get(T val) {
+    public int get(Object val) {
     	Integer idx = hash.get(val);
     	if (idx == null)
 			return -1;
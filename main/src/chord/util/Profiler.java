@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collector of structured performance metrics.
+ * <p>
+ * Profiling is enabled by setting system property
+ * <tt>chord.profile.dir</tt> to the directory in which the metrics
+ * are to be saved by {@link #save()}; otherwise, all methods of this
+ * class are no-ops.
+ * <p>
+ * Metrics are recorded per span, a named and timed phase of the run
+ * (e.g. a task) delimited by calls to {@link #enter(String, String)}
+ * and {@link #leave(Span)} on the same thread.  Spans entered while
+ * another span is open on the same thread are nested in it.  Each
+ * span records:
+ * <ul>
+ * <li>its wall-clock time and the CPU time of its thread, in
+ * nanoseconds,</li>
+ * <li>the number of garbage collections and the time spent in them
+ * while it was open,</li>
+ * <li>the used heap at its end and the peak used heap while it was
+ * open (if spans are open on several threads at once, the peak is
+ * measured since the earliest of them was entered and is therefore
+ * an upper bound),</li>
+ * <li>any counters added by {@link #put(String, long)} (e.g. the
+ * size of the BDD node table),</li>
+ * <li>the sizes of the domains and relations saved while it was
+ * open, added by {@link #addTrgt(String, String, long, long)},
+ * and</li>
+ * <li>any other lists of records added by
+ * {@link #addEntry(String, String[], Object[])} (e.g. statistics
+ * of the rules of a Datalog program).</li>
+ * </ul>
+ * Two files are saved: <tt>profile.json</tt>, containing the tree of
+ * spans and their metrics, and <tt>trace.json</tt>, containing one
+ * complete event per span in the Trace Event Format, which can be
+ * viewed as a flame chart by tools such as <tt>chrome://tracing</tt>
+ * and Perfetto.
+ */
+public class Profiler {
+	private static final String dirName =
+		PropertyUtils.getStrProperty("chord.profile.dir");
+	private static final boolean isEnabled =
+		dirName != null && !dirName.equals("");
+	private static final long originNs = System.nanoTime();
+	private static final ThreadMXBean threadBean =
+		ManagementFactory.getThreadMXBean();
+	// spans that are not nested in another span, in entry order
+	private static final List<Span> rootSpans = new ArrayList<Span>();
+	// all spans, in entry order
+	private static final List<Span> allSpans = new ArrayList<Span>();
+	private static int numOpenSpans;
+	private static final ThreadLocal<List<Span>> openSpans =
+		new ThreadLocal<List<Span>>() {
+			protected List<Span> initialValue() {
+				return new ArrayList<Span>();
+			}
+		};
+
+	/**
+	 * A named and timed phase of the run.
+	 */
+	public static class Span {
+		public final String name;
+		public final String kind;
+		public final String threadName;
+		public final long threadId;
+		private final List<Span> children = new ArrayList<Span>();
+		private final Map<String, Long> counters =
+			new LinkedHashMap<String, Long>();
+		// map from the name of each list of records to its records,
+		// each an array of keys followed by an array of values
+		private final Map<String, List<Object[][]>> entries =
+			new LinkedHashMap<String, List<Object[][]>>();
+		private final long initNs;
+		private final long initCpuNs;
+		private final long initGcCount;
+		private final long initGcTimeMs;
+		private long wallNs = -1;
+		private long cpuNs = -1;
+		private long gcCount;
+		private long gcTimeMs;
+		private long heapUsed;
+		private long peakHeapUsed;
+		private Span(String name, String kind) {
+			this.name = name;
+			this.kind = kind;
+			Thread thread = Thread.currentThread();
+			threadName = thread.getName();
+			threadId = thread.getId();
+			initGcCount = getGcCount();
+			initGcTimeMs = getGcTimeMs();
+			initCpuNs = getCpuTime();
+			initNs = System.nanoTime();
+		}
+		private void done() {
+			wallNs = System.nanoTime() - initNs;
+			long t = getCpuTime();
+			cpuNs = (t < 0 || initCpuNs < 0) ? -1 : t - initCpuNs;
+			gcCount = getGcCount() - initGcCount;
+			gcTimeMs = getGcTimeMs() - initGcTimeMs;
+			heapUsed = ManagementFactory.getMemoryMXBean().
+				getHeapMemoryUsage().getUsed();
+			peakHeapUsed = Math.max(getPeakHeapUsed(), heapUsed);
+		}
+		public synchronized void put(String key, long val) {
+			counters.put(key, val);
+		}
+		public synchronized void addEntry(String list, String[] keys,
+				Object[] vals) {
+			List<Object[][]> records = entries.get(list);
+			if (records == null) {
+				records = new ArrayList<Object[][]>();
+				entries.put(list, records);
+			}
+			records.add(new Object[][] { keys, vals });
+		}
+		public long getWallNs() {
+			return wallNs;
+		}
+		public long getCpuNs() {
+			return cpuNs;
+		}
+	}
+
+	/**
+	 * Determines whether profiling is enabled.
+	 *
+	 * @return	true iff system property <tt>chord.profile.dir</tt> is
+	 * 			set.
+	 */
+	public static boolean isEnabled() {
+		return isEnabled;
+	}
+	/**
+	 * Opens a span on the calling thread, nested in the innermost
+	 * span open on that thread, if any.
+	 *
+	 * @param	name	The name of the span (e.g. the name of a task).
+	 * @param	kind	The kind of the span (e.g. "task").
+	 *
+	 * @return	The opened span, or null if profiling is disabled.
+	 */
+	public static Span enter(String name, String kind) {
+		if (!isEnabled)
+			return null;
+		List<Span> stack = openSpans.get();
+		Span parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+		synchronized (rootSpans) {
+			// peaks are reset only if no span could observe it
+			if (numOpenSpans == 0)
+				resetPeakHeapUsed();
+			numOpenSpans++;
+		}
+		Span span = new Span(name, kind);
+		synchronized (rootSpans) {
+			if (parent == null)
+				rootSpans.add(span);
+			allSpans.add(span);
+		}
+		if (parent != null) {
+			synchronized (parent) {
+				parent.children.add(span);
+			}
+		}
+		stack.add(span);
+		return span;
+	}
+	/**
+	 * Closes the specified span, along with any span nested in it
+	 * that is still open.
+	 *
+	 * @param	span	A span opened on the calling thread, or null.
+	 */
+	public static void leave(Span span) {
+		if (span == null)
+			return;
+		List<Span> stack = openSpans.get();
+		int i = stack.lastIndexOf(span);
+		if (i == -1) {
+			throw new RuntimeException("Span '" + span.name +
+				"' not open on thread '" +
+				Thread.currentThread().getName() + "'.");
+		}
+		for (int j = stack.size() - 1; j >= i; j--) {
+			stack.remove(j).done();
+			synchronized (rootSpans) {
+				numOpenSpans--;
+			}
+		}
+	}
+	/**
+	 * Sets a counter of the innermost span open on the calling
+	 * thread, if any.
+	 *
+	 * @param	key	The name of the counter.
+	 * @param	val	The value of the counter.
+	 */
+	public static void put(String key, long val) {
+		Span span = getCurrentSpan();
+		if (span != null)
+			span.put(key, val);
+	}
+	/**
+	 * Records a domain or relation saved in the innermost span open
+	 * on the calling thread, if any.
+	 *
+	 * @param	kind	The kind of the target ("dom" or "rel").
+	 * @param	name	The name of the target.
+	 * @param	size	The number of values or tuples in the target.
+	 * @param	nodes	The number of BDD nodes representing the target,
+	 * 			or -1 if not applicable.
+	 */
+	public static void addTrgt(String kind, String name, long size,
+			long nodes) {
+		addEntry("trgts", new String[] { "kind", "name", "size", "nodes" },
+			new Object[] { kind, name, size, nodes });
+	}
+	/**
+	 * Adds a record to a list of records of the innermost span open
+	 * on the calling thread, if any.
+	 *
+	 * @param	list	The name of the list of records.
+	 * @param	keys	The keys of the record.
+	 * @param	vals	The values of the record, parallel to its keys.
+	 * 			Each value is a string, a number, or an array of
+	 * 			numbers.
+	 */
+	public static void addEntry(String list, String[] keys, Object[] vals) {
+		Span span = getCurrentSpan();
+		if (span != null)
+			span.addEntry(list, keys, vals);
+	}
+	/**
+	 * Provides the innermost span open on the calling thread.
+	 *
+	 * @return	The innermost span open on the calling thread, or null
+	 * 			if there is none or profiling is disabled.
+	 */
+	public static Span getCurrentSpan() {
+		if (!isEnabled)
+			return null;
+		List<Span> stack = openSpans.get();
+		return stack.isEmpty() ? null : stack.get(stack.size() - 1);
+	}
+	/**
+	 * Saves the metrics of all closed spans to files
+	 * <tt>profile.json</tt> and <tt>trace.json</tt> in the directory
+	 * specified by system property <tt>chord.profile.dir</tt>.
+	 */
+	public static void save() {
+		if (!isEnabled)
+			return;
+		FileUtils.mkdir(dirName);
+		List<Span> roots;
+		List<Span> spans;
+		synchronized (rootSpans) {
+			roots = new ArrayList<Span>(rootSpans);
+			spans = new ArrayList<Span>(allSpans);
+		}
+		PrintWriter out = FileUtils.newPrintWriter(dirName + "/profile.json");
+		out.println("{");
+		out.println("\t\"spans\": [");
+		printSpans(roots, 2, out);
+		out.println("\t]");
+		out.println("}");
+		out.close();
+		out = FileUtils.newPrintWriter(dirName + "/trace.json");
+		out.println("{\"traceEvents\": [");
+		boolean isFirst = true;
+		for (Span span : spans) {
+			if (span.wallNs < 0)
+				continue;
+			if (!isFirst)
+				out.println(",");
+			isFirst = false;
+			out.print("{\"name\": " + quote(span.name) +
+				", \"cat\": " + quote(span.kind) +
+				", \"ph\": \"X\", \"pid\": 1, \"tid\": " + span.threadId +
+				", \"ts\": " + (span.initNs - originNs) / 1000.0 +
+				", \"dur\": " + span.wallNs / 1000.0 +
+				", \"args\": {\"cpuNs\": " + span.cpuNs +
+				", \"gcCount\": " + span.gcCount +
+				", \"peakHeapUsed\": " + span.peakHeapUsed);
+			synchronized (span) {
+				for (Map.Entry<String, Long> e : span.counters.entrySet())
+					out.print(", " + quote(e.getKey()) + ": " + e.getValue());
+			}
+			out.print("}}");
+		}
+		out.println();
+		out.println("], \"displayTimeUnit\": \"ms\"}");
+		out.close();
+		System.out.println("Saved profile to '" + dirName + "'.");
+	}
+	private static void printSpans(List<Span> spans, int numTabs,
+			PrintWriter out) {
+		String tabs = "";
+		for (int i = 0; i < numTabs; i++)
+			tabs += "\t";
+		boolean isFirst = true;
+		for (Span span : spans) {
+			if (span.wallNs < 0)
+				continue;
+			if (!isFirst)
+				out.println(",");
+			isFirst = false;
+			out.println(tabs + "{");
+			out.println(tabs + "\t\"name\": " + quote(span.name) + ",");
+			out.println(tabs + "\t\"kind\": " + quote(span.kind) + ",");
+			out.println(tabs + "\t\"thread\": " + quote(span.threadName) + ",");
+			out.println(tabs + "\t\"initNs\": " + (span.initNs - originNs) + ",");
+			out.println(tabs + "\t\"wallNs\": " + span.wallNs + ",");
+			out.println(tabs + "\t\"cpuNs\": " + span.cpuNs + ",");
+			out.println(tabs + "\t\"gcCount\": " + span.gcCount + ",");
+			out.println(tabs + "\t\"gcTimeMs\": " + span.gcTimeMs + ",");
+			out.println(tabs + "\t\"heapUsed\": " + span.heapUsed + ",");
+			out.println(tabs + "\t\"peakHeapUsed\": " + span.peakHeapUsed + ",");
+			List<Span> children;
+			synchronized (span) {
+				out.print(tabs + "\t\"counters\": {");
+				boolean isFirst2 = true;
+				for (Map.Entry<String, Long> e : span.counters.entrySet()) {
+					out.print((isFirst2 ? "" : ", ") + quote(e.getKey()) +
+						": " + e.getValue());
+					isFirst2 = false;
+				}
+				out.println("},");
+				for (Map.Entry<String, List<Object[][]>> e :
+						span.entries.entrySet()) {
+					List<Object[][]> records = e.getValue();
+					out.println(tabs + "\t" + quote(e.getKey()) + ": [");
+					for (int i = 0; i < records.size(); i++) {
+						String[] keys = (String[]) records.get(i)[0];
+						Object[] vals = records.get(i)[1];
+						out.print(tabs + "\t\t{");
+						for (int j = 0; j < keys.length; j++) {
+							out.print((j == 0 ? "" : ", ") + quote(keys[j]) +
+								": " + toJSON(vals[j]));
+						}
+						out.println((i < records.size() - 1) ? "}," : "}");
+					}
+					out.println(tabs + "\t],");
+				}
+				children = new ArrayList<Span>(span.children);
+			}
+			out.println(tabs + "\t\"children\": [");
+			printSpans(children, numTabs + 2, out);
+			out.println(tabs + "\t]");
+			out.print(tabs + "}");
+		}
+		if (!isFirst)
+			out.println();
+	}
+	private static String toJSON(Object val) {
+		if (val == null)
+			return "null";
+		if (val instanceof String)
+			return quote((String) val);
+		if (val instanceof long[]) {
+			long[] a = (long[]) val;
+			StringBuilder b = new StringBuilder("[");
+			for (int i = 0; i < a.length; i++)
+				b.append(i == 0 ? "" : ", ").append(a[i]);
+			return b.append(']').toString();
+		}
+		if (val instanceof int[]) {
+			int[] a = (int[]) val;
+			StringBuilder b = new StringBuilder("[");
+			for (int i = 0; i < a.length; i++)
+				b.append(i == 0 ? "" : ", ").append(a[i]);
+			return b.append(']').toString();
+		}
+		return val.toString();
+	}
+	private static String quote(String s) {
+		StringBuilder b = new StringBuilder(s.length() + 2);
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': b.append("\\\""); break;
+			case '\\': b.append("\\\\"); break;
+			case '\n': b.append("\\n"); break;
+			case '\r': b.append("\\r"); break;
+			case '\t': b.append("\\t"); break;
+			default:
+				if (c < 0x20)
+					b.append(String.format("\\u%04x", (int) c));
+				else
+					b.append(c);
+			}
+		}
+		b.append('"');
+		return b.toString();
+	}
+	private static long getCpuTime() {
+		if (!threadBean.isCurrentThreadCpuTimeSupported())
+			return -1;
+		return threadBean.getCurrentThreadCpuTime();
+	}
+	private static long getGcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean b :
+				ManagementFactory.getGarbageCollectorMXBeans()) {
+			long c = b.getCollectionCount();
+			if (c > 0)
+				n += c;
+		}
+		return n;
+	}
+	private static long getGcTimeMs() {
+		long n = 0;
+		for (GarbageCollectorMXBean b :
+				ManagementFactory.getGarbageCollectorMXBeans()) {
+			long t = b.getCollectionTime();
+			if (t > 0)
+				n += t;
+		}
+		return n;
+	}
+	private static long getPeakHeapUsed() {
+		long n = 0;
+		for (MemoryPoolMXBean b : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (b.getType() != MemoryType.HEAP)
+				continue;
+			MemoryUsage u = b.getPeakUsage();
+			if (u != null)
+				n += u.getUsed();
+		}
+		return n;
+	}
+	private static void resetPeakHeapUsed() {
+		for (MemoryPoolMXBean b : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (b.getType() == MemoryType.HEAP)
+				b.resetPeakUsage();
+		}
+	}
+}
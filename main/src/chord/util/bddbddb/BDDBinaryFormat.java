@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.javabdd.BDD;
+import net.sf.javabdd.BDDDomain;
+import net.sf.javabdd.BDDFactory;
+
+/**
+ * Binary format of a BDD-based relation on disk.
+ * <p>
+ * A file in this format holds, after a header describing the
+ * domains of the relation, the node table of the relation's BDD
+ * with children preceding parents, so that the BDD can be rebuilt
+ * bottom-up in a single pass without any parsing.  The variable of
+ * each node is recorded as a (domain, bit) pair rather than as a
+ * variable number, so a file can be loaded regardless of how the
+ * domains are allocated in the loading factory.
+ * <p>
+ * Files may optionally be gzip-compressed; uncompressed files are
+ * memory-mapped when loaded.  All integers are big-endian:
+ * <pre>
+ * magic version numDoms
+ * (nameLen nameBytes varNum) for each domain
+ * numNodes root
+ * (domIdx*65536+bit low high) for each node
+ * </pre>
+ * where nodes are numbered from 2 in the order they appear in the
+ * file, and 0 and 1 denote the constant false and true BDDs.
+ */
+public class BDDBinaryFormat {
+	private static final int MAGIC = 0x43424444; // "CBDD"
+	private static final int VERSION = 1;
+	private static final int NODE_BASE = 2;
+	/**
+	 * Writes the specified BDD over the specified domains to the
+	 * specified file.
+	 *
+	 * @param	factory	The factory of the BDD.
+	 * @param	bdd	The BDD to be written.
+	 * @param	domBdds	The domains of the relation whose BDD is
+	 * 			being written; the BDD may not mention any
+	 * 			variable outside them.
+	 * @param	file	The file to be written.
+	 * @param	compress	Whether the file must be gzip-compressed.
+	 *
+	 * @throws	IOException	If the file cannot be written.
+	 */
+	public static void save(BDDFactory factory, BDD bdd,
+			BDDDomain[] domBdds, File file, boolean compress)
+			throws IOException {
+		int[] varCodes = new int[factory.varNum()];
+		Arrays.fill(varCodes, -1);
+		for (int i = 0; i < domBdds.length; i++) {
+			int[] ivar = domBdds[i].vars();
+			for (int j = 0; j < ivar.length; j++)
+				varCodes[ivar[j]] = (i << 16) | j;
+		}
+		NodeTable table = new NodeTable(varCodes);
+		BDD root = bdd.id();
+		int rootId = table.visit(root);
+		table.free();
+		OutputStream os = new FileOutputStream(file);
+		if (compress)
+			os = new GZIPOutputStream(os, 1 << 16);
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(domBdds.length);
+			for (BDDDomain d : domBdds) {
+				byte[] name = d.getName().getBytes("US-ASCII");
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(d.varNum());
+			}
+			int numNodes = table.size / 3;
+			out.writeInt(numNodes);
+			out.writeInt(rootId);
+			int[] nodes = table.nodes;
+			for (int k = 0; k < table.size; k++)
+				out.writeInt(nodes[k]);
+		} finally {
+			out.close();
+		}
+	}
+	/**
+	 * Reads the BDD in the specified file over the specified domains.
+	 *
+	 * @param	factory	The factory in which the BDD must be built.
+	 * @param	domBdds	The domains of the relation whose BDD is
+	 * 			being read; they must have the same names and
+	 * 			number of bits as the domains recorded in the file.
+	 * @param	file	The file to be read.
+	 *
+	 * @return	The BDD in the specified file.
+	 *
+	 * @throws	IOException	If the file cannot be read.
+	 */
+	public static BDD load(BDDFactory factory, BDDDomain[] domBdds,
+			File file) throws IOException {
+		ByteBuffer buf = read(file);
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new RuntimeException("File '" + file +
+				"' is not a BDD file of version " + VERSION + ".");
+		}
+		int numDoms = buf.getInt();
+		if (numDoms != domBdds.length) {
+			throw new RuntimeException("File '" + file + "' has " +
+				numDoms + " domains; expected " + domBdds.length + ".");
+		}
+		for (BDDDomain d : domBdds) {
+			byte[] name = new byte[buf.getInt()];
+			buf.get(name);
+			String dname = new String(name, "US-ASCII");
+			int dbits = buf.getInt();
+			if (!dname.equals(d.getName()) || dbits != d.varNum()) {
+				throw new RuntimeException("File '" + file +
+					"' has domain " + dname + ":" + dbits +
+					"; expected " + d.getName() + ":" + d.varNum() + ".");
+			}
+		}
+		int numNodes = buf.getInt();
+		int rootId = buf.getInt();
+		BDD[] nodes = new BDD[numNodes + NODE_BASE];
+		nodes[0] = factory.zero();
+		nodes[1] = factory.one();
+		for (int k = NODE_BASE; k < nodes.length; k++) {
+			int varCode = buf.getInt();
+			BDD lo = nodes[buf.getInt()];
+			BDD hi = nodes[buf.getInt()];
+			int var = domBdds[varCode >>> 16].vars()[varCode & 0xFFFF];
+			BDD v = factory.ithVar(var);
+			nodes[k] = v.ite(hi, lo);
+			v.free();
+		}
+		BDD bdd = nodes[rootId].id();
+		for (BDD b : nodes)
+			b.free();
+		return bdd;
+	}
+	private static ByteBuffer read(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel ch = fis.getChannel();
+			ByteBuffer buf =
+				ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			// gzip streams start with bytes 0x1f 0x8b
+			if (buf.limit() < 2 || buf.get(0) != (byte) 0x1f ||
+					buf.get(1) != (byte) 0x8b)
+				return buf;
+			InputStream in = new GZIPInputStream(
+				new FileInputStream(file), 1 << 16);
+			try {
+				byte[] bytes = new byte[1 << 16];
+				int len = 0;
+				int n;
+				while ((n = in.read(bytes, len, bytes.length - len)) != -1) {
+					len += n;
+					if (len == bytes.length) {
+						byte[] t = new byte[bytes.length * 2];
+						System.arraycopy(bytes, 0, t, 0, len);
+						bytes = t;
+					}
+				}
+				return ByteBuffer.wrap(bytes, 0, len);
+			} finally {
+				in.close();
+			}
+		} finally {
+			fis.close();
+		}
+	}
+	// node table built by a post-order traversal of a BDD
+	private static class NodeTable {
+		private final int[] varCodes;
+		private final Map<BDD, Integer> nodeToId = new HashMap<BDD, Integer>();
+		private int[] nodes = new int[3 * 1024];
+		private int size;
+		public NodeTable(int[] varCodes) {
+			this.varCodes = varCodes;
+		}
+		// consumes b
+		public int visit(BDD b) {
+			if (b.isZero()) {
+				b.free();
+				return 0;
+			}
+			if (b.isOne()) {
+				b.free();
+				return 1;
+			}
+			Integer id = nodeToId.get(b);
+			if (id != null) {
+				b.free();
+				return id;
+			}
+			int lo = visit(b.low());
+			int hi = visit(b.high());
+			int var = b.var();
+			int varCode = (var < varCodes.length) ? varCodes[var] : -1;
+			if (varCode == -1) {
+				throw new RuntimeException("BDD variable " + var +
+					" does not belong to any domain of the relation.");
+			}
+			if (size + 3 > nodes.length) {
+				int[] t = new int[nodes.length * 2];
+				System.arraycopy(nodes, 0, t, 0, size);
+				nodes = t;
+			}
+			nodes[size++] = varCode;
+			nodes[size++] = lo;
+			nodes[size++] = hi;
+			int newId = NODE_BASE + size / 3 - 1;
+			nodeToId.put(b, newId);
+			return newId;
+		}
+		public void free() {
+			for (BDD b : nodeToId.keySet())
+				b.free();
+			nodeToId.clear();
+		}
+	}
+}
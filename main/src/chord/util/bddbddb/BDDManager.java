@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.javabdd.BDD;
+import net.sf.javabdd.BDDDomain;
+import net.sf.javabdd.BDDFactory;
+
+/**
+ * Manager of a BDD factory shared by all BDD-based relations.
+ * <p>
+ * The factory, along with its node table and operation caches, is
+ * created lazily the first time a relation is initialized and is
+ * shared by all relations thereafter.
+ * <p>
+ * Each domain of a relation (e.g., V0, V1, H0) is allocated in the
+ * factory once, the first time a relation over that domain is
+ * initialized, and is shared by all relations over that domain
+ * thereafter.  A domain is allocated anew only if the number of
+ * values in it has changed since it was last allocated.
+ * <p>
+ * The BDD variables of all allocated domains are ordered according
+ * to the global order specified by {@link #setOrder(String)}.
+ * Domains absent from the global order are placed after those
+ * present in it, in the order in which they were allocated.
+ * <p>
+ * Dynamic reordering of BDD variables is enabled by system property
+ * <tt>chord.bdd.reorder</tt>, whose value is the reordering method:
+ * <tt>none</tt> (the default), <tt>sift</tt>, <tt>siftite</tt>,
+ * <tt>win2</tt>, <tt>win2ite</tt>, <tt>win3</tt>, or
+ * <tt>win3ite</tt>.  While enabled by {@link #setAutoReorder(boolean)},
+ * reordering is performed by {@link #checkReorder(BDD)}, which
+ * relations call between adding tuples, whenever the number of nodes
+ * of the relation being built has doubled since the previous
+ * reordering and is at least the value of system property
+ * <tt>chord.bdd.reorder.nodes</tt> (default 100000).  Each variable
+ * is moved individually, since the factory mishandles blocks of
+ * variables whose levels are not in the order of their indices, as
+ * within domains whose bits are reversed by <tt>bddreverse</tt>.  A
+ * reordering cannot be interrupted, but reordering stops for good
+ * once the total time spent in it exceeds the value of system
+ * property <tt>chord.bdd.reorder.time</tt> in milliseconds (default
+ * 60000),
+ * or once it has been performed as many times as specified by
+ * system property <tt>chord.bdd.reorder.max</tt> (default 100).
+ * Domains allocated after the variables have been reordered are
+ * placed last, instead of according to the global order, so that
+ * the order found by reordering is preserved.
+ */
+public class BDDManager {
+	private static BDDManager defaultManager;
+	private BDDFactory factory;
+	// global BDD ordering of domain names (e.g., V0xV1_H0)
+	private String order;
+	// map from each domain name to the most recently allocated
+	// domain having that name
+	private final Map<String, BDDDomain> nameToDomBddMap =
+		new HashMap<String, BDDDomain>();
+	// all allocated domains, in the order in which they were
+	// allocated
+	private final List<BDDDomain> domBdds = new ArrayList<BDDDomain>();
+	// dynamic reordering method, or null if disabled
+	private final BDDFactory.ReorderMethod reorderMethod = getReorderMethod();
+	private final long maxReorderTimeMs =
+		Long.getLong("chord.bdd.reorder.time", 60000);
+	private final int maxNumReorders =
+		Integer.getInteger("chord.bdd.reorder.max", 100);
+	private final int minReorderNodeNum =
+		Integer.getInteger("chord.bdd.reorder.nodes", 100000);
+	private long reorderTimeMs;
+	private int numReorders;
+	private boolean isAutoReorder;
+	// number of nodes of the relation being built past which
+	// variables are next reordered
+	private int nextReorderNodeNum;
+	/**
+	 * Provides the manager shared by all relations that are not
+	 * provided a manager explicitly.
+	 *
+	 * @return	The manager shared by all relations that are not
+	 * 			provided a manager explicitly.
+	 */
+	public static synchronized BDDManager getDefault() {
+		if (defaultManager == null)
+			defaultManager = new BDDManager();
+		return defaultManager;
+	}
+	/**
+	 * Sets the global BDD ordering of domain names.
+	 *
+	 * @param	order	The global BDD ordering of domain names
+	 * 			(e.g., F0_I0xM0xM1_T0_V0xV1_T1_H0_H1_Z0).
+	 * 			It may be null.
+	 */
+	public synchronized void setOrder(String order) {
+		this.order = order;
+		if (factory != null) {
+			// the given order overrides any found by reordering
+			numReorders = 0;
+			setVarOrder();
+		}
+	}
+	/**
+	 * Provides the global BDD ordering of domain names.
+	 *
+	 * @return	The global BDD ordering of domain names.
+	 */
+	public String getOrder() {
+		return order;
+	}
+	/**
+	 * Provides the shared factory, creating it if necessary.
+	 *
+	 * @return	The shared factory.
+	 */
+	public synchronized BDDFactory getFactory() {
+		if (factory == null) {
+			int bddnodes = Integer.parseInt(
+				System.getProperty("bddnodes", "500000"));
+			int bddcache = Integer.parseInt(
+				System.getProperty("bddcache", "125000"));
+			double bddminfree = Double.parseDouble(
+				System.getProperty("bddminfree", ".20"));
+			String backend =
+				System.getProperty("chord.bdd.backend", "java");
+			String errMsg = null;
+			try {
+				factory = BDDFactory.init(backend, bddnodes, bddcache);
+			} catch (RuntimeException ex) {
+				errMsg = ex.getMessage();
+			} catch (InternalError ex) {
+				// thrown if a native backend is already in use
+				errMsg = ex.getMessage();
+			}
+			if (factory == null) {
+				System.err.println("WARNING: Failed to load BDD " +
+					"backend '" + backend + "'; falling back to " +
+					"backend 'java': " + errMsg);
+				factory = BDDFactory.init("java", bddnodes, bddcache);
+			}
+			System.out.println("Using BDD backend '" + getBackend() +
+				"' (" + factory.getVersion() + ")");
+			factory.setIncreaseFactor(2);
+			factory.setMinFreeNodes(bddminfree);
+			factory.reorderVerbose(0);
+		}
+		return factory;
+	}
+	/**
+	 * Determines whether dynamic reordering of BDD variables is
+	 * requested via system property <tt>chord.bdd.reorder</tt>.
+	 *
+	 * @return	true iff dynamic reordering is requested.
+	 */
+	public boolean isReorderRequested() {
+		return reorderMethod != null;
+	}
+	/**
+	 * Enables or disables dynamic reordering of BDD variables in the
+	 * shared factory.  Has no effect unless dynamic reordering is
+	 * requested via system property <tt>chord.bdd.reorder</tt> and
+	 * its budget is not exhausted.
+	 *
+	 * @param	enable	true iff reordering must be enabled.
+	 */
+	public synchronized void setAutoReorder(boolean enable) {
+		isAutoReorder = enable && reorderMethod != null &&
+			!isReorderBudgetExhausted();
+		nextReorderNodeNum = minReorderNodeNum;
+	}
+	/**
+	 * Reorders the BDD variables of the shared factory if dynamic
+	 * reordering is enabled and the specified BDD has grown past the
+	 * threshold since the previous reordering.  Must be called only
+	 * when no BDD operation is in progress.
+	 *
+	 * @param	bdd	The BDD of the relation being built.
+	 */
+	public synchronized void checkReorder(BDD bdd) {
+		if (!isAutoReorder)
+			return;
+		int before = bdd.nodeCount();
+		if (before < nextReorderNodeNum)
+			return;
+		long initMs = System.currentTimeMillis();
+		factory.reorder(reorderMethod);
+		long timeMs = System.currentTimeMillis() - initMs;
+		int after = bdd.nodeCount();
+		numReorders++;
+		reorderTimeMs += timeMs;
+		nextReorderNodeNum = Math.max(2 * after, minReorderNodeNum);
+		System.out.println("Reordered BDD variables: nodes: " + before +
+			" -> " + after + " time: " + timeMs + "ms");
+		if (isReorderBudgetExhausted()) {
+			System.out.println("Disabling BDD variable reordering " +
+				"after " + numReorders + " reorderings taking " +
+				reorderTimeMs + "ms.");
+			isAutoReorder = false;
+		}
+	}
+	private boolean isReorderBudgetExhausted() {
+		return reorderTimeMs >= maxReorderTimeMs ||
+			numReorders >= maxNumReorders;
+	}
+	private static BDDFactory.ReorderMethod getReorderMethod() {
+		String s = System.getProperty("chord.bdd.reorder", "none");
+		if (s.equals("none"))
+			return null;
+		if (s.equals("sift"))
+			return BDDFactory.REORDER_SIFT;
+		if (s.equals("siftite"))
+			return BDDFactory.REORDER_SIFTITE;
+		if (s.equals("win2"))
+			return BDDFactory.REORDER_WIN2;
+		if (s.equals("win2ite"))
+			return BDDFactory.REORDER_WIN2ITE;
+		if (s.equals("win3"))
+			return BDDFactory.REORDER_WIN3;
+		if (s.equals("win3ite"))
+			return BDDFactory.REORDER_WIN3ITE;
+		throw new RuntimeException("Unknown value '" + s +
+			"' of system property 'chord.bdd.reorder'.");
+	}
+	/**
+	 * Provides the name of the backend implementing the shared
+	 * factory, creating the factory if necessary.
+	 * <p>
+	 * The backend is requested via system property
+	 * <tt>chord.bdd.backend</tt> whose value must be one of
+	 * <tt>java</tt> (the default), <tt>buddy</tt>, <tt>cudd</tt>,
+	 * and <tt>jdd</tt>.  The native backends require the respective
+	 * library to be on <tt>java.library.path</tt>; if the requested
+	 * backend cannot be loaded, the <tt>java</tt> backend is used
+	 * instead, so the backend provided by this method may differ
+	 * from the one requested.
+	 *
+	 * @return	The name of the backend implementing the shared
+	 * 			factory.
+	 */
+	public synchronized String getBackend() {
+		String clsName = getFactory().getClass().getName();
+		if (clsName.startsWith("net.sf.javabdd.JFactory"))
+			return "java";
+		if (clsName.startsWith("net.sf.javabdd.BuDDyFactory"))
+			return "buddy";
+		if (clsName.startsWith("net.sf.javabdd.CUDDFactory"))
+			return "cudd";
+		if (clsName.startsWith("net.sf.javabdd.JDDFactory"))
+			return "jdd";
+		return clsName;
+	}
+	/**
+	 * Provides the domain having the specified name and number of
+	 * values, allocating it in the shared factory if necessary.
+	 *
+	 * @param	name	The name of the domain (e.g., V0).
+	 * @param	numElems	The number of values in the domain.
+	 *
+	 * @return	The domain having the specified name and number of
+	 * 			values.
+	 */
+	public synchronized BDDDomain getDomain(String name, int numElems) {
+		BDDDomain d = nameToDomBddMap.get(name);
+		if (d != null) {
+			if (d.size().longValue() == numElems)
+				return d;
+			// the variables of a domain replaced by one of another
+			// size are no longer ordered with the domains in use
+			domBdds.remove(d);
+		}
+		d = getFactory().extDomain(new long[] { numElems })[0];
+		d.setName(name);
+		nameToDomBddMap.put(name, d);
+		domBdds.add(d);
+		setVarOrder();
+		return d;
+	}
+	/**
+	 * Provides the number of BDD nodes currently in use in the
+	 * shared factory.
+	 *
+	 * @return	The number of BDD nodes currently in use in the
+	 * 			shared factory, or 0 if it has not been created.
+	 */
+	public synchronized int getNodeNum() {
+		return (factory == null) ? 0 : factory.getNodeNum();
+	}
+	/**
+	 * Provides the size of the node table of the shared factory.
+	 *
+	 * @return	The size of the node table of the shared factory,
+	 * 			or 0 if it has not been created.
+	 */
+	public synchronized int getNodeTableSize() {
+		return (factory == null) ? 0 : factory.getNodeTableSize();
+	}
+	/**
+	 * Frees the shared factory along with all domains allocated in
+	 * it.  All relations using the factory must be closed before
+	 * calling this method.
+	 */
+	public synchronized void done() {
+		if (factory == null)
+			return;
+		factory.done();
+		factory = null;
+		nameToDomBddMap.clear();
+		domBdds.clear();
+		numReorders = 0;
+		isAutoReorder = false;
+	}
+	private void setVarOrder() {
+		if (numReorders > 0) {
+			// the variables of the last allocated domain are last
+			if (reorderMethod != null) {
+				factory.clearVarBlocks();
+				factory.varBlockAll();
+			}
+			return;
+		}
+		boolean reverseLocal =
+			System.getProperty("bddreverse", "true").equals("true");
+		List<List<BDDDomain>> groups = new ArrayList<List<BDDDomain>>();
+		List<BDDDomain> todo = new ArrayList<BDDDomain>(domBdds);
+		if (order != null) {
+			for (String group : order.split("_")) {
+				List<BDDDomain> groupDomBdds = new ArrayList<BDDDomain>();
+				for (String name : group.split("x")) {
+					BDDDomain d = nameToDomBddMap.get(name);
+					if (d != null) {
+						groupDomBdds.add(d);
+						todo.remove(d);
+					}
+				}
+				if (!groupDomBdds.isEmpty())
+					groups.add(groupDomBdds);
+			}
+		}
+		for (BDDDomain d : todo) {
+			List<BDDDomain> groupDomBdds = new ArrayList<BDDDomain>(1);
+			groupDomBdds.add(d);
+			groups.add(groupDomBdds);
+		}
+		int numVars = factory.varNum();
+		int[] varOrder = new int[numVars];
+		boolean[] done = new boolean[numVars];
+		int k = 0;
+		for (List<BDDDomain> group : groups) {
+			int maxBits = 0;
+			for (BDDDomain d : group)
+				maxBits = Math.max(maxBits, d.varNum());
+			// interleave the bits of all domains in the group
+			for (int b = 0; b < maxBits; b++) {
+				for (BDDDomain d : group) {
+					int n = d.varNum();
+					if (b >= n)
+						continue;
+					int v = d.vars()[reverseLocal ? n - 1 - b : b];
+					varOrder[k++] = v;
+					done[v] = true;
+				}
+			}
+		}
+		// variables not belonging to any domain (e.g., those created
+		// while loading relations) retain their relative order
+		for (int v = 0; v < numVars; v++) {
+			if (!done[v])
+				varOrder[k++] = v;
+		}
+		// the factory rejects a new order while blocks are defined
+		if (reorderMethod != null)
+			factory.clearVarBlocks();
+		if (!Arrays.equals(varOrder, factory.getVarOrder()))
+			factory.setVarOrder(varOrder);
+		// the factory moves only variables in blocks, so each variable
+		// is made a block of its own
+		if (reorderMethod != null)
+			factory.varBlockAll();
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import chord.util.StringUtils;
+
+/**
+ * A Datalog program in bddbddb's syntax, parsed into relation
+ * declarations and rules.
+ * <p>
+ * The following subset of bddbddb's syntax is supported:
+ * <ul>
+ * <li>comment lines starting with <tt>#</tt>;</li>
+ * <li>directive <tt>.bddvarorder</tt>; all other directives (e.g.,
+ * <tt>.include</tt>) are ignored;</li>
+ * <li>relation declarations of the form
+ * <tt>R(x0:D0,...,xn:Dn) [input|output]</tt>, where each domain
+ * name may omit its numeric suffix;</li>
+ * <li>rules of the form <tt>H :- L1, ..., Lk.</tt> and facts of
+ * the form <tt>H.</tt>, possibly spanning multiple lines, where
+ * <tt>H</tt> is an atom and each <tt>Li</tt> is an atom optionally
+ * negated by a leading <tt>!</tt>; the arguments of atoms are
+ * variables, the wildcard <tt>_</tt>, or non-negative integer
+ * constants denoting indices in the respective domains.</li>
+ * </ul>
+ *
+ * @see	DlogSolver
+ */
+public class DlogProgram {
+	private static final Pattern declPattern =
+		Pattern.compile("(\\w+)\\s*\\(([^)]*:[^)]*)\\)\\s*([\\w\\s]*)");
+	private static final Pattern atomPattern =
+		Pattern.compile("(!?)\\s*(\\w+)\\s*\\(([^)]*)\\)");
+	private final String fileName;
+	private String order;
+	private final Map<String, RelDecl> nameToRelMap =
+		new LinkedHashMap<String, RelDecl>();
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private int lineNum;
+	/**
+	 * Declaration of a relation in a Datalog program.
+	 */
+	public static class RelDecl {
+		/**
+		 * The name of the relation.
+		 */
+		public final String name;
+		/**
+		 * The names of the domains of the relation (e.g., [T1,T0]).
+		 */
+		public final String[] domNames;
+		/**
+		 * Whether the relation is declared as an input relation.
+		 */
+		public final boolean isInput;
+		/**
+		 * Whether the relation is declared as an output relation.
+		 */
+		public final boolean isOutput;
+		public RelDecl(String name, String[] domNames,
+				boolean isInput, boolean isOutput) {
+			this.name = name;
+			this.domNames = domNames;
+			this.isInput = isInput;
+			this.isOutput = isOutput;
+		}
+		public String toString() {
+			return name;
+		}
+	}
+	/**
+	 * An atom, optionally negated, in a rule of a Datalog program.
+	 * Each argument is the name of a variable, or null in the case
+	 * of the wildcard and of constants.  The value of each constant
+	 * argument is given in the parallel array of constants, which
+	 * holds -1 for the other arguments.
+	 */
+	public static class Atom {
+		public final RelDecl rel;
+		public final String[] vars;
+		public final int[] consts;
+		public final boolean isNegated;
+		public Atom(RelDecl rel, String[] vars, int[] consts,
+				boolean isNegated) {
+			this.rel = rel;
+			this.vars = vars;
+			this.consts = consts;
+			this.isNegated = isNegated;
+		}
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			if (isNegated)
+				s.append('!');
+			s.append(rel.name).append('(');
+			for (int i = 0; i < vars.length; i++) {
+				if (i > 0)
+					s.append(',');
+				if (vars[i] != null)
+					s.append(vars[i]);
+				else if (consts[i] != -1)
+					s.append(consts[i]);
+				else
+					s.append('_');
+			}
+			return s.append(')').toString();
+		}
+	}
+	/**
+	 * A rule of a Datalog program.  Facts are rules with an empty
+	 * body.
+	 */
+	public static class Rule {
+		public final Atom head;
+		public final List<Atom> body;
+		/**
+		 * The line of the Datalog program at which the rule ends.
+		 */
+		public final int lineNum;
+		public Rule(Atom head, List<Atom> body, int lineNum) {
+			this.head = head;
+			this.body = body;
+			this.lineNum = lineNum;
+		}
+		public String toString() {
+			StringBuilder s = new StringBuilder(head.toString());
+			for (int i = 0; i < body.size(); i++)
+				s.append(i == 0 ? " :- " : ", ").append(body.get(i));
+			return s.append('.').toString();
+		}
+	}
+	/**
+	 * Parses the Datalog program in the specified file.
+	 *
+	 * @param	fileName	A file containing a Datalog program.
+	 *
+	 * @throws	RuntimeException	If the program cannot be read or
+	 * 			parsed.
+	 */
+	public DlogProgram(String fileName) {
+		this.fileName = fileName;
+		BufferedReader in;
+		try {
+			in = new BufferedReader(new FileReader(new File(fileName)));
+			try {
+				parse(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	public String getFileName() {
+		return fileName;
+	}
+	/**
+	 * Provides the BDD ordering of domain names specified via
+	 * directive <tt>.bddvarorder</tt>.
+	 *
+	 * @return	The BDD ordering of domain names of this program, or
+	 * 			null if it is not specified.
+	 */
+	public String getOrder() {
+		return order;
+	}
+	/**
+	 * Provides all relations declared in this program, in the order
+	 * in which they are declared.
+	 *
+	 * @return	All relations declared in this program.
+	 */
+	public Iterable<RelDecl> getRels() {
+		return nameToRelMap.values();
+	}
+	/**
+	 * Provides all rules in this program, in the order in which
+	 * they occur.
+	 *
+	 * @return	All rules in this program.
+	 */
+	public List<Rule> getRules() {
+		return rules;
+	}
+	/**
+	 * Provides the BDD ordering of the specified domain names
+	 * consistent with the ordering specified via directive
+	 * <tt>.bddvarorder</tt>.
+	 *
+	 * @param	domNames	Names of domains of this program.
+	 *
+	 * @return	The BDD ordering of the specified domain names.
+	 */
+	public String getSubOrder(String[] domNames) {
+		List<String> names = new ArrayList<String>(domNames.length);
+		for (String domName : domNames)
+			names.add(domName);
+		StringBuilder subOrder = new StringBuilder();
+		if (order != null) {
+			for (String group : order.split("_")) {
+				StringBuilder subGroup = new StringBuilder();
+				for (String domName : group.split("x")) {
+					if (names.remove(domName)) {
+						if (subGroup.length() > 0)
+							subGroup.append('x');
+						subGroup.append(domName);
+					}
+				}
+				if (subGroup.length() > 0) {
+					if (subOrder.length() > 0)
+						subOrder.append('_');
+					subOrder.append(subGroup);
+				}
+			}
+		}
+		for (String domName : names) {
+			if (subOrder.length() > 0)
+				subOrder.append('_');
+			subOrder.append(domName);
+		}
+		return subOrder.toString();
+	}
+	private void parse(BufferedReader in) throws IOException {
+		StringBuilder stmt = new StringBuilder();
+		for (lineNum = 1; true; lineNum++) {
+			String s = in.readLine();
+			if (s == null)
+				break;
+			s = s.trim();
+			if (s.length() == 0 || s.startsWith("#"))
+				continue;
+			if (stmt.length() == 0) {
+				if (s.startsWith(".")) {
+					if (s.startsWith(".bddvarorder"))
+						order = s.substring(12).trim();
+					continue;
+				}
+				if (s.indexOf(":-") == -1 && !s.endsWith(".")) {
+					parseDecl(s);
+					continue;
+				}
+			}
+			stmt.append(s).append(' ');
+			if (s.endsWith(".")) {
+				parseRule(stmt.toString().trim());
+				stmt.setLength(0);
+			}
+		}
+		if (stmt.length() > 0)
+			error("Rule not terminated by '.'");
+	}
+	private void parseDecl(String s) {
+		Matcher m = declPattern.matcher(s);
+		if (!m.matches()) {
+			error("Unrecognized statement '" + s + "'");
+		}
+		String relName = m.group(1);
+		if (nameToRelMap.containsKey(relName))
+			error("Relation '" + relName + "' redeclared");
+		String[] args = m.group(2).split(",");
+		int numDoms = args.length;
+		String[] domNames = new String[numDoms];
+		for (int i = 0; i < numDoms; i++) {
+			String arg = args[i];
+			int j = arg.indexOf(':');
+			if (j == -1)
+				error("Domain missing in declaration of relation '" +
+					relName + "'");
+			String domName = arg.substring(j + 1).trim();
+			if (!Character.isDigit(domName.charAt(domName.length() - 1))) {
+				// pick the least unused index of the domain
+				int index = 0;
+				while (contains(domNames, domName + index))
+					index++;
+				domName = domName + index;
+			}
+			if (contains(domNames, domName))
+				error("Domain name '" + domName + "' occurs multiple " +
+					"times in declaration of relation '" + relName + "'");
+			domNames[i] = domName;
+		}
+		boolean isInput = false;
+		boolean isOutput = false;
+		for (String flag : m.group(3).trim().split("\\s+")) {
+			if (flag.equals("input"))
+				isInput = true;
+			else if (flag.equals("output"))
+				isOutput = true;
+		}
+		nameToRelMap.put(relName,
+			new RelDecl(relName, domNames, isInput, isOutput));
+	}
+	private void parseRule(String s) {
+		s = s.substring(0, s.length() - 1).trim();
+		int i = s.indexOf(":-");
+		String headStr = (i == -1) ? s : s.substring(0, i).trim();
+		Atom head = parseAtom(headStr);
+		if (head.isNegated)
+			error("Negated head in rule '" + s + "'");
+		List<Atom> body = new ArrayList<Atom>();
+		if (i != -1) {
+			String bodyStr = s.substring(i + 2);
+			int depth = 0;
+			int start = 0;
+			for (int j = 0; j < bodyStr.length(); j++) {
+				char c = bodyStr.charAt(j);
+				if (c == '(')
+					depth++;
+				else if (c == ')')
+					depth--;
+				else if (c == ',' && depth == 0) {
+					body.add(parseAtom(bodyStr.substring(start, j).trim()));
+					start = j + 1;
+				}
+			}
+			body.add(parseAtom(bodyStr.substring(start).trim()));
+		}
+		Rule rule = new Rule(head, body, lineNum);
+		checkRule(rule);
+		rules.add(rule);
+	}
+	private Atom parseAtom(String s) {
+		Matcher m = atomPattern.matcher(s);
+		if (!m.matches())
+			error("Unsupported literal '" + s + "'");
+		RelDecl rel = nameToRelMap.get(m.group(2));
+		if (rel == null)
+			error("Relation '" + m.group(2) + "' not declared");
+		String[] args = m.group(3).split(",");
+		int n = rel.domNames.length;
+		if (args.length != n) {
+			error("Literal '" + s + "' has " + args.length +
+				" arguments; expected " + n);
+		}
+		String[] vars = new String[n];
+		int[] consts = new int[n];
+		for (int i = 0; i < n; i++) {
+			String arg = args[i].trim();
+			consts[i] = -1;
+			if (arg.equals("_"))
+				continue;
+			if (Character.isDigit(arg.charAt(0))) {
+				try {
+					consts[i] = Integer.parseInt(arg);
+				} catch (NumberFormatException ex) {
+					error("Invalid constant '" + arg + "'");
+				}
+				continue;
+			}
+			if (!arg.matches("\\w+"))
+				error("Unsupported argument '" + arg + "'");
+			vars[i] = arg;
+		}
+		return new Atom(rel, vars, consts, m.group(1).length() > 0);
+	}
+	// checks that each variable ranges over a single kind of domain
+	// and that each variable of a negated literal is bound by some
+	// positive literal
+	private void checkRule(Rule rule) {
+		Map<String, String> varToDomKind = new HashMap<String, String>();
+		List<Atom> atoms = new ArrayList<Atom>(rule.body);
+		atoms.add(rule.head);
+		for (Atom atom : atoms) {
+			for (int i = 0; i < atom.vars.length; i++) {
+				String var = atom.vars[i];
+				if (var == null)
+					continue;
+				String domKind =
+					StringUtils.trimNumSuffix(atom.rel.domNames[i]);
+				String domKind2 = varToDomKind.put(var, domKind);
+				if (domKind2 != null && !domKind2.equals(domKind)) {
+					error("Variable '" + var + "' ranges over domains " +
+						domKind2 + " and " + domKind + " in rule '" +
+						rule + "'");
+				}
+			}
+		}
+		for (Atom atom : rule.body) {
+			if (!atom.isNegated)
+				continue;
+			for (String var : atom.vars) {
+				if (var != null && !isBound(var, rule.body)) {
+					error("Variable '" + var + "' of negated literal '" +
+						atom + "' is not bound by any positive literal");
+				}
+			}
+		}
+	}
+	private static boolean isBound(String var, List<Atom> body) {
+		for (Atom atom : body) {
+			if (!atom.isNegated && contains(atom.vars, var))
+				return true;
+		}
+		return false;
+	}
+	private static boolean contains(String[] a, String s) {
+		for (String t : a) {
+			if (s.equals(t))
+				return true;
+		}
+		return false;
+	}
+	private void error(String msg) {
+		throw new RuntimeException(fileName + ": line " + lineNum +
+			": " + msg + ".");
+	}
+}
@@ -0,0 +1,1060 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.javabdd.BDD;
+import net.sf.javabdd.BDDDomain;
+import net.sf.javabdd.BDDFactory;
+import net.sf.javabdd.BDDPairing;
+
+import chord.util.FileUtils;
+import chord.util.Profiler;
+import chord.util.StringUtils;
+import chord.util.bddbddb.DlogProgram.Atom;
+import chord.util.bddbddb.DlogProgram.RelDecl;
+import chord.util.bddbddb.DlogProgram.Rule;
+
+/**
+ * Semi-naive, stratified evaluator of Datalog programs over the BDDs
+ * of the shared factory of a {@link BDDManager}.
+ * <p>
+ * Input relations are loaded from disk by {@link Rel#load()} and
+ * output relations are saved to disk by {@link Rel#save()}, so the
+ * solver is interchangeable with bddbddb's.  Other relations are
+ * kept only in memory.
+ * <p>
+ * The rules are partitioned into strata, one per strongly connected
+ * component of the dependency graph of relations, and the strata are
+ * evaluated in dependency order.  A negated literal may refer only
+ * to a relation of a lower stratum.  Within each stratum, every rule
+ * is first evaluated once over the full relations; thereafter, each
+ * recursive rule is evaluated once per recursive literal with that
+ * literal bound to the tuples derived in the previous iteration,
+ * until no new tuples are derived.
+ * <p>
+ * Each variable of a rule is assigned a physical BDD domain of its
+ * kind, preferably that of one of its occurrences; the literals of
+ * the rule are renamed into these domains and conjoined by
+ * relational products that quantify away each variable not in the
+ * head after its last use.
+ * <p>
+ * If system property <tt>chord.incremental.dir</tt> is set, the
+ * solver saves all relations of the program in a subdirectory of the
+ * specified directory after solving it, and the next time it solves
+ * the same program, it updates those relations instead of computing
+ * them from scratch: the tuples deleted from and inserted into each
+ * input relation since then are propagated through the strata by the
+ * DRed algorithm, which over-deletes the tuples having a derivation
+ * from a deleted tuple, re-derives those of them that have another
+ * derivation, and then derives the consequences of the inserted
+ * tuples semi-naively.  A stratum negating a changed relation is
+ * instead recomputed from scratch, as is one whose rules depend on
+ * the size of a domain (through wildcards or unbound variables in
+ * the head) if that size changed.  The saved relations are discarded
+ * if the program changed or the number of bits of a domain changed.
+ * <p>
+ * If profiling is enabled (see {@link Profiler}), the solving of
+ * each stratum is recorded as a span named after its relations,
+ * along with the number of iterations to reach its fixpoint, the
+ * number of tuples added in each iteration, and, for each rule, the
+ * number of evaluations, the time spent in them, the largest BDD
+ * computed by them (intermediate results included), and the number
+ * of tuples derived.
+ */
+public class DlogSolver {
+	private final DlogProgram program;
+	private final BDDManager manager;
+	private final Map<String, Dom> domKindToDomMap;
+	private BDDFactory factory;
+	private final Map<RelDecl, BDDDomain[]> relToDomBddsMap =
+		new HashMap<RelDecl, BDDDomain[]>();
+	private final Map<RelDecl, BDD> relToBddMap =
+		new HashMap<RelDecl, BDD>();
+	// relations as of the previous run, in incremental mode
+	private final Map<RelDecl, BDD> relToOldBddMap =
+		new HashMap<RelDecl, BDD>();
+	// whether the size of any domain changed since the previous run
+	private boolean domSizesChanged;
+	// sets of BDD variables of relations, used to count tuples
+	private final Map<RelDecl, BDD> relToVarSetMap =
+		new HashMap<RelDecl, BDD>();
+	// number of tuples added to the relations of the stratum being
+	// solved in each iteration, or null if not profiling
+	private List<Long> iterSizes;
+	// value of System.nanoTime() after which solving is abandoned
+	private long deadlineNs = Long.MAX_VALUE;
+	private static class DeadlineException extends RuntimeException {
+	}
+	/**
+	 * Constructor.
+	 *
+	 * @param	program	The Datalog program to be solved.
+	 * @param	manager	The manager of the factory in which the
+	 * 			program must be solved.
+	 * @param	domKindToDomMap	A map from the name of each kind of
+	 * 			domain of the program (e.g., T) to that domain.
+	 */
+	public DlogSolver(DlogProgram program, BDDManager manager,
+			Map<String, Dom> domKindToDomMap) {
+		this.program = program;
+		this.manager = manager;
+		this.domKindToDomMap = domKindToDomMap;
+	}
+	/**
+	 * Loads the input relations of the program, computes the least
+	 * fixpoint of its rules, and saves its output relations.
+	 */
+	public void run() {
+		factory = manager.getFactory();
+		try {
+			allocDomBdds();
+			File stateDir = getStateDir();
+			boolean isIncremental = (stateDir != null) && loadState(stateDir);
+			for (RelDecl rel : program.getRels()) {
+				BDD bdd;
+				if (rel.isInput) {
+					Rel r = newRel(rel);
+					r.load();
+					bdd = r.bdd.id();
+					r.close();
+				} else if (isIncremental)
+					bdd = relToOldBddMap.get(rel).id();
+				else
+					bdd = factory.zero();
+				relToBddMap.put(rel, bdd);
+			}
+			if (isIncremental)
+				solveIncrementally(stratify());
+			else {
+				for (List<Rule> stratum : stratify())
+					solve(stratum);
+			}
+			if (stateDir != null)
+				saveState(stateDir);
+			for (RelDecl rel : program.getRels()) {
+				if (!rel.isOutput)
+					continue;
+				Rel r = newRel(rel);
+				r.zero();
+				r.bdd.free();
+				r.bdd = relToBddMap.get(rel).id();
+				if (Profiler.isEnabled())
+					Profiler.addTrgt("rel", rel.name, r.size(), r.nodeCount());
+				r.save();
+			}
+		} finally {
+			free();
+		}
+	}
+	/**
+	 * Loads the input relations of the program and computes the
+	 * least fixpoint of its rules from scratch, without saving any
+	 * relation.  Used to measure the cost of solving the program
+	 * under the global BDD ordering of the manager.
+	 *
+	 * @param	deadlineNs	The value of {@link System#nanoTime()}
+	 * 			after which solving is abandoned.
+	 *
+	 * @return	The number of BDD nodes representing all relations
+	 * 			of the program at the fixpoint, or -1 if solving
+	 * 			was abandoned.
+	 */
+	public int measure(long deadlineNs) {
+		factory = manager.getFactory();
+		this.deadlineNs = deadlineNs;
+		try {
+			allocDomBdds();
+			for (RelDecl rel : program.getRels()) {
+				BDD bdd;
+				if (rel.isInput) {
+					Rel r = newRel(rel);
+					r.load();
+					bdd = r.bdd.id();
+					r.close();
+				} else
+					bdd = factory.zero();
+				relToBddMap.put(rel, bdd);
+			}
+			for (List<Rule> stratum : stratify())
+				solve(stratum);
+			return factory.nodeCount(relToBddMap.values());
+		} catch (DeadlineException ex) {
+			return -1;
+		} finally {
+			free();
+			this.deadlineNs = Long.MAX_VALUE;
+		}
+	}
+	private void allocDomBdds() {
+		for (RelDecl rel : program.getRels()) {
+			BDDDomain[] domBdds = new BDDDomain[rel.domNames.length];
+			for (int i = 0; i < domBdds.length; i++)
+				domBdds[i] = getDomBdd(rel.domNames[i]);
+			relToDomBddsMap.put(rel, domBdds);
+		}
+	}
+	private void free() {
+		for (BDD bdd : relToBddMap.values())
+			bdd.free();
+		relToBddMap.clear();
+		for (BDD bdd : relToOldBddMap.values())
+			bdd.free();
+		relToOldBddMap.clear();
+		for (BDD bdd : relToVarSetMap.values())
+			bdd.free();
+		relToVarSetMap.clear();
+	}
+	private Rel newRel(RelDecl decl) {
+		Rel rel = new Rel() {
+			public BDDManager getBDDManager() {
+				return manager;
+			}
+			// rules are evaluated over BDDs
+			public String getStorage() {
+				return "bdd";
+			}
+		};
+		rel.setName(decl.name);
+		rel.setSign(decl.domNames, program.getSubOrder(decl.domNames));
+		Dom[] doms = new Dom[decl.domNames.length];
+		for (int i = 0; i < doms.length; i++)
+			doms[i] = getDom(decl.domNames[i]);
+		rel.setDoms(doms);
+		return rel;
+	}
+	private Dom getDom(String domName) {
+		String domKind = StringUtils.trimNumSuffix(domName);
+		Dom dom = domKindToDomMap.get(domKind);
+		if (dom == null) {
+			throw new RuntimeException("Domain '" + domKind +
+				"' of Datalog program '" + program.getFileName() +
+				"' not found.");
+		}
+		return dom;
+	}
+	private BDDDomain getDomBdd(String domName) {
+		return manager.getDomain(domName, getDom(domName).size());
+	}
+
+	/*
+	 * Stratification.
+	 */
+
+	// partitions the rules by the strongly connected components of
+	// the dependency graph of their head relations, in dependency
+	// order, using Tarjan's algorithm
+	private List<List<Rule>> stratify() {
+		final Map<RelDecl, List<Rule>> relToRulesMap =
+			new HashMap<RelDecl, List<Rule>>();
+		for (Rule rule : program.getRules()) {
+			List<Rule> rules = relToRulesMap.get(rule.head.rel);
+			if (rules == null) {
+				rules = new ArrayList<Rule>();
+				relToRulesMap.put(rule.head.rel, rules);
+			}
+			rules.add(rule);
+		}
+		final List<List<Rule>> strata = new ArrayList<List<Rule>>();
+		final Map<RelDecl, Integer> relToStratumMap =
+			new HashMap<RelDecl, Integer>();
+		new Object() {
+			private final Map<RelDecl, Integer> index =
+				new HashMap<RelDecl, Integer>();
+			private final Map<RelDecl, Integer> lowLink =
+				new HashMap<RelDecl, Integer>();
+			private final List<RelDecl> stack = new ArrayList<RelDecl>();
+			private final Set<RelDecl> onStack = new HashSet<RelDecl>();
+			void run() {
+				for (RelDecl rel : relToRulesMap.keySet()) {
+					if (!index.containsKey(rel))
+						visit(rel);
+				}
+			}
+			void visit(RelDecl rel) {
+				int n = index.size();
+				index.put(rel, n);
+				lowLink.put(rel, n);
+				stack.add(rel);
+				onStack.add(rel);
+				for (Rule rule : relToRulesMap.get(rel)) {
+					for (Atom atom : rule.body) {
+						RelDecl rel2 = atom.rel;
+						if (!relToRulesMap.containsKey(rel2))
+							continue;
+						if (!index.containsKey(rel2)) {
+							visit(rel2);
+							lowLink.put(rel, Math.min(lowLink.get(rel),
+								lowLink.get(rel2)));
+						} else if (onStack.contains(rel2)) {
+							lowLink.put(rel, Math.min(lowLink.get(rel),
+								index.get(rel2)));
+						}
+					}
+				}
+				if (!lowLink.get(rel).equals(index.get(rel)))
+					return;
+				List<Rule> stratum = new ArrayList<Rule>();
+				RelDecl rel2;
+				do {
+					rel2 = stack.remove(stack.size() - 1);
+					onStack.remove(rel2);
+					relToStratumMap.put(rel2, strata.size());
+					stratum.addAll(relToRulesMap.get(rel2));
+				} while (rel2 != rel);
+				strata.add(stratum);
+			}
+		}.run();
+		for (int s = 0; s < strata.size(); s++) {
+			for (Rule rule : strata.get(s)) {
+				for (Atom atom : rule.body) {
+					Integer s2 = relToStratumMap.get(atom.rel);
+					if (atom.isNegated && s2 != null && s2 == s) {
+						throw new RuntimeException(program.getFileName() +
+							": line " + rule.lineNum + ": Rule '" + rule +
+							"' negates relation '" + atom.rel +
+							"' recursively; program is not stratifiable.");
+					}
+				}
+			}
+		}
+		return strata;
+	}
+
+	/*
+	 * Evaluation.
+	 */
+
+	private void solve(List<Rule> stratum) {
+		Set<RelDecl> heads = new HashSet<RelDecl>();
+		for (Rule rule : stratum)
+			heads.add(rule.head.rel);
+		List<CompiledRule> rules = new ArrayList<CompiledRule>();
+		for (Rule rule : stratum)
+			rules.add(new CompiledRule(rule, heads));
+		Profiler.Span span = enterStratum(heads, "solve");
+		try {
+			// first iteration: evaluate all rules on full relations
+			Map<RelDecl, BDD> deltas = new HashMap<RelDecl, BDD>();
+			for (CompiledRule rule : rules) {
+				BDD[] srcs = getSrcs(rule, relToBddMap);
+				addDelta(deltas, rule.rule.head.rel, rule.eval(srcs));
+			}
+			iterate(rules, deltas);
+		} finally {
+			leaveStratum(span, rules, heads);
+			for (CompiledRule rule : rules)
+				rule.free();
+		}
+	}
+	// adds the specified tuples to the relations of the stratum of
+	// the specified rules and then evaluates its recursive rules on
+	// the tuples derived in the previous iteration until no new
+	// tuples are derived; consumes deltas
+	private void iterate(List<CompiledRule> rules, Map<RelDecl, BDD> deltas) {
+		while (commitDeltas(deltas)) {
+			Map<RelDecl, BDD> newDeltas = new HashMap<RelDecl, BDD>();
+			for (CompiledRule rule : rules) {
+				for (int k : rule.recLitIdxs) {
+					BDD delta = deltas.get(rule.lits[k].atom.rel);
+					if (delta == null)
+						continue;
+					BDD[] srcs = getSrcs(rule, relToBddMap);
+					srcs[k] = delta;
+					addDelta(newDeltas, rule.rule.head.rel, rule.eval(srcs));
+				}
+			}
+			for (BDD delta : deltas.values())
+				delta.free();
+			deltas = newDeltas;
+		}
+	}
+	private static BDD[] getSrcs(CompiledRule rule, Map<RelDecl, BDD> relToBddMap) {
+		BDD[] srcs = new BDD[rule.lits.length];
+		for (int i = 0; i < srcs.length; i++)
+			srcs[i] = relToBddMap.get(rule.lits[i].atom.rel);
+		return srcs;
+	}
+	private static void addDelta(Map<RelDecl, BDD> deltas, RelDecl rel,
+			BDD bdd) {
+		BDD delta = deltas.get(rel);
+		if (delta == null)
+			deltas.put(rel, bdd);
+		else
+			delta.orWith(bdd);
+	}
+	// removes from each delta the tuples already in its relation,
+	// adds the remaining ones to the relation, and returns true iff
+	// any tuple was added
+	private boolean commitDeltas(Map<RelDecl, BDD> deltas) {
+		boolean changed = false;
+		long numAdded = 0;
+		for (Map.Entry<RelDecl, BDD> e : new ArrayList<Map.Entry<RelDecl, BDD>>(deltas.entrySet())) {
+			RelDecl rel = e.getKey();
+			BDD delta = e.getValue();
+			BDD bdd = relToBddMap.get(rel);
+			delta.applyWith(bdd.id(), BDDFactory.diff);
+			if (delta.isZero()) {
+				delta.free();
+				deltas.remove(rel);
+				continue;
+			}
+			bdd.orWith(delta.id());
+			changed = true;
+			if (iterSizes != null)
+				numAdded += (long) delta.satCount(getVarSet(rel));
+		}
+		if (changed && iterSizes != null)
+			iterSizes.add(numAdded);
+		return changed;
+	}
+
+	/*
+	 * Incremental evaluation.
+	 */
+
+	private File getStateDir() {
+		String dirName = System.getProperty("chord.incremental.dir");
+		if (dirName == null || dirName.equals(""))
+			return null;
+		return new File(dirName, new File(program.getFileName()).getName());
+	}
+	// loads the relations saved by the previous run into
+	// relToOldBddMap and returns true iff they are usable
+	private boolean loadState(File stateDir) {
+		File progFile = new File(stateDir, "program.dlog");
+		File domsFile = new File(stateDir, "doms");
+		if (!progFile.exists() || !domsFile.exists())
+			return false;
+		try {
+			if (!readFile(progFile).equals(readFile(new File(program.getFileName()))))
+				return false;
+			for (String line : readFile(domsFile).split("\n")) {
+				String[] kindAndSize = line.split(" ");
+				Dom dom = domKindToDomMap.get(kindAndSize[0]);
+				if (dom == null || dom.size() != Integer.parseInt(kindAndSize[1]))
+					domSizesChanged = true;
+			}
+			for (RelDecl rel : program.getRels()) {
+				File file = new File(stateDir, rel.name + ".bdd.bin");
+				relToOldBddMap.put(rel, BDDBinaryFormat.load(factory,
+					relToDomBddsMap.get(rel), file));
+			}
+		} catch (Exception ex) {
+			// e.g. the number of bits of a domain changed
+			System.err.println("WARNING: Discarding relations of " +
+				program.getFileName() + " saved in '" + stateDir +
+				"': " + ex.getMessage());
+			for (BDD bdd : relToOldBddMap.values())
+				bdd.free();
+			relToOldBddMap.clear();
+			return false;
+		}
+		return true;
+	}
+	private void saveState(File stateDir) {
+		FileUtils.mkdir(stateDir);
+		try {
+			for (RelDecl rel : program.getRels()) {
+				File file = new File(stateDir, rel.name + ".bdd.bin");
+				BDDBinaryFormat.save(factory, relToBddMap.get(rel),
+					relToDomBddsMap.get(rel), file, false);
+			}
+			PrintWriter out = FileUtils.newPrintWriter(
+				new File(stateDir, "doms").getPath());
+			for (Map.Entry<String, Dom> e : domKindToDomMap.entrySet())
+				out.println(e.getKey() + " " + e.getValue().size());
+			out.close();
+			// written last as it validates the rest
+			out = FileUtils.newPrintWriter(
+				new File(stateDir, "program.dlog").getPath());
+			out.print(readFile(new File(program.getFileName())));
+			out.close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	private static String readFile(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			StringBuilder s = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null)
+				s.append(line).append('\n');
+			return s.toString();
+		} finally {
+			in.close();
+		}
+	}
+	// brings all relations from their values in relToOldBddMap to
+	// their values for the input relations in relToBddMap, stratum
+	// by stratum
+	private void solveIncrementally(List<List<Rule>> strata) {
+		// tuples deleted from and inserted into each relation of the
+		// strata processed so far, and each input relation
+		Map<RelDecl, BDD> delMap = new HashMap<RelDecl, BDD>();
+		Map<RelDecl, BDD> insMap = new HashMap<RelDecl, BDD>();
+		int numUnchanged = 0, numMaintained = 0, numRecomputed = 0;
+		try {
+			for (RelDecl rel : program.getRels()) {
+				if (rel.isInput)
+					addChanges(rel, delMap, insMap);
+			}
+			for (List<Rule> stratum : strata) {
+				Set<RelDecl> heads = new HashSet<RelDecl>();
+				for (Rule rule : stratum)
+					heads.add(rule.head.rel);
+				boolean changed = false;
+				boolean recompute = false;
+				for (Rule rule : stratum) {
+					boolean ruleChanged = false;
+					for (Atom atom : rule.body) {
+						if (heads.contains(atom.rel) || !isChanged(atom.rel, delMap, insMap))
+							continue;
+						ruleChanged = true;
+						if (atom.isNegated)
+							recompute = true;
+					}
+					// a rule ranging over a whole domain derives other
+					// tuples once its size changed, even from the same
+					// body relations
+					if (domSizesChanged && usesDomSizes(rule)) {
+						ruleChanged = true;
+						recompute = true;
+					}
+					changed |= ruleChanged;
+				}
+				if (!changed)
+					numUnchanged++;
+				else if (recompute) {
+					numRecomputed++;
+					for (RelDecl rel : heads) {
+						relToBddMap.get(rel).free();
+						relToBddMap.put(rel, factory.zero());
+					}
+					solve(stratum);
+				} else {
+					numMaintained++;
+					maintain(stratum, heads, delMap, insMap);
+				}
+				for (RelDecl rel : heads)
+					addChanges(rel, delMap, insMap);
+			}
+		} finally {
+			for (BDD bdd : delMap.values())
+				bdd.free();
+			for (BDD bdd : insMap.values())
+				bdd.free();
+		}
+		System.out.println("INCREMENTAL: " + program.getFileName() +
+			": strata unchanged: " + numUnchanged + " maintained: " +
+			numMaintained + " recomputed: " + numRecomputed);
+	}
+	private void addChanges(RelDecl rel, Map<RelDecl, BDD> delMap,
+			Map<RelDecl, BDD> insMap) {
+		BDD oldBdd = relToOldBddMap.get(rel);
+		BDD newBdd = relToBddMap.get(rel);
+		delMap.put(rel, oldBdd.apply(newBdd, BDDFactory.diff));
+		insMap.put(rel, newBdd.apply(oldBdd, BDDFactory.diff));
+	}
+	private static boolean isChanged(RelDecl rel, Map<RelDecl, BDD> delMap,
+			Map<RelDecl, BDD> insMap) {
+		BDD del = delMap.get(rel);
+		BDD ins = insMap.get(rel);
+		// relations defined by no rule are empty, hence unchanged
+		return (del != null && !del.isZero()) || (ins != null && !ins.isZero());
+	}
+	// determines whether the tuples derived by the specified rule
+	// depend on the sizes of domains
+	private static boolean usesDomSizes(Rule rule) {
+		Set<String> boundVars = new HashSet<String>();
+		for (Atom atom : rule.body) {
+			if (atom.isNegated)
+				continue;
+			for (String var : atom.vars) {
+				if (var != null)
+					boundVars.add(var);
+			}
+		}
+		Atom head = rule.head;
+		for (int i = 0; i < head.vars.length; i++) {
+			String var = head.vars[i];
+			if (var == null ? head.consts[i] == -1 : !boundVars.contains(var))
+				return true;
+		}
+		return false;
+	}
+	// updates the relations of the specified stratum, none of whose
+	// negated literals refer to a changed relation, by the DRed
+	// algorithm
+	private void maintain(List<Rule> stratum, Set<RelDecl> heads,
+			Map<RelDecl, BDD> delMap, Map<RelDecl, BDD> insMap) {
+		List<CompiledRule> rules = new ArrayList<CompiledRule>();
+		for (Rule rule : stratum)
+			rules.add(new CompiledRule(rule, heads));
+		Map<RelDecl, BDD> overDeleted = new HashMap<RelDecl, BDD>();
+		Profiler.Span span = enterStratum(heads, "maintain");
+		try {
+			// over-delete the tuples having a derivation, on the old
+			// relations, from a deleted tuple
+			Map<RelDecl, BDD> deltas = new HashMap<RelDecl, BDD>();
+			for (CompiledRule rule : rules) {
+				for (int i = 0; i < rule.lits.length; i++) {
+					Atom atom = rule.lits[i].atom;
+					if (atom.isNegated || heads.contains(atom.rel))
+						continue;
+					BDD del = delMap.get(atom.rel);
+					if (del == null || del.isZero())
+						continue;
+					BDD[] srcs = getSrcs(rule, relToOldBddMap);
+					srcs[i] = del;
+					addDelta(deltas, rule.rule.head.rel, rule.eval(srcs));
+				}
+			}
+			while (true) {
+				boolean changed = false;
+				for (Map.Entry<RelDecl, BDD> e : new ArrayList<Map.Entry<RelDecl, BDD>>(deltas.entrySet())) {
+					RelDecl rel = e.getKey();
+					BDD delta = e.getValue();
+					delta.andWith(relToOldBddMap.get(rel).id());
+					BDD deleted = overDeleted.get(rel);
+					if (deleted != null)
+						delta.applyWith(deleted.id(), BDDFactory.diff);
+					if (delta.isZero()) {
+						delta.free();
+						deltas.remove(rel);
+						continue;
+					}
+					if (deleted == null)
+						overDeleted.put(rel, delta.id());
+					else
+						deleted.orWith(delta.id());
+					changed = true;
+				}
+				if (!changed)
+					break;
+				Map<RelDecl, BDD> newDeltas = new HashMap<RelDecl, BDD>();
+				for (CompiledRule rule : rules) {
+					for (int k : rule.recLitIdxs) {
+						BDD delta = deltas.get(rule.lits[k].atom.rel);
+						if (delta == null)
+							continue;
+						BDD[] srcs = getSrcs(rule, relToOldBddMap);
+						srcs[k] = delta;
+						addDelta(newDeltas, rule.rule.head.rel, rule.eval(srcs));
+					}
+				}
+				for (BDD delta : deltas.values())
+					delta.free();
+				deltas = newDeltas;
+			}
+			for (Map.Entry<RelDecl, BDD> e : overDeleted.entrySet())
+				relToBddMap.get(e.getKey()).applyWith(e.getValue().id(), BDDFactory.diff);
+			// re-derive the over-deleted tuples having a derivation on
+			// the remaining relations, and derive tuples from the
+			// inserted ones
+			Map<RelDecl, BDD> seeds = new HashMap<RelDecl, BDD>();
+			for (CompiledRule rule : rules) {
+				RelDecl head = rule.rule.head.rel;
+				BDD deleted = overDeleted.get(head);
+				if (deleted != null) {
+					BDD b = rule.eval(getSrcs(rule, relToBddMap));
+					b.andWith(deleted.id());
+					addDelta(seeds, head, b);
+				}
+				for (int i = 0; i < rule.lits.length; i++) {
+					Atom atom = rule.lits[i].atom;
+					if (atom.isNegated || heads.contains(atom.rel))
+						continue;
+					BDD ins = insMap.get(atom.rel);
+					if (ins == null || ins.isZero())
+						continue;
+					BDD[] srcs = getSrcs(rule, relToBddMap);
+					srcs[i] = ins;
+					addDelta(seeds, head, rule.eval(srcs));
+				}
+			}
+			iterate(rules, seeds);
+		} finally {
+			leaveStratum(span, rules, heads);
+			for (BDD bdd : overDeleted.values())
+				bdd.free();
+			for (CompiledRule rule : rules)
+				rule.free();
+		}
+	}
+
+	/*
+	 * Profiling.
+	 */
+
+	// statistics of a rule over one solving of its stratum
+	private static class RuleStats {
+		int numEvals;
+		long timeNs;
+		// largest BDD computed by an evaluation, including
+		// intermediate results
+		int maxNodes;
+		// tuples derived, including those already in the head
+		long numDerived;
+	}
+	// opens a span for the specified stratum and starts collecting
+	// its statistics if profiling is enabled
+	private Profiler.Span enterStratum(Set<RelDecl> heads, String mode) {
+		if (!Profiler.isEnabled())
+			return null;
+		List<String> names = new ArrayList<String>();
+		for (RelDecl rel : heads)
+			names.add(rel.name);
+		Collections.sort(names);
+		StringBuilder name = new StringBuilder();
+		for (String s : names)
+			name.append(name.length() == 0 ? "" : ",").append(s);
+		Profiler.Span span = Profiler.enter(name.toString(), "stratum");
+		Profiler.put("maintained", mode.equals("maintain") ? 1 : 0);
+		iterSizes = new ArrayList<Long>();
+		return span;
+	}
+	// records the statistics of the specified stratum and of its
+	// rules in the specified span, and closes it
+	private void leaveStratum(Profiler.Span span, List<CompiledRule> rules,
+			Set<RelDecl> heads) {
+		if (span == null)
+			return;
+		long[] sizes = new long[iterSizes.size()];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = iterSizes.get(i);
+		iterSizes = null;
+		long numTuples = 0;
+		long numNodes = 0;
+		for (RelDecl rel : heads) {
+			BDD bdd = relToBddMap.get(rel);
+			numTuples += (long) bdd.satCount(getVarSet(rel));
+			numNodes += bdd.nodeCount();
+		}
+		Profiler.put("iterations", sizes.length);
+		Profiler.put("tuples", numTuples);
+		Profiler.put("nodes", numNodes);
+		Profiler.addEntry("iterations", new String[] { "added" },
+			new Object[] { sizes });
+		for (CompiledRule rule : rules) {
+			RuleStats stats = rule.stats;
+			Profiler.addEntry("rules",
+				new String[] { "line", "rule", "evals", "timeNs",
+					"maxNodes", "derived" },
+				new Object[] { rule.rule.lineNum, rule.rule.toString(),
+					stats.numEvals, stats.timeNs, stats.maxNodes,
+					stats.numDerived });
+		}
+		Profiler.leave(span);
+	}
+	// provides the set of BDD variables of the specified relation
+	private BDD getVarSet(RelDecl rel) {
+		BDD varSet = relToVarSetMap.get(rel);
+		if (varSet == null) {
+			varSet = factory.one();
+			for (BDDDomain d : relToDomBddsMap.get(rel))
+				varSet.andWith(d.set());
+			relToVarSetMap.put(rel, varSet);
+		}
+		return varSet;
+	}
+
+	/*
+	 * Rule compilation.
+	 */
+
+	// a literal of a rule along with the BDD operations that bring a
+	// relation from the domains of its declaration to those of the
+	// variables of the rule
+	private class CompiledLit {
+		final Atom atom;
+		// conjunction of constant arguments, or null
+		BDD consts;
+		// equality of repeated arguments with their first
+		// occurrence, or null
+		BDD eqs;
+		// domains to quantify away after consts and eqs are applied:
+		// those of constants, wildcards and repeated arguments
+		BDD quantified;
+		// renaming of the domains of the remaining arguments to those
+		// of the respective variables, or null
+		BDDPairing pairing;
+		// domains of variables of the rule whose last use is this
+		// literal and that do not occur in the head
+		BDD lastUse;
+		CompiledLit(Atom atom) {
+			this.atom = atom;
+		}
+		BDD apply(BDD rel) {
+			BDD b = rel.id();
+			if (consts != null)
+				b.restrictWith(consts.id());
+			if (eqs != null)
+				b.andWith(eqs.id());
+			if (quantified != null) {
+				BDD t = b.exist(quantified);
+				b.free();
+				b = t;
+			}
+			if (pairing != null)
+				b.replaceWith(pairing);
+			return b;
+		}
+		void free() {
+			if (consts != null)
+				consts.free();
+			if (eqs != null)
+				eqs.free();
+			if (quantified != null)
+				quantified.free();
+			if (pairing != null)
+				pairing.reset();
+			lastUse.free();
+		}
+	}
+	private class CompiledRule {
+		final Rule rule;
+		// body literals, positive ones first
+		final CompiledLit[] lits;
+		// indices in lits of positive literals of relations in the
+		// same stratum as the head
+		final List<Integer> recLitIdxs = new ArrayList<Integer>();
+		final Map<String, BDDDomain> varToDomBddMap =
+			new HashMap<String, BDDDomain>();
+		// full range of head variables not bound by the body, or null
+		BDD unbound;
+		// renaming of head variables to the head's domains, or null
+		BDDPairing headPairing;
+		// equality of repeated head arguments and constant head
+		// arguments, or null
+		BDD headConsts;
+		// statistics of this rule, or null if not profiling
+		final RuleStats stats;
+		CompiledRule(Rule rule, Set<RelDecl> heads) {
+			this.rule = rule;
+			stats = Profiler.isEnabled() ? new RuleStats() : null;
+			List<Atom> atoms = new ArrayList<Atom>();
+			for (Atom atom : rule.body) {
+				if (!atom.isNegated)
+					atoms.add(atom);
+			}
+			for (Atom atom : rule.body) {
+				if (atom.isNegated)
+					atoms.add(atom);
+			}
+			int n = atoms.size();
+			lits = new CompiledLit[n];
+			for (int i = 0; i < n; i++) {
+				Atom atom = atoms.get(i);
+				lits[i] = new CompiledLit(atom);
+				if (!atom.isNegated && heads.contains(atom.rel))
+					recLitIdxs.add(i);
+			}
+			assignDomBdds(atoms);
+			Set<String> headVars = new HashSet<String>();
+			for (String var : rule.head.vars) {
+				if (var != null)
+					headVars.add(var);
+			}
+			Map<String, Integer> varToLastUseMap =
+				new HashMap<String, Integer>();
+			for (int i = 0; i < n; i++) {
+				for (String var : atoms.get(i).vars) {
+					if (var != null)
+						varToLastUseMap.put(var, i);
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				CompiledLit lit = lits[i];
+				compileLit(lit);
+				lit.lastUse = factory.one();
+				for (Map.Entry<String, Integer> e : varToLastUseMap.entrySet()) {
+					String var = e.getKey();
+					if (e.getValue() == i && !headVars.contains(var))
+						lit.lastUse.andWith(varToDomBddMap.get(var).set());
+				}
+			}
+			compileHead(varToLastUseMap.keySet());
+		}
+		// assigns a distinct domain to each variable, preferring
+		// the domain of one of its occurrences, starting with those
+		// in the head so that renaming the head is rarely needed
+		private void assignDomBdds(List<Atom> atoms) {
+			List<Atom> all = new ArrayList<Atom>(atoms.size() + 1);
+			all.add(rule.head);
+			all.addAll(atoms);
+			Set<String> usedDomNames = new HashSet<String>();
+			Map<String, String> varToDomKindMap = new HashMap<String, String>();
+			for (Atom atom : all) {
+				for (int i = 0; i < atom.vars.length; i++) {
+					String var = atom.vars[i];
+					if (var == null || varToDomBddMap.containsKey(var))
+						continue;
+					String domName = atom.rel.domNames[i];
+					varToDomKindMap.put(var, StringUtils.trimNumSuffix(domName));
+					if (usedDomNames.add(domName))
+						varToDomBddMap.put(var, getDomBdd(domName));
+				}
+			}
+			for (Map.Entry<String, String> e : varToDomKindMap.entrySet()) {
+				String var = e.getKey();
+				if (varToDomBddMap.containsKey(var))
+					continue;
+				String domKind = e.getValue();
+				int index = 0;
+				while (usedDomNames.contains(domKind + index))
+					index++;
+				String domName = domKind + index;
+				usedDomNames.add(domName);
+				varToDomBddMap.put(var, getDomBdd(domName));
+			}
+		}
+		private void compileLit(CompiledLit lit) {
+			Atom atom = lit.atom;
+			BDDDomain[] domBdds = relToDomBddsMap.get(atom.rel);
+			Map<String, BDDDomain> firstOcc = new HashMap<String, BDDDomain>();
+			for (int i = 0; i < atom.vars.length; i++) {
+				String var = atom.vars[i];
+				BDDDomain d = domBdds[i];
+				if (var == null) {
+					if (atom.consts[i] != -1) {
+						if (lit.consts == null)
+							lit.consts = factory.one();
+						lit.consts.andWith(d.ithVar(atom.consts[i]));
+					} else {
+						if (lit.quantified == null)
+							lit.quantified = factory.one();
+						lit.quantified.andWith(d.set());
+					}
+					continue;
+				}
+				BDDDomain d2 = firstOcc.get(var);
+				if (d2 != null) {
+					if (lit.eqs == null)
+						lit.eqs = factory.one();
+					lit.eqs.andWith(d.buildEquals(d2));
+					if (lit.quantified == null)
+						lit.quantified = factory.one();
+					lit.quantified.andWith(d.set());
+					continue;
+				}
+				firstOcc.put(var, d);
+				BDDDomain varDomBdd = varToDomBddMap.get(var);
+				if (varDomBdd != d) {
+					if (lit.pairing == null)
+						lit.pairing = factory.makePair();
+					lit.pairing.set(d, varDomBdd);
+				}
+			}
+		}
+		private void compileHead(Set<String> boundVars) {
+			Atom head = rule.head;
+			BDDDomain[] domBdds = relToDomBddsMap.get(head.rel);
+			Map<String, BDDDomain> firstOcc = new HashMap<String, BDDDomain>();
+			for (int i = 0; i < head.vars.length; i++) {
+				String var = head.vars[i];
+				BDDDomain d = domBdds[i];
+				if (var == null) {
+					if (headConsts == null)
+						headConsts = factory.one();
+					if (head.consts[i] != -1)
+						headConsts.andWith(d.ithVar(head.consts[i]));
+					else
+						headConsts.andWith(range(d));
+					continue;
+				}
+				BDDDomain d2 = firstOcc.get(var);
+				if (d2 != null) {
+					if (headConsts == null)
+						headConsts = factory.one();
+					headConsts.andWith(d.buildEquals(d2));
+					continue;
+				}
+				firstOcc.put(var, d);
+				BDDDomain varDomBdd = varToDomBddMap.get(var);
+				if (!boundVars.contains(var)) {
+					if (unbound == null)
+						unbound = factory.one();
+					unbound.andWith(range(varDomBdd));
+				}
+				if (varDomBdd != d) {
+					if (headPairing == null)
+						headPairing = factory.makePair();
+					headPairing.set(varDomBdd, d);
+				}
+			}
+		}
+		private BDD range(BDDDomain d) {
+			return d.varRange(0, getDom(d.getName()).size() - 1);
+		}
+		// evaluates this rule with each literal bound to the
+		// respective relation, yielding the derived tuples over the
+		// domains of the head relation
+		BDD eval(BDD[] srcs) {
+			if (deadlineNs != Long.MAX_VALUE && System.nanoTime() > deadlineNs)
+				throw new DeadlineException();
+			if (stats == null)
+				return doEval(srcs);
+			long t = System.nanoTime();
+			BDD acc = doEval(srcs);
+			stats.timeNs += System.nanoTime() - t;
+			stats.numEvals++;
+			stats.maxNodes = Math.max(stats.maxNodes, acc.nodeCount());
+			stats.numDerived += (long) acc.satCount(getVarSet(rule.head.rel));
+			return acc;
+		}
+		private BDD doEval(BDD[] srcs) {
+			BDD acc = factory.one();
+			for (int i = 0; i < lits.length && !acc.isZero(); i++) {
+				CompiledLit lit = lits[i];
+				BDD b = lit.apply(srcs[i]);
+				if (lit.atom.isNegated) {
+					acc.applyWith(b, BDDFactory.diff);
+					BDD t = acc.exist(lit.lastUse);
+					acc.free();
+					acc = t;
+				} else {
+					BDD t = acc.relprod(b, lit.lastUse);
+					acc.free();
+					b.free();
+					acc = t;
+				}
+				if (stats != null)
+					stats.maxNodes = Math.max(stats.maxNodes, acc.nodeCount());
+			}
+			if (unbound != null)
+				acc.andWith(unbound.id());
+			if (headPairing != null)
+				acc.replaceWith(headPairing);
+			if (headConsts != null)
+				acc.andWith(headConsts.id());
+			return acc;
+		}
+		void free() {
+			for (CompiledLit lit : lits)
+				lit.free();
+			if (unbound != null)
+				unbound.free();
+			if (headPairing != null)
+				headPairing.reset();
+			if (headConsts != null)
+				headConsts.free();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import chord.util.FileUtils;
+import chord.util.StringUtils;
+
+/**
+ * Search for a BDD ordering of the domains of a Datalog program
+ * that minimizes the cost of solving it.
+ * <p>
+ * The program is solved by the embedded solver (see
+ * {@link DlogSolver#measure(long)}) under each candidate ordering,
+ * in a fresh BDD factory, on the input relations and domains saved
+ * in the working directory by a previous run of Chord on a sample or
+ * full program.  The cost of an ordering is either the number of BDD
+ * nodes representing all relations of the program at the fixpoint
+ * or the time taken to solve it.
+ * <p>
+ * Candidates are generated by sifting domains, starting from the
+ * ordering specified by the <tt>.bddvarorder</tt> directive of the
+ * program: each domain in turn is removed from the current ordering
+ * and tried at every position, either on its own or interleaved with
+ * the domains of an existing group, and the cheapest resulting
+ * ordering becomes the current one.  Rounds of sifting are repeated
+ * until a round yields no improvement or the maximum number of
+ * candidates has been evaluated.  Solving under a candidate is
+ * abandoned once it takes several times as long as solving under
+ * the current ordering.
+ * <p>
+ * Each evaluated candidate is reported on a line of the form
+ * <tt>order nodes timeMs</tt> (with <tt>-1</tt> for abandoned
+ * candidates), followed by the best ordering found.
+ */
+public class OrderTuner {
+	// solving under a candidate is abandoned after this many times
+	// the time taken under the current ordering
+	private static final int TIME_FACTOR = 4;
+	private final DlogProgram program;
+	private final Map<String, Dom> domKindToDomMap;
+	private final boolean byTime;
+	private final int maxEvals;
+	private final Map<String, long[]> orderToCostMap =
+		new HashMap<String, long[]>();
+	private PrintWriter report;
+	private long timeLimitNs = Long.MAX_VALUE;
+	/**
+	 * Constructor.
+	 *
+	 * @param	program	The Datalog program whose ordering is tuned.
+	 * @param	domKindToDomMap	A map from the name of each kind of
+	 * 			domain of the program (e.g., T) to that domain.
+	 * @param	metric	The cost of orderings to be minimized: "nodes"
+	 * 			or "time".
+	 * @param	maxEvals	The maximum number of candidate orderings
+	 * 			to be evaluated.
+	 */
+	public OrderTuner(DlogProgram program, Map<String, Dom> domKindToDomMap,
+			String metric, int maxEvals) {
+		if (!metric.equals("nodes") && !metric.equals("time")) {
+			throw new RuntimeException("Metric 'nodes' or 'time' " +
+				"expected; got '" + metric + "'");
+		}
+		this.program = program;
+		this.domKindToDomMap = domKindToDomMap;
+		this.byTime = metric.equals("time");
+		this.maxEvals = maxEvals;
+	}
+	/**
+	 * Searches for the cheapest ordering of the domains of the
+	 * program.
+	 *
+	 * @param	report	A writer to which each evaluated candidate and
+	 * 			its cost is reported.  It may be null.
+	 *
+	 * @return	The cheapest ordering found.
+	 */
+	public String tune(PrintWriter report) {
+		this.report = report;
+		List<List<String>> curr = parse(getInitialOrder());
+		String currStr = toString(curr);
+		// the first solve warms up the JIT and is not comparable
+		if (byTime)
+			measure(currStr);
+		long currCost = getCost(eval(currStr));
+		if (currCost < 0) {
+			throw new RuntimeException("Failed to solve '" +
+				program.getFileName() + "' under ordering '" + currStr +
+				"'.");
+		}
+		boolean improved = true;
+		while (improved && orderToCostMap.size() < maxEvals) {
+			improved = false;
+			List<String> domNames = new ArrayList<String>();
+			for (List<String> group : curr)
+				domNames.addAll(group);
+			for (String domName : domNames) {
+				List<List<String>> base = remove(curr, domName);
+				List<List<List<String>>> cands =
+					new ArrayList<List<List<String>>>();
+				for (int i = 0; i <= base.size(); i++) {
+					List<List<String>> cand = copy(base);
+					List<String> group = new ArrayList<String>();
+					group.add(domName);
+					cand.add(i, group);
+					cands.add(cand);
+				}
+				for (int i = 0; i < base.size(); i++) {
+					List<List<String>> cand = copy(base);
+					cand.get(i).add(domName);
+					cands.add(cand);
+				}
+				for (List<List<String>> cand : cands) {
+					String candStr = toString(cand);
+					if (orderToCostMap.containsKey(candStr))
+						continue;
+					if (orderToCostMap.size() >= maxEvals)
+						break;
+					long cost = getCost(eval(candStr));
+					if (cost >= 0 && cost < currCost) {
+						curr = cand;
+						currStr = candStr;
+						currCost = cost;
+						improved = true;
+					}
+				}
+			}
+		}
+		if (report != null) {
+			report.println("# best");
+			report.println(".bddvarorder " + currStr);
+			report.flush();
+		}
+		return currStr;
+	}
+	private long getCost(long[] cost) {
+		return byTime ? cost[1] : cost[0];
+	}
+	// evaluates the specified ordering once, returning the number of
+	// nodes and the time in milliseconds, both -1 if abandoned
+	private long[] eval(String order) {
+		long[] cost = orderToCostMap.get(order);
+		if (cost != null)
+			return cost;
+		cost = measure(order);
+		orderToCostMap.put(order, cost);
+		System.out.println("ORDER: " + order + " nodes: " + cost[0] +
+			" time: " + cost[1] + "ms");
+		if (report != null) {
+			report.println(order + " " + cost[0] + " " + cost[1]);
+			report.flush();
+		}
+		return cost;
+	}
+	private long[] measure(String order) {
+		BDDManager manager = new BDDManager();
+		manager.setOrder(order);
+		long initNs = System.nanoTime();
+		long deadlineNs = (timeLimitNs == Long.MAX_VALUE) ?
+			Long.MAX_VALUE : initNs + timeLimitNs;
+		int nodes;
+		try {
+			nodes = new DlogSolver(program, manager, domKindToDomMap).
+				measure(deadlineNs);
+		} finally {
+			manager.done();
+		}
+		long timeNs = System.nanoTime() - initNs;
+		if (nodes < 0)
+			return new long[] { -1, -1 };
+		long limit = Math.max(timeNs * TIME_FACTOR, 1000000000L);
+		if (limit < timeLimitNs)
+			timeLimitNs = limit;
+		return new long[] { nodes, timeNs / 1000000 };
+	}
+	// the ordering of the program, extended with its domains absent
+	// from it
+	private String getInitialOrder() {
+		Set<String> domNames = new LinkedHashSet<String>();
+		for (DlogProgram.RelDecl rel : program.getRels()) {
+			for (String domName : rel.domNames)
+				domNames.add(domName);
+		}
+		return program.getSubOrder(domNames.toArray(new String[0]));
+	}
+	private static List<List<String>> parse(String order) {
+		List<List<String>> groups = new ArrayList<List<String>>();
+		for (String group : order.split("_")) {
+			List<String> domNames = new ArrayList<String>();
+			for (String domName : group.split("x"))
+				domNames.add(domName);
+			groups.add(domNames);
+		}
+		return groups;
+	}
+	private static String toString(List<List<String>> groups) {
+		StringBuilder s = new StringBuilder();
+		for (List<String> group : groups) {
+			if (s.length() > 0)
+				s.append('_');
+			for (int i = 0; i < group.size(); i++) {
+				if (i > 0)
+					s.append('x');
+				s.append(group.get(i));
+			}
+		}
+		return s.toString();
+	}
+	private static List<List<String>> copy(List<List<String>> groups) {
+		List<List<String>> copy = new ArrayList<List<String>>(groups.size());
+		for (List<String> group : groups)
+			copy.add(new ArrayList<String>(group));
+		return copy;
+	}
+	private static List<List<String>> remove(List<List<String>> groups,
+			String domName) {
+		List<List<String>> copy = copy(groups);
+		for (int i = 0; i < copy.size(); i++) {
+			List<String> group = copy.get(i);
+			if (group.remove(domName)) {
+				if (group.isEmpty())
+					copy.remove(i);
+				break;
+			}
+		}
+		return copy;
+	}
+	/**
+	 * Tunes the ordering of a Datalog program whose input relations
+	 * and domains are in the working directory.
+	 * <p>
+	 * Usage: <tt>OrderTuner [-metric nodes|time] [-max-evals N]
+	 * [-update] file.dlog</tt>.  The report is saved to file
+	 * <tt>file.order.txt</tt> in the working directory.  If
+	 * <tt>-update</tt> is specified, the <tt>.bddvarorder</tt>
+	 * directive of the program is replaced by the best ordering
+	 * found; since the signatures of the relations of the program
+	 * are derived from it, they follow.
+	 */
+	public static void main(String[] args) {
+		String metric = "nodes";
+		int maxEvals = 200;
+		boolean update = false;
+		String fileName = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-metric") && i + 1 < args.length)
+				metric = args[++i];
+			else if (args[i].equals("-max-evals") && i + 1 < args.length)
+				maxEvals = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-update"))
+				update = true;
+			else if (fileName == null && !args[i].startsWith("-"))
+				fileName = args[i];
+			else {
+				fileName = null;
+				break;
+			}
+		}
+		if (fileName == null) {
+			System.err.println("Usage: OrderTuner [-metric nodes|time] " +
+				"[-max-evals N] [-update] file.dlog");
+			System.exit(1);
+		}
+		DlogProgram program = new DlogProgram(fileName);
+		Map<String, Dom> domKindToDomMap = new HashMap<String, Dom>();
+		for (DlogProgram.RelDecl rel : program.getRels()) {
+			for (String domName : rel.domNames) {
+				String domKind = StringUtils.trimNumSuffix(domName);
+				if (!domKindToDomMap.containsKey(domKind))
+					domKindToDomMap.put(domKind, loadDom(domKind));
+			}
+		}
+		String name = new File(fileName).getName();
+		if (name.endsWith(".dlog"))
+			name = name.substring(0, name.length() - 5);
+		PrintWriter report = FileUtils.newPrintWriter(name + ".order.txt");
+		String order;
+		try {
+			order = new OrderTuner(program, domKindToDomMap, metric,
+				maxEvals).tune(report);
+		} finally {
+			report.close();
+		}
+		System.out.println("BEST ORDER: " + order);
+		if (update)
+			updateOrder(fileName, order);
+	}
+	// a domain having as many values as lines in its map file; the
+	// solver needs only the number of values of each domain
+	private static Dom<Integer> loadDom(String name) {
+		Dom<Integer> dom = new Dom<Integer>();
+		dom.setName(name);
+		try {
+			BufferedReader in = new BufferedReader(
+				new FileReader(name + ".map"));
+			for (int i = 0; in.readLine() != null; i++)
+				dom.set(i);
+			in.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Cannot read domain '" + name +
+				"': " + ex.getMessage());
+		}
+		return dom;
+	}
+	private static void updateOrder(String fileName, String order) {
+		List<String> lines = new ArrayList<String>();
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(fileName));
+			String s;
+			while ((s = in.readLine()) != null) {
+				if (s.trim().startsWith(".bddvarorder"))
+					s = ".bddvarorder " + order;
+				lines.add(s);
+			}
+			in.close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+		PrintWriter out = FileUtils.newPrintWriter(fileName);
+		for (String s : lines)
+			out.println(s);
+		out.close();
+		System.out.println("Updated .bddvarorder of '" + fileName + "'.");
+	}
+}
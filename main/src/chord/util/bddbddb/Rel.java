@@ -17,6 +17,7 @@ import java.util.*;
 import chord.util.tuple.object.*;
 
 import chord.util.Assertions;
+import chord.util.StringUtils;
 
 import java.util.NoSuchElementException;
 
@@ -24,6 +25,7 @@ import net.sf.javabdd.BDD;
 import net.sf.javabdd.BDDDomain;
 import net.sf.javabdd.BDDException;
 import net.sf.javabdd.BDDFactory;
+import net.sf.javabdd.BDDPairing;
 
 /**
  * Generic implementation of a BDD-based relation.
@@ -50,7 +52,8 @@ import net.sf.javabdd.BDDFactory;
  * {@link #add(Object[])} with the argument in each call being a
  * tuple to be added to the relation in memory.  If the tuple
  * already exists in the relation then the call does not have any
- * effect.</li>
+ * effect.  Many tuples can be added at once, and much faster, by
+ * calling {@link #addAll(int[][])}.</li>
  * </ul>
  * </li>
  * <li>The relation built in memory is reflected onto disk by calling
@@ -73,6 +76,14 @@ import net.sf.javabdd.BDDFactory;
  * {@link #close()}.</li>
  * </ul>
  * <p>
+ * The tuples of a relation in memory are stored either in a BDD or
+ * in a {@link TupleTable}, a sorted array of tuples that is cheaper
+ * than a BDD for small or sparse relations; see {@link #getStorage()}.
+ * The relation on disk is always stored as a BDD, so relations stored
+ * either way can be mixed freely.  Operations that have no
+ * counterpart on tables (e.g. {@link #getView()}) first convert the
+ * table of a relation into a BDD.
+ * <p>
  * Note: Much of the BDD-related code in this class is adapted from
  * bddbddb.
  *
@@ -88,6 +99,11 @@ public class Rel {
     protected BDDDomain[] domBdds;
     protected BDD bdd;
     protected BDD iterBdd;
+	protected TupleTable table;
+	// size beyond which table is converted to a BDD, or -1 if none
+	private int tableLimit;
+	// number of tuples added to the BDD of this relation
+	private int numAdded;
     /**
      * Sets the name of this relation.
      * 
@@ -175,36 +191,76 @@ public class Rel {
 		Assertions.Assert(numDoms == doms.length);
 		this.doms = doms;
 	}
+	/**
+	 * Provides the domains of this relation.
+	 *
+	 * @return	The domains of this relation.
+	 */
+	public Dom[] getDoms() {
+		return doms;
+	}
+	/**
+	 * Provides the manager of the BDD factory in which this
+	 * relation is built.
+	 * Subclasses may override this method to share a factory among
+	 * a specific set of relations; by default, all relations share
+	 * the factory of {@link BDDManager#getDefault()}.
+	 *
+	 * @return	The manager of the BDD factory in which this
+	 * 			relation is built.
+	 */
+	public BDDManager getBDDManager() {
+		return BDDManager.getDefault();
+	}
+	/**
+	 * Provides the kind of storage of this relation in memory, one
+	 * of the following:
+	 * <ul>
+	 * <li><tt>bdd</tt>: the relation is stored in a BDD;</li>
+	 * <li><tt>table</tt>: the relation is stored in a
+	 * {@link TupleTable};</li>
+	 * <li><tt>auto</tt>: the relation is stored in a table as long as
+	 * it has at most as many tuples as specified by system property
+	 * <tt>chord.rel.table.limit</tt> (default 10000), and in a BDD
+	 * otherwise.</li>
+	 * </ul>
+	 * Subclasses may override this method; by default, the storage
+	 * is specified by system property <tt>chord.rel.storage</tt>
+	 * (default <tt>bdd</tt>).
+	 *
+	 * @return	The kind of storage of this relation in memory.
+	 */
+	public String getStorage() {
+		return System.getProperty("chord.rel.storage", "bdd");
+	}
+	// returns the size beyond which the table of this relation must
+	// be converted to a BDD, -1 if none, and -2 if this relation must
+	// not be stored in a table
+	private int getTableLimit() {
+		String storage = getStorage();
+		if (storage.equals("bdd"))
+			return -2;
+		if (storage.equals("table"))
+			return -1;
+		if (storage.equals("auto"))
+			return Integer.getInteger("chord.rel.table.limit", 10000);
+		throw new RuntimeException("Unknown storage '" + storage +
+			"' of relation named '" + name + "'.");
+	}
 	protected void initialize() {
 		if (doms == null)
 			throw new RuntimeException("");
-		int bddnodes = Integer.parseInt(
-			System.getProperty("bddnodes", "500000"));
-		int bddcache = Integer.parseInt(
-			System.getProperty("bddcache", "125000"));
-		double bddminfree = Double.parseDouble(
-			System.getProperty("bddminfree", ".20"));
-		factory = BDDFactory.init("java", bddnodes, bddcache);
-		factory.setIncreaseFactor(2);
-		factory.setMinFreeNodes(bddminfree);
+		BDDManager manager = getBDDManager();
+		factory = manager.getFactory();
 		domBdds = new BDDDomain[numDoms];
 		String[] domNames = sign.val0;
-		for (int i = 0; i < numDoms; i++) {
-			String name = domNames[i];
-			int numElems = doms[i].size();
-        	BDDDomain d = factory.extDomain(new long[] { numElems })[0];
-        	d.setName(name);
-			domBdds[i] = d;
-		}
-		boolean reverseLocal = System.getProperty("bddreverse","true").equals("true");
-		int[] order = factory.makeVarOrdering(reverseLocal, sign.val1);
-		factory.setVarOrder(order);
+		for (int i = 0; i < numDoms; i++)
+			domBdds[i] = manager.getDomain(domNames[i], doms[i].size());
 		domIdxs = new int[numDoms];
 		iterBdd = factory.one();
 		for (int i = 0; i < numDoms; i++) {
-			BDDDomain domBdd = domBdds[i]; 
-			domIdxs[i] = domBdd.getIndex();
-			iterBdd = iterBdd.andWith(domBdd.set());
+			domIdxs[i] = i;
+			iterBdd.andWith(domBdds[i].set());
 		}
 	}
 	/**
@@ -221,15 +277,80 @@ public class Rel {
 	 */
 	public void zero() {
 		initialize();
-	    bdd = factory.zero();
+		tableLimit = getTableLimit();
+		if (tableLimit == -2)
+	    	bdd = factory.zero();
+		else
+			table = new TupleTable(numDoms);
+	}
+	/**
+	 * Sets this relation in memory to the empty relation, stored in
+	 * a table whatever its storage (see {@link #getStorage()}) until
+	 * it is first used as a BDD, e.g. when it is saved.  Adding
+	 * tuples to it, as well as querying them, then does not use the
+	 * BDD factory.
+	 */
+	public void zeroInTable() {
+		initialize();
+		tableLimit = -1;
+		table = new TupleTable(numDoms);
 	}
 	/**
 	 * Copies this relation from disk to memory.
+	 * <p>
+	 * The relation is read from file <tt>[name].bdd.bin</tt> in
+	 * binary format (see {@link BDDBinaryFormat}) if that file
+	 * exists and is not older than file <tt>[name].bdd</tt>, and
+	 * from the latter in bddbddb's text format otherwise.  In the
+	 * latter case, if system property <tt>chord.bdd.binary</tt> is
+	 * true, the relation is also written in binary format so that
+	 * subsequent loads avoid parsing the text.
+	 * <p>
+	 * The relation is then converted to a table if its storage
+	 * (see {@link #getStorage()}) so requires.
 	 */
 	public void load() {
 		initialize();
+		File file = new File(name + ".bdd");
+		File binFile = new File(name + ".bdd.bin");
+		if (binFile.exists() && binFile.lastModified() >= file.lastModified()) {
+			try {
+				bdd = BDDBinaryFormat.load(factory, domBdds, binFile);
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		} else {
+			loadText(file);
+			if (isBinaryEnabled())
+				saveBinary(binFile);
+		}
+		tableLimit = getTableLimit();
+		if (tableLimit == -1 || (tableLimit >= 0 && size() <= tableLimit)) {
+			final TupleTable t = new TupleTable(numDoms);
+			forEachTuple(new IntTupleVisitor() {
+				public void visit(int[] idxs) {
+					t.add(idxs);
+				}
+			});
+			bdd.free();
+			bdd = null;
+			table = t;
+		}
+	}
+	private static boolean isBinaryEnabled() {
+		return System.getProperty("chord.bdd.binary", "false").equals("true");
+	}
+	private void saveBinary(File binFile) {
+		boolean compress = System.getProperty(
+			"chord.bdd.binary.compress", "false").equals("true");
+		try {
+			BDDBinaryFormat.save(factory, bdd, domBdds, binFile, compress);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	private void loadText(File file) {
     	try {
-    		File file = new File(name + ".bdd");
     		BufferedReader in = new BufferedReader(new FileReader(file));
 			{
     			String s = in.readLine();
@@ -278,17 +399,33 @@ public class Rel {
 	 * Frees this relation from memory.
 	 */
     public void close() {
-    	if (bdd == null)
+    	if (bdd == null && table == null)
     		throw new RuntimeException("");
-    	factory.done();
-    	bdd = null;
+    	if (bdd != null) {
+    		bdd.free();
+    		bdd = null;
+    	}
+    	table = null;
+    	iterBdd.free();
+    	iterBdd = null;
     }
     /**
      * Copies the relation from memory to disk and frees it from memory.
+     * <p>
+     * The relation is always written to file <tt>[name].bdd</tt> in
+     * bddbddb's text format, so that Datalog programs can read it.
+     * If system property <tt>chord.bdd.binary</tt> is true, it is
+     * also written to file <tt>[name].bdd.bin</tt> in binary format,
+     * gzip-compressed if system property
+     * <tt>chord.bdd.binary.compress</tt> is true; otherwise any
+     * binary file left by a previous run is deleted.
      */
     public void save() {
-    	if (bdd == null)
-    		throw new RuntimeException("");
+    	requireBdd();
+        // the binary file must be written after the text file, so
+        // that load() finds it no older than the latter
+        File binFile = new File(name + ".bdd.bin");
+        binFile.delete();
         try {
             File file = new File(name + ".bdd");
             BufferedWriter out = new BufferedWriter(new FileWriter(file));
@@ -307,12 +444,14 @@ public class Rel {
     	} catch (IOException ex) {
     		throw new RuntimeException(ex);
     	}
+        if (isBinaryEnabled())
+        	saveBinary(binFile);
     	close();
     }
     private BDD makeIterBdd(boolean[] keptDoms) {
    		BDD iterBdd = factory.one();
-   		for (int i = 0; i < keptDoms.length; i++) {
-   			if (keptDoms[i]) {
+   		for (int i = 0; i < numDoms; i++) {
+   			if (keptDoms == null || keptDoms[i]) {
    				iterBdd.andWith(domBdds[i].set());
    			}
    		}
@@ -324,11 +463,10 @@ public class Rel {
      * @author	Mayur Naik (mhn@cs.stanford.edu)
      */
     public class RelView {
-    	private final BDD b;
+    	private BDD b;
     	private final boolean[] keptDoms;
     	public RelView() {
-        	if (bdd == null)
-    			throw new RuntimeException("");
+        	requireBdd();
         	b = bdd.id();
         	keptDoms = new boolean[numDoms];
 			for (int i = 0; i < numDoms; i++)
@@ -560,6 +698,17 @@ public class Rel {
     	public AryNIterable getAryNValTuples() {
     		return new AryNIterable(b, keptDoms);
     	}
+    	/**
+    	 * Calls the specified visitor on each tuple in this view.
+    	 *
+    	 * @param	visitor	The visitor to be called on each tuple in
+    	 * 			this view; see {@link Rel#forEachTuple(IntTupleVisitor)}.
+    	 * 			The tuples passed to it consist of the indices of
+    	 * 			the values in the domains not deleted from this view.
+    	 */
+    	public void forEachTuple(IntTupleVisitor visitor) {
+    		walkTuples(b, keptDoms, visitor);
+    	}
     	/**
     	 * Frees this view.
     	 */
@@ -585,15 +734,21 @@ public class Rel {
     	}
     	public void delete(int domIdx) {
 			Assertions.Assert(keptDoms[domIdx]);
-    		b.exist(domBdds[domIdx].set());
+    		exist(domIdx);
     		keptDoms[domIdx] = false;
     	}
+    	// quantifies the given domain away from this view
+    	private void exist(int domIdx) {
+    		BDD t = b.exist(domBdds[domIdx].set());
+    		b.free();
+    		b = t;
+    	}
     	public void selectAndDelete(int domIdx, Object val) {
 			Assertions.Assert(keptDoms[domIdx]);
     		try {
     			int idx = doms[domIdx].get(val);
     			b.restrictWith(domBdds[domIdx].ithVar(idx));
-    			b.exist(domBdds[domIdx].set());
+    			exist(domIdx);
     			keptDoms[domIdx] = false;
     		} catch (BDDException ex) {
     			checkRange(val, domIdx);
@@ -603,7 +758,7 @@ public class Rel {
 			Assertions.Assert(keptDoms[domIdx]);
     		try {
     			b.restrictWith(domBdds[domIdx].ithVar(idx));
-    			b.exist(domBdds[domIdx].set());
+    			exist(domIdx);
     			keptDoms[domIdx] = false;
     		} catch (BDDException ex) {
     			checkRange(idx, domIdx);
@@ -649,13 +804,62 @@ public class Rel {
     			" in relation named '" + name + "'.");
     	}
     }
+	// checks that idx is in range of the domain at domIdx
+	private void checkIdx(int idx, int domIdx) {
+		if (idx < 0 || idx >= doms[domIdx].size()) {
+			checkRange(idx, domIdx);
+			throw new RuntimeException("Value has negative " +
+				"index " + idx + " in domain #" + domIdx + " named '" +
+				doms[domIdx] + "' in relation named '" + name + "'.");
+		}
+	}
+	// returns the indices of the specified values, checked to be in
+	// range of the respective domains
+	private int[] toIdxs(Object... vals) {
+		int[] idxs = new int[vals.length];
+		for (int i = 0; i < vals.length; i++) {
+			checkRange(vals[i], i);
+			idxs[i] = doms[i].get(vals[i]);
+		}
+		return idxs;
+	}
+	// lets the BDD variables be reordered, which may only happen
+	// between BDD operations, every so many tuples added
+	private void checkReorder() {
+		if ((++numAdded & 1023) == 0)
+			getBDDManager().checkReorder(bdd);
+	}
+	// converts the table of this relation, if any, into a BDD if it
+	// has outgrown the limit of its storage
+	private void checkTableSize() {
+		// duplicates are only removed by size(), so it is called
+		// once the table has grown well beyond the limit
+		if (tableLimit >= 0 && table.numRows() > 2 * tableLimit &&
+				table.size() > tableLimit)
+			toBdd();
+	}
+	// converts the table of this relation, if any, into a BDD
+	private void toBdd() {
+		if (table == null)
+			return;
+		int[][] tuples = table.toArray();
+		table = null;
+		bdd = factory.zero();
+		orTuples(tuples);
+	}
+	// ensures that this relation is in memory and stored in a BDD
+	private void requireBdd() {
+		toBdd();
+		if (bdd == null)
+			throw new RuntimeException("");
+	}
     /**
      * Determines whether the relation in memory is initialized.
      * 
      * @return	true iff the relation in memory is initialized.
      */
 	public boolean isOpen() {
-		return bdd != null;
+		return bdd != null || table != null;
 	}
 	/**
 	 * Provides the size of the relation.
@@ -663,10 +867,143 @@ public class Rel {
 	 * @return	The size of the relation.
 	 */
 	public int size() {
+		if (table != null)
+			return table.size();
 		if (bdd == null)
 			throw new RuntimeException("");
 		return (int) bdd.satCount(iterBdd);
 	}
+	/**
+	 * Provides the number of BDD nodes used by the relation.
+	 * 
+	 * @return	The number of BDD nodes used by the relation.
+	 */
+	public int nodeCount() {
+		requireBdd();
+		return bdd.nodeCount();
+	}
+	/**
+	 * Visitor of the tuples of a relation, with each tuple given as
+	 * the indices of its values in the respective domains.
+	 */
+	public static interface IntTupleVisitor {
+		/**
+		 * Visits a tuple.
+		 *
+		 * @param	idxs	The indices of the values in the tuple.
+		 * 			The same array is passed on every call and
+		 * 			overwritten after the call returns, so it must
+		 * 			be copied if it is to be retained.
+		 */
+		public void visit(int[] idxs);
+	}
+	/**
+	 * Calls the specified visitor on each tuple in the relation.
+	 * <p>
+	 * Unlike the iterators provided by methods such as
+	 * {@link #getAry2ValTuples()}, this method does not allocate any
+	 * object per tuple: it walks the BDD of the relation once,
+	 * decoding the indices of each tuple into a single reused array.
+	 * Tuples are visited in the BDD variable order of the relation's
+	 * domains, which is generally not their numerical order, unless
+	 * the relation is stored in a table, in which case they are
+	 * visited in lexicographic order.
+	 *
+	 * @param	visitor	The visitor to be called on each tuple in
+	 * 			the relation.
+	 */
+	public void forEachTuple(IntTupleVisitor visitor) {
+		if (table != null) {
+			table.forEachTuple(visitor);
+			return;
+		}
+		if (bdd == null)
+			throw new RuntimeException("");
+		walkTuples(bdd, null, visitor);
+	}
+	private void walkTuples(BDD b, boolean[] keptDoms,
+			IntTupleVisitor visitor) {
+		int[] bufIdxs = new int[numDoms];
+		int numKeptDoms = 0;
+		for (int i = 0; i < numDoms; i++) {
+			if (keptDoms == null || keptDoms[i])
+				bufIdxs[i] = numKeptDoms++;
+			else
+				bufIdxs[i] = -1;
+		}
+		int numVars = 0;
+		for (int i = 0; i < numDoms; i++) {
+			if (bufIdxs[i] != -1)
+				numVars += domBdds[i].varNum();
+		}
+		// sort the variables of the kept domains by level, keeping
+		// the domain and bit (within the domain) of each of them
+		long[] levelKeys = new long[numVars];
+		for (int i = 0, k = 0; i < numDoms; i++) {
+			if (bufIdxs[i] == -1)
+				continue;
+			int[] ivar = domBdds[i].vars();
+			for (int j = 0; j < ivar.length; j++) {
+				long level = factory.var2Level(ivar[j]);
+				levelKeys[k++] = (level << 32) | (i << 16) | j;
+			}
+		}
+		Arrays.sort(levelKeys);
+		TupleWalker walker = new TupleWalker(numVars, numKeptDoms, visitor);
+		for (int k = 0; k < numVars; k++) {
+			long key = levelKeys[k];
+			int i = (int) ((key >> 16) & 0xFFFF);
+			walker.levels[k] = (int) (key >> 32);
+			walker.bufIdxs[k] = bufIdxs[i];
+			walker.masks[k] = 1 << (int) (key & 0xFFFF);
+		}
+		walker.walk(b, 0);
+	}
+	private static class TupleWalker {
+		final int[] levels;
+		final int[] bufIdxs;
+		final int[] masks;
+		final int[] buf;
+		final IntTupleVisitor visitor;
+		public TupleWalker(int numVars, int numKeptDoms,
+				IntTupleVisitor visitor) {
+			levels = new int[numVars];
+			bufIdxs = new int[numVars];
+			masks = new int[numVars];
+			buf = new int[numKeptDoms];
+			this.visitor = visitor;
+		}
+		// visits each tuple of node, whose bits for variables
+		// levels[0..k) are already set in buf
+		public void walk(BDD node, int k) {
+			if (node.isZero())
+				return;
+			if (k == levels.length) {
+				Assertions.Assert(node.isOne());
+				visitor.visit(buf);
+				return;
+			}
+			int i = bufIdxs[k];
+			int mask = masks[k];
+			if (node.isOne() || node.level() > levels[k]) {
+				// variable at level levels[k] is a don't-care
+				buf[i] &= ~mask;
+				walk(node, k + 1);
+				buf[i] |= mask;
+				walk(node, k + 1);
+				return;
+			}
+			Assertions.Assert(node.level() == levels[k]);
+			BDD lo = node.low();
+			buf[i] &= ~mask;
+			walk(lo, k + 1);
+			lo.free();
+			BDD hi = node.high();
+			buf[i] |= mask;
+			walk(hi, k + 1);
+			hi.free();
+		}
+	}
     /**
      * Iterator that returns all satisfying assignments as byte arrays.
      * In the byte arrays, -1 means dont-care, 0 means 0, and 1 means 1.
@@ -759,7 +1096,36 @@ public class Rel {
 		}
     }
 
-    private class BDDIterator implements Iterator {
+    // iterator over the tuples of a relation, each given as the
+    // indices of its values in all domains of the relation
+    private interface TupleIterator {
+        public boolean hasNext();
+        public int[] nextTuple2();
+    }
+
+    private class TableIterator implements TupleIterator {
+        private final TupleTable table;
+        private final int numRows;
+        private int row;
+        public TableIterator(TupleTable table) {
+            this.table = table;
+            numRows = table.size();
+        }
+        public boolean hasNext() {
+            return row < numRows;
+        }
+        public int[] nextTuple2() {
+            if (row == numRows)
+                throw new NoSuchElementException();
+            int[] result = new int[numDoms];
+            for (int i = 0; i < numDoms; i++)
+                result[i] = table.get(row, i);
+            row++;
+            return result;
+        }
+    }
+
+    private class BDDIterator implements Iterator, TupleIterator {
         final AllSatIterator i;
         // Reference to the initial BDD object, used to support the remove() operation.
         final BDD initialBDD;
@@ -883,9 +1249,9 @@ public class Rel {
                 throw new NoSuchElementException();
             }
             lastReturned = null;
-            int[] result = new int[factory.numberOfDomains()];
+            int[] result = new int[numDoms];
             for (int i = 0; i < result.length; ++i) {
-                BDDDomain dom = factory.getDomain(i);
+                BDDDomain dom = domBdds[i];
                 int[] ivar = dom.vars();
                 int val = 0;
                 for (int m = dom.varNum() - 1; m >= 0; m--) {
@@ -916,9 +1282,9 @@ public class Rel {
          */
         public int[] nextTuple2() {
             boolean[] store = nextSat();
-            int[] result = new int[factory.numberOfDomains()];
+            int[] result = new int[numDoms];
             for (int i = 0; i < result.length; ++i) {
-                BDDDomain dom = factory.getDomain(i);
+                BDDDomain dom = domBdds[i];
                 int[] ivar = dom.vars();
                 int val = 0;
                 for (int m = dom.varNum() - 1; m >= 0; m--) {
@@ -980,10 +1346,13 @@ public class Rel {
 
 	private abstract class ValTuplesIterable<T> implements Iterable<T> {
     	protected final BDD bdd;
+    	protected final TupleTable table;
     	protected final BDD iterBdd;
     	protected final int[] domIdxs;
+		// a null bdd denotes the table of the relation
    	 	public ValTuplesIterable(BDD bdd, boolean[] keptDoms) {
         	this.bdd = bdd;
+			table = (bdd == null) ? Rel.this.table : null;
 			if (keptDoms == null) {
 				iterBdd = Rel.this.iterBdd;
 				domIdxs = Rel.this.domIdxs;
@@ -1003,12 +1372,17 @@ public class Rel {
     			}
 			}
     	}
+		protected TupleIterator newTupleIterator() {
+			if (table != null)
+				return new TableIterator(table);
+			return new BDDIterator(bdd, iterBdd);
+		}
 	};
 
 	public abstract class ValTuplesIterator<T> implements Iterator<T> {
-    	protected final BDDIterator it;
+    	protected final TupleIterator it;
     	protected final int[] domIdxs;
-  		public ValTuplesIterator(BDDIterator it, int[] domIdxs) {
+  		public ValTuplesIterator(TupleIterator it, int[] domIdxs) {
         	this.it = it;
         	this.domIdxs = domIdxs;
     	}
@@ -1025,7 +1399,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<T> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<T>(it, domIdxs) {
     			public T next() {
 					int[] tuple = it.nextTuple2();
@@ -1043,7 +1417,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Pair<T0,T1>> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Pair<T0,T1>>(it, domIdxs) {
     			public Pair<T0,T1> next() {
         			int[] tuple = it.nextTuple2();
@@ -1064,7 +1438,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Trio<T0,T1,T2>> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Trio<T0,T1,T2>>(it, domIdxs) {
     			public Trio<T0,T1,T2> next() {
 	        		int[] tuple = it.nextTuple2();
@@ -1088,7 +1462,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Quad<T0,T1,T2,T3>> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Quad<T0,T1,T2,T3>>(it, domIdxs) {
     			public Quad<T0,T1,T2,T3> next() {
 					int[] tuple = it.nextTuple2();
@@ -1115,7 +1489,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Pent<T0,T1,T2,T3,T4>> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Pent<T0,T1,T2,T3,T4>>(it, domIdxs) {
     			public Pent<T0,T1,T2,T3,T4> next() {
 					int[] tuple = it.nextTuple2();
@@ -1145,7 +1519,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Hext<T0,T1,T2,T3,T4,T5>> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Hext<T0,T1,T2,T3,T4,T5>>(it, domIdxs) {
     			public Hext<T0,T1,T2,T3,T4,T5> next() {
 					int[] tuple = it.nextTuple2();
@@ -1178,7 +1552,7 @@ public class Rel {
        		super(bdd, keptDoms);
     	}
     	public Iterator<Object[]> iterator() {
-       		BDDIterator it = new BDDIterator(bdd, iterBdd);
+       		TupleIterator it = newTupleIterator();
        	 	return new ValTuplesIterator<Object[]>(it, domIdxs) {
     			public Object[] next() {
 					int numDoms = domIdxs.length;
@@ -1196,32 +1570,357 @@ public class Rel {
 		}
 	};
 
+	/*
+	 * Relational operations.
+	 *
+	 * Each of them builds a new relation in memory from relations
+	 * in memory; the domains of the relations are identified by
+	 * their names (e.g., V0, H0).  The new relation has no name; a
+	 * name must be set on it before calling save() on it.  It must
+	 * be freed from memory by calling close() on it.
+	 */
+
+	/**
+	 * Provides the natural join of this relation with the specified
+	 * relation, i.e., the relation over the domains of this relation
+	 * followed by those of the specified relation absent from this
+	 * relation.
+	 *
+	 * @param	that	The relation to be joined with this relation.
+	 *
+	 * @return	The natural join of this and the specified relation.
+	 * 			It is stored in a table if both relations are, and in
+	 * 			a BDD otherwise.
+	 */
+	public Rel join(Rel that) {
+		List<Integer> thatIdxs = new ArrayList<Integer>();
+		for (int j = 0; j < that.numDoms; j++) {
+			if (getDomIdx(that.sign.val0[j]) == -1)
+				thatIdxs.add(j);
+		}
+		if (table != null && that.table != null) {
+			// hash join of the tables
+			int numCommon = that.numDoms - thatIdxs.size();
+			int[] cols = new int[numCommon];
+			int[] thatCols = new int[numCommon];
+			for (int j = 0, k = 0; j < that.numDoms; j++) {
+				int i = getDomIdx(that.sign.val0[j]);
+				if (i != -1) {
+					cols[k] = i;
+					thatCols[k] = j;
+					k++;
+				}
+			}
+			int[] outCols = new int[thatIdxs.size()];
+			for (int k = 0; k < outCols.length; k++)
+				outCols[k] = thatIdxs.get(k);
+			Rel r = newRel(that, allIdxs(), thatIdxs, null);
+			r.table = TupleTable.join(table, cols, that.table, thatCols,
+				outCols);
+			r.tableLimit = -1;
+			return r;
+		}
+		checkCompatible(that);
+		return newRel(that, allIdxs(), thatIdxs, bdd.and(that.bdd));
+	}
+	/**
+	 * Provides the image of this relation under the specified
+	 * relation, i.e., the natural join of the two relations with
+	 * the domains common to both projected away.  It is computed by
+	 * a single relational product, without building the join.
+	 * <p>
+	 * For instance, the image of a relation over [H0] under a
+	 * relation over [H0,F0,H1] is a relation over [F0,H1].
+	 *
+	 * @param	that	The relation under which the image of this
+	 * 			relation is to be computed.
+	 *
+	 * @return	The image of this relation under the specified
+	 * 			relation.
+	 */
+	public Rel image(Rel that) {
+		checkCompatible(that);
+		List<Integer> thisIdxs = new ArrayList<Integer>();
+		BDD common = factory.one();
+		for (int i = 0; i < numDoms; i++) {
+			if (that.getDomIdx(sign.val0[i]) == -1)
+				thisIdxs.add(i);
+			else
+				common.andWith(domBdds[i].set());
+		}
+		List<Integer> thatIdxs = new ArrayList<Integer>();
+		for (int j = 0; j < that.numDoms; j++) {
+			if (getDomIdx(that.sign.val0[j]) == -1)
+				thatIdxs.add(j);
+		}
+		if (thisIdxs.isEmpty() && thatIdxs.isEmpty()) {
+			common.free();
+			throw new RuntimeException("Image of relation '" + name +
+				"' under relation '" + that.name + "' has no domains.");
+		}
+		BDD b = bdd.relprod(that.bdd, common);
+		common.free();
+		return newRel(that, thisIdxs, thatIdxs, b);
+	}
+	/**
+	 * Provides the projection of this relation onto the specified
+	 * domains.
+	 *
+	 * @param	domNames	The names of the domains of this relation
+	 * 			to be kept, in the order in which they must appear
+	 * 			in the projection.
+	 *
+	 * @return	The projection of this relation onto the specified
+	 * 			domains.
+	 */
+	public Rel project(String... domNames) {
+		requireBdd();
+		Assertions.Assert(domNames.length > 0);
+		List<Integer> keptIdxs = new ArrayList<Integer>();
+		for (String domName : domNames)
+			keptIdxs.add(getExistingDomIdx(domName));
+		BDD removed = factory.one();
+		for (int i = 0; i < numDoms; i++) {
+			if (!keptIdxs.contains(i))
+				removed.andWith(domBdds[i].set());
+		}
+		BDD b = bdd.exist(removed);
+		removed.free();
+		return newRel(null, keptIdxs, new ArrayList<Integer>(0), b);
+	}
+	/**
+	 * Provides a copy of this relation in which the specified domain
+	 * is renamed, e.g., from H0 to H1.  The BDD variables of the old
+	 * domain are replaced by those of the new one, which is allocated
+	 * in the shared factory if necessary.
+	 *
+	 * @param	oldDomName	The name of a domain of this relation.
+	 * @param	newDomName	The new name of that domain.  It must have
+	 * 			the same major component as the old name and must
+	 * 			not be the name of another domain of this relation.
+	 *
+	 * @return	A copy of this relation with the specified domain
+	 * 			renamed.
+	 */
+	public Rel rename(String oldDomName, String newDomName) {
+		requireBdd();
+		int i = getExistingDomIdx(oldDomName);
+		Assertions.Assert(getDomIdx(newDomName) == -1);
+		Assertions.Assert(StringUtils.trimNumSuffix(oldDomName).equals(
+			StringUtils.trimNumSuffix(newDomName)));
+		BDDDomain newDomBdd =
+			getBDDManager().getDomain(newDomName, doms[i].size());
+		BDDPairing pair = factory.makePair(domBdds[i], newDomBdd);
+		BDD b = bdd.replace(pair);
+		pair.reset();
+		Rel r = newRel(null, allIdxs(), new ArrayList<Integer>(0), b);
+		r.sign.val0[i] = newDomName;
+		r.sign = new RelSign(r.sign.val0, makeDomOrder(r.sign.val0));
+		r.domBdds[i] = newDomBdd;
+		r.iterBdd.free();
+		r.iterBdd = r.makeIterBdd(null);
+		return r;
+	}
+	/**
+	 * Provides the union of this relation with the specified
+	 * relation, which must have the same domains as this relation,
+	 * possibly in a different order.
+	 *
+	 * @param	that	The relation to be united with this relation.
+	 *
+	 * @return	The union of this and the specified relation.
+	 */
+	public Rel union(Rel that) {
+		checkSameDoms(that);
+		return newRel(null, allIdxs(), new ArrayList<Integer>(0),
+			bdd.or(that.bdd));
+	}
+	/**
+	 * Provides the difference of this relation and the specified
+	 * relation, which must have the same domains as this relation,
+	 * possibly in a different order.
+	 *
+	 * @param	that	The relation to be subtracted from this
+	 * 			relation.
+	 *
+	 * @return	The difference of this and the specified relation.
+	 */
+	public Rel difference(Rel that) {
+		checkSameDoms(that);
+		BDD notThat = that.bdd.not();
+		BDD b = bdd.and(notThat);
+		notThat.free();
+		return newRel(null, allIdxs(), new ArrayList<Integer>(0), b);
+	}
+	private int getDomIdx(String domName) {
+		for (int i = 0; i < numDoms; i++) {
+			if (sign.val0[i].equals(domName))
+				return i;
+		}
+		return -1;
+	}
+	private int getExistingDomIdx(String domName) {
+		int i = getDomIdx(domName);
+		if (i == -1) {
+			throw new RuntimeException("Domain named '" + domName +
+				"' not found in relation named '" + name + "'.");
+		}
+		return i;
+	}
+	private List<Integer> allIdxs() {
+		List<Integer> idxs = new ArrayList<Integer>(numDoms);
+		for (int i = 0; i < numDoms; i++)
+			idxs.add(i);
+		return idxs;
+	}
+	private void checkCompatible(Rel that) {
+		requireBdd();
+		that.requireBdd();
+		if (factory != that.factory) {
+			throw new RuntimeException("Relations named '" + name +
+				"' and '" + that.name + "' are not in the same factory.");
+		}
+		for (int i = 0; i < numDoms; i++) {
+			int j = that.getDomIdx(sign.val0[i]);
+			if (j != -1 && domBdds[i] != that.domBdds[j]) {
+				throw new RuntimeException("Domain named '" +
+					sign.val0[i] + "' differs in relations named '" +
+					name + "' and '" + that.name + "'.");
+			}
+		}
+	}
+	private void checkSameDoms(Rel that) {
+		checkCompatible(that);
+		boolean same = (numDoms == that.numDoms);
+		for (int i = 0; same && i < numDoms; i++)
+			same = (that.getDomIdx(sign.val0[i]) != -1);
+		if (!same) {
+			throw new RuntimeException("Relations named '" + name +
+				"' and '" + that.name + "' have different domains.");
+		}
+	}
+	// builds a relation over the domains at the specified indices of
+	// this relation followed by those at the specified indices of
+	// the specified relation
+	private Rel newRel(Rel that, List<Integer> thisIdxs,
+			List<Integer> thatIdxs, BDD b) {
+		int n = thisIdxs.size() + thatIdxs.size();
+		String[] domNames = new String[n];
+		Dom[] newDoms = new Dom[n];
+		BDDDomain[] newDomBdds = new BDDDomain[n];
+		int k = 0;
+		for (int i : thisIdxs) {
+			domNames[k] = sign.val0[i];
+			newDoms[k] = doms[i];
+			newDomBdds[k] = domBdds[i];
+			k++;
+		}
+		for (int j : thatIdxs) {
+			domNames[k] = that.sign.val0[j];
+			newDoms[k] = that.doms[j];
+			newDomBdds[k] = that.domBdds[j];
+			k++;
+		}
+		Rel r = new DerivedRel(getBDDManager());
+		r.setSign(domNames, makeDomOrder(domNames));
+		r.setDoms(newDoms);
+		r.factory = factory;
+		r.domBdds = newDomBdds;
+		r.domIdxs = new int[n];
+		for (int i = 0; i < n; i++)
+			r.domIdxs[i] = i;
+		r.iterBdd = r.makeIterBdd(null);
+		r.bdd = b;
+		return r;
+	}
+	// BDD ordering of the specified domain names consistent with the
+	// global ordering of the shared factory
+	private String makeDomOrder(String[] domNames) {
+		List<String> names = new ArrayList<String>(Arrays.asList(domNames));
+		StringBuilder order = new StringBuilder();
+		String globalOrder = getBDDManager().getOrder();
+		if (globalOrder != null) {
+			for (String group : globalOrder.split("_")) {
+				StringBuilder groupOrder = new StringBuilder();
+				for (String domName : group.split("x")) {
+					if (names.remove(domName)) {
+						if (groupOrder.length() > 0)
+							groupOrder.append('x');
+						groupOrder.append(domName);
+					}
+				}
+				if (groupOrder.length() > 0) {
+					if (order.length() > 0)
+						order.append('_');
+					order.append(groupOrder);
+				}
+			}
+		}
+		for (String domName : names) {
+			if (order.length() > 0)
+				order.append('_');
+			order.append(domName);
+		}
+		return order.toString();
+	}
+	// relation built by a relational operation, which stays in the
+	// factory of the relations it was built from
+	private static class DerivedRel extends Rel {
+		private final BDDManager manager;
+		public DerivedRel(BDDManager manager) {
+			this.manager = manager;
+		}
+		public BDDManager getBDDManager() {
+			return manager;
+		}
+		public String getStorage() {
+			return (table != null) ? "table" : "bdd";
+		}
+	}
+
 	/*
 	 * Ary1Rel operations.
 	 */
 
 	public <T0> void add(T0 val0) {
+		if (table != null) {
+			table.add(toIdxs(val0));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
 		try {
 			bdd.orWith(domBdds[0].ithVar(idx0));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			throw new RuntimeException(ex);
 		}
 	}
 	public void add(int idx0) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			table.add(idx0);
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
 			bdd.orWith(domBdds[0].ithVar(idx0));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			throw new RuntimeException(ex);
 		}
 	}
 	public <T0> void remove(T0 val0) {
+		if (table != null) {
+			table.remove(toIdxs(val0));
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1233,6 +1932,11 @@ public class Rel {
 		}
 	}
 	public void remove(int idx0) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			table.remove(new int[] { idx0 });
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1243,6 +1947,9 @@ public class Rel {
 		}
 	}
 	public <T0> boolean contains(T0 val0) {
+		if (table != null) {
+			return table.contains(toIdxs(val0));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1254,6 +1961,10 @@ public class Rel {
 		}
 	}
 	public boolean contains(int idx0) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			return table.contains(idx0);
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1264,7 +1975,7 @@ public class Rel {
 		}
 	}
 	public <T0> Iterable<T0> getAry1ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new SelfIterable<T0>(bdd, null);
 	}
@@ -1274,6 +1985,11 @@ public class Rel {
 	 */
 	
 	public <T0,T1> void add(T0 val0, T1 val1) {
+		if (table != null) {
+			table.add(toIdxs(val0, val1));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1282,6 +1998,7 @@ public class Rel {
 			bdd.orWith(
 				domBdds[0].ithVar(idx0).andWith(
 				domBdds[1].ithVar(idx1)));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			checkRange(val1, 1);
@@ -1289,12 +2006,20 @@ public class Rel {
 		}
 	}
 	public void add(int idx0, int idx1) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			table.add(idx0, idx1);
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
 			bdd.orWith(
 				domBdds[0].ithVar(idx0).andWith(
 				domBdds[1].ithVar(idx1)));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			checkRange(idx1, 1);
@@ -1302,6 +2027,10 @@ public class Rel {
 		}
 	}
 	public <T0,T1> void remove(T0 val0, T1 val1) {
+		if (table != null) {
+			table.remove(toIdxs(val0, val1));
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1317,6 +2046,12 @@ public class Rel {
 		}
 	}
 	public void remove(int idx0, int idx1) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			table.remove(new int[] { idx0, idx1 });
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1330,6 +2065,9 @@ public class Rel {
 		}
 	}
 	public <T0,T1> boolean contains(T0 val0, T1 val1) {
+		if (table != null) {
+			return table.contains(toIdxs(val0, val1));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1345,6 +2083,11 @@ public class Rel {
         }
 	}
 	public boolean contains(int idx0, int idx1) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			return table.contains(idx0, idx1);
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
         try {
@@ -1358,7 +2101,7 @@ public class Rel {
         }
 	}
 	public <T0,T1> PairIterable<T0,T1> getAry2ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new PairIterable<T0,T1>(bdd, null);
 	}
@@ -1368,6 +2111,11 @@ public class Rel {
 	 */
 	
 	public <T0,T1,T2> void add(T0 val0, T1 val1, T2 val2) {
+		if (table != null) {
+			table.add(toIdxs(val0, val1, val2));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1378,6 +2126,7 @@ public class Rel {
 				domBdds[0].ithVar(idx0).andWith(
 				domBdds[1].ithVar(idx1).andWith(
 				domBdds[2].ithVar(idx2))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			checkRange(val1, 1);
@@ -1386,6 +2135,14 @@ public class Rel {
 		}
 	}
 	public void add(int idx0, int idx1, int idx2) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			checkIdx(idx2, 2);
+			table.add(idx0, idx1, idx2);
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1393,6 +2150,7 @@ public class Rel {
 				domBdds[0].ithVar(idx0).andWith(
 				domBdds[1].ithVar(idx1).andWith(
 				domBdds[2].ithVar(idx2))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			checkRange(idx1, 1);
@@ -1401,6 +2159,9 @@ public class Rel {
 		}
 	}
 	public <T0,T1,T2> boolean contains(T0 val0, T1 val1, T2 val2) {
+		if (table != null) {
+			return table.contains(toIdxs(val0, val1, val2));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1419,7 +2180,7 @@ public class Rel {
 		}
 	}
 	public <T0,T1,T2> TrioIterable<T0,T1,T2> getAry3ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new TrioIterable<T0,T1,T2>(bdd, null);
 	}
@@ -1429,6 +2190,11 @@ public class Rel {
 	 */
 	
 	public <T0,T1,T2,T3> void add(T0 val0, T1 val1, T2 val2, T3 val3) {
+		if (table != null) {
+			table.add(toIdxs(val0, val1, val2, val3));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1441,6 +2207,7 @@ public class Rel {
 				domBdds[1].ithVar(idx1).andWith(
 				domBdds[2].ithVar(idx2).andWith(
 				domBdds[3].ithVar(idx3)))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			checkRange(val1, 1);
@@ -1450,6 +2217,15 @@ public class Rel {
 		}
 	}
 	public void add(int idx0, int idx1, int idx2, int idx3) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			checkIdx(idx2, 2);
+			checkIdx(idx3, 3);
+			table.add(new int[] { idx0, idx1, idx2, idx3 });
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1458,6 +2234,7 @@ public class Rel {
 				domBdds[1].ithVar(idx1).andWith(
 				domBdds[2].ithVar(idx2).andWith(
 				domBdds[3].ithVar(idx3)))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			checkRange(idx1, 1);
@@ -1467,6 +2244,9 @@ public class Rel {
 		}
 	}
 	public <T0,T1,T2,T3> boolean contains(T0 val0, T1 val1, T2 val2, T3 val3) {
+		if (table != null) {
+			return table.contains(toIdxs(val0, val1, val2, val3));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1488,7 +2268,7 @@ public class Rel {
 		}
 	}
 	public <T0,T1,T2,T3> QuadIterable<T0,T1,T2,T3> getAry4ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new QuadIterable<T0,T1,T2,T3>(bdd, null);
 	}
@@ -1499,6 +2279,11 @@ public class Rel {
 	
 	public <T0,T1,T2,T3,T4> void add(
 			T0 val0, T1 val1, T2 val2, T3 val3, T4 val4) {
+		if (table != null) {
+			table.add(toIdxs(val0, val1, val2, val3, val4));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1513,6 +2298,7 @@ public class Rel {
 				domBdds[2].ithVar(idx2).andWith(
 				domBdds[3].ithVar(idx3).andWith(
 				domBdds[4].ithVar(idx4))))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			checkRange(val1, 1);
@@ -1524,6 +2310,16 @@ public class Rel {
 	}
 	public void add(
 			int idx0, int idx1, int idx2, int idx3, int idx4) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			checkIdx(idx2, 2);
+			checkIdx(idx3, 3);
+			checkIdx(idx4, 4);
+			table.add(new int[] { idx0, idx1, idx2, idx3, idx4 });
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1533,6 +2329,7 @@ public class Rel {
 				domBdds[2].ithVar(idx2).andWith(
 				domBdds[3].ithVar(idx3).andWith(
 				domBdds[4].ithVar(idx4))))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			checkRange(idx1, 1);
@@ -1545,6 +2342,9 @@ public class Rel {
 	}
 	public <T0,T1,T2,T3,T4> boolean contains(
 			T0 val0, T1 val1, T2 val2, T3 val3, T4 val4) {
+		if (table != null) {
+			return table.contains(toIdxs(val0, val1, val2, val3, val4));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1570,7 +2370,7 @@ public class Rel {
 	}
 	public <T0,T1,T2,T3,T4> PentIterable<T0,T1,T2,T3,T4>
 			getAry5ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new PentIterable<T0,T1,T2,T3,T4>(bdd, null);
 	}
@@ -1581,6 +2381,11 @@ public class Rel {
 	
 	public <T0,T1,T2,T3,T4,T5> void add(
 			T0 val0, T1 val1, T2 val2, T3 val3, T4 val4, T5 val5) {
+		if (table != null) {
+			table.add(toIdxs(val0, val1, val2, val3, val4, val5));
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1597,6 +2402,7 @@ public class Rel {
 				domBdds[3].ithVar(idx3).andWith(
 				domBdds[4].ithVar(idx4).andWith(
 				domBdds[5].ithVar(idx5)))))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(val0, 0);
 			checkRange(val1, 1);
@@ -1609,6 +2415,17 @@ public class Rel {
 	}
 	public void add(
 			int idx0, int idx1, int idx2, int idx3, int idx4, int idx5) {
+		if (table != null) {
+			checkIdx(idx0, 0);
+			checkIdx(idx1, 1);
+			checkIdx(idx2, 2);
+			checkIdx(idx3, 3);
+			checkIdx(idx4, 4);
+			checkIdx(idx5, 5);
+			table.add(new int[] { idx0, idx1, idx2, idx3, idx4, idx5 });
+			checkTableSize();
+			return;
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		try {
@@ -1619,6 +2436,7 @@ public class Rel {
 				domBdds[3].ithVar(idx3).andWith(
 				domBdds[4].ithVar(idx4).andWith(
 				domBdds[5].ithVar(idx5)))))));
+			checkReorder();
 		} catch (BDDException ex) {
 			checkRange(idx0, 0);
 			checkRange(idx1, 1);
@@ -1630,6 +2448,9 @@ public class Rel {
 	}
 	public <T0,T1,T2,T3,T4,T5> boolean contains(
 			T0 val0, T1 val1, T2 val2, T3 val3, T4 val4, T5 val5) {
+		if (table != null) {
+			return table.contains(toIdxs(val0, val1, val2, val3, val4, val5));
+		}
 		if (bdd == null)
 			throw new RuntimeException("");
 		int idx0 = doms[0].get(val0);
@@ -1658,7 +2479,7 @@ public class Rel {
     }
 	public <T0,T1,T2,T3,T4,T5> HextIterable<T0,T1,T2,T3,T4,T5>
 			getAry6ValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new HextIterable<T0,T1,T2,T3,T4,T5>(bdd, null);
 	}
@@ -1667,22 +2488,135 @@ public class Rel {
 	 * AryNRel operations.
 	 */
 	public void add(Object[] vals) {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		throw new UnsupportedOperationException();
 	}
 	public void add(int[] idxs) {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		throw new UnsupportedOperationException();
 	}
+	/**
+	 * Adds the specified tuples to the relation in memory.
+	 * <p>
+	 * This is equivalent to calling <tt>add</tt> on each tuple but
+	 * much faster for many tuples: the tuples are sorted by the
+	 * current BDD variable order of the relation's domains and the
+	 * BDD of the tuples is built bottom-up in a single pass, after
+	 * which it is or-ed into the relation.  Duplicate tuples and
+	 * tuples already in the relation are allowed.  If the relation is
+	 * stored in a table, the tuples are merely appended to it.
+	 *
+	 * @param	tuples	The tuples to be added to the relation.
+	 * 			Each tuple must have one index per domain of the
+	 * 			relation.  The order of the array is modified.
+	 */
+	public void addAll(int[][] tuples) {
+		if (bdd == null && table == null)
+			throw new RuntimeException("");
+		for (int[] tuple : tuples) {
+			Assertions.Assert(tuple.length == numDoms);
+			for (int i = 0; i < numDoms; i++)
+				checkIdx(tuple[i], i);
+		}
+		if (table != null) {
+			for (int[] tuple : tuples)
+				table.add(tuple);
+			checkTableSize();
+			return;
+		}
+		orTuples(tuples);
+	}
+	// adds the specified tuples, which are checked to be in range, to
+	// the BDD of this relation
+	private void orTuples(int[][] tuples) {
+		int numTuples = tuples.length;
+		if (numTuples == 0)
+			return;
+		// levels of all variables of the relation's domains, and the
+		// domain and bit (within the domain) of each of them
+		int numVars = 0;
+		for (BDDDomain d : domBdds)
+			numVars += d.varNum();
+		long[] levelKeys = new long[numVars];
+		for (int i = 0, k = 0; i < numDoms; i++) {
+			int[] ivar = domBdds[i].vars();
+			for (int j = 0; j < ivar.length; j++) {
+				long level = factory.var2Level(ivar[j]);
+				levelKeys[k++] = (level << 32) | (i << 16) | j;
+			}
+		}
+		Arrays.sort(levelKeys);
+		final int[] vars = new int[numVars];
+		final int[] varDoms = new int[numVars];
+		final int[] varBits = new int[numVars];
+		for (int k = 0; k < numVars; k++) {
+			long key = levelKeys[k];
+			int i = (int) ((key >> 16) & 0xFFFF);
+			int j = (int) (key & 0xFFFF);
+			varDoms[k] = i;
+			varBits[k] = j;
+			vars[k] = domBdds[i].vars()[j];
+		}
+		Arrays.sort(tuples, new Comparator<int[]>() {
+			public int compare(int[] t1, int[] t2) {
+				for (int k = 0; k < vars.length; k++) {
+					int i = varDoms[k];
+					int j = varBits[k];
+					int b1 = (t1[i] >>> j) & 1;
+					int b2 = (t2[i] >>> j) & 1;
+					if (b1 != b2)
+						return b1 - b2;
+				}
+				return 0;
+			}
+		});
+		BDD b = build(tuples, 0, numTuples, 0, vars, varDoms, varBits);
+		bdd.orWith(b);
+		getBDDManager().checkReorder(bdd);
+	}
+	// builds the BDD of tuples[lo..hi), which are sorted and agree
+	// on the values of variables vars[0..k), over variables
+	// vars[k..], one level at a time from the bottom up
+	private BDD build(int[][] tuples, int lo, int hi, int k,
+			int[] vars, int[] varDoms, int[] varBits) {
+		if (k == vars.length)
+			return factory.one();
+		int i = varDoms[k];
+		int j = varBits[k];
+		// the tuples in the range are sorted on this variable, so
+		// binary search for the first one having it set
+		int l = lo, h = hi;
+		while (l < h) {
+			int m = (l + h) >>> 1;
+			if (((tuples[m][i] >>> j) & 1) == 0)
+				l = m + 1;
+			else
+				h = m;
+		}
+		BDD loBdd = (l > lo) ?
+			build(tuples, lo, l, k + 1, vars, varDoms, varBits) :
+			factory.zero();
+		BDD hiBdd = (l < hi) ?
+			build(tuples, l, hi, k + 1, vars, varDoms, varBits) :
+			factory.zero();
+		// the variable is above both subgraphs, so this merely
+		// creates (or finds) a single node
+		BDD v = factory.ithVar(vars[k]);
+		BDD r = v.ite(hiBdd, loBdd);
+		v.free();
+		hiBdd.free();
+		loBdd.free();
+		return r;
+	}
 	public boolean contains(Object[] vals) {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		throw new UnsupportedOperationException();
 	}
 	public AryNIterable getAryNValTuples() {
-		if (bdd == null)
+		if (bdd == null && table == null)
 			throw new RuntimeException("");
 		return new AryNIterable(bdd, null);
 	}
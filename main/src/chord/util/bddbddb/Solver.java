@@ -5,11 +5,23 @@
  */
 package chord.util.bddbddb;
 
+import java.util.Map;
+
+import net.sf.bddbddb.BDDSolver;
+
 import chord.util.ProcessExecutor;
 import chord.util.Timer;
 
 /**
  * Interface to bddbddb's BDD-based Datalog solver.
+ * <p>
+ * The solver is run either in a separate JVM (the default) or
+ * inside the current JVM, depending upon the value of system
+ * property <tt>bddbddb.solver.mode</tt> which must be either
+ * <tt>external</tt> or <tt>internal</tt>.  Alternatively, if the
+ * value of the property is <tt>embedded</tt>, Datalog programs are
+ * solved by Chord's own solver {@link DlogSolver} in the factory
+ * shared by all relations.
  * 
  * @author Mayur Naik (mhn@cs.stanford.edu)
  */
@@ -20,20 +32,64 @@ public class Solver {
 		System.getProperty("bddbddb.class.path");
 	public final static String bddbddbLibPathName =
 		System.getProperty("bddbddb.library.path");
+	public final static String bddbddbSolverMode =
+		System.getProperty("bddbddb.solver.mode", "external");
 	/**
 	 * Runs bddbddb's BDD-based Datalog solver on the specified
 	 * Datalog program.
 	 * <p>
 	 * The maximum amount of memory available to the solver at
 	 * run-time can be specified by the user via system property
-	 * <tt>bddbddb.max.heap.size</tt> (default is 1024m).
+	 * <tt>bddbddb.max.heap.size</tt> (default is 1024m).  This
+	 * property is ignored if the solver is run in internal mode,
+	 * in which case the solver shares the heap of the current JVM.
 	 * 
 	 * @param	fileName	A file containing a Datalog program.
 	 */
 	public static void run(String fileName) {
+		run(fileName, null, null);
+	}
+	/**
+	 * Runs the Datalog solver selected by system property
+	 * <tt>bddbddb.solver.mode</tt> on the specified Datalog program.
+	 *
+	 * @param	fileName	A file containing a Datalog program.
+	 * @param	manager	The manager of the factory in which the
+	 * 			program is solved in embedded mode.
+	 * @param	domKindToDomMap	A map from the name of each kind of
+	 * 			domain of the program (e.g., T) to that domain, used
+	 * 			in embedded mode.
+	 */
+	public static void run(String fileName, BDDManager manager,
+			Map<String, Dom> domKindToDomMap) {
 		Timer timer = new Timer(fileName);
 		timer.init();
 		System.out.println("ENTER: Solving " + fileName);
+		if (bddbddbSolverMode.equals("internal"))
+			runInternal(fileName);
+		else if (bddbddbSolverMode.equals("external"))
+			runExternal(fileName);
+		else if (bddbddbSolverMode.equals("embedded")) {
+			if (manager == null || domKindToDomMap == null) {
+				throw new RuntimeException("Solving '" + fileName +
+					"' in embedded mode requires its domains.");
+			}
+			DlogProgram program = new DlogProgram(fileName);
+			// the shared factory is not thread-safe
+			synchronized (manager) {
+				new DlogSolver(program, manager, domKindToDomMap).run();
+			}
+		} else {
+			throw new RuntimeException("Value 'external', " +
+				"'internal' or 'embedded' expected for system " +
+				"property 'bddbddb.solver.mode'; got '" +
+				bddbddbSolverMode + "'");
+		}
+		System.out.println("LEAVE: Solving " + fileName);
+		timer.done();
+		System.out.println("TIME: " + timer.getExecTimeStr());
+	}
+	private static void runExternal(String fileName) {
 		String cmd =
 			"java -Xmx" + bddbddbMaxHeapSize +
 			" -cp " + bddbddbClsPathName +
@@ -47,8 +103,46 @@ public class Solver {
 				"' terminated with non-zero value '" +
 				ret + "'");
 		}
-		System.out.println("LEAVE: Solving " + fileName);
-		timer.done();
-		System.out.println("TIME: " + timer.getExecTimeStr());
+	}
+	/*
+	 * Runs the solver on the calling thread, avoiding the cost of
+	 * starting a fresh JVM (and of JIT-compiling the solver anew)
+	 * for each Datalog program.  bddbddb reads its settings from
+	 * system properties when the solver is created, so they are set
+	 * here to the values passed on the command line in external
+	 * mode, and restored once it has run.  The solver's BDD factory
+	 * is freed once its results are saved so that successive Datalog
+	 * programs do not accumulate node tables.
+	 */
+	private static synchronized void runInternal(String fileName) {
+		String[] keys = { "noisy", "basedir", "bdd" };
+		String[] oldVals = new String[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			oldVals[i] = System.getProperty(keys[i]);
+		BDDSolver solver = null;
+		try {
+			System.setProperty("noisy", "no");
+			System.setProperty("basedir", ".");
+			// the native BuDDy library is a process-wide singleton; if
+			// relations built in Java use it then the solver must not
+			if (System.getProperty("chord.bdd.backend", "java").equals("buddy"))
+				System.setProperty("bdd", "java");
+			solver = new BDDSolver();
+			solver.load(fileName);
+			solver.run();
+			solver.save();
+		} catch (Exception ex) {
+			throw new RuntimeException("Solving '" + fileName +
+				"' in internal mode failed", ex);
+		} finally {
+			if (solver != null)
+				solver.cleanup();
+			for (int i = 0; i < keys.length; i++) {
+				if (oldVals[i] == null)
+					System.clearProperty(keys[i]);
+				else
+					System.setProperty(keys[i], oldVals[i]);
+			}
+		}
 	}
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.bddbddb;
+
+import java.util.Arrays;
+
+/**
+ * Set of fixed-arity tuples of non-negative integers, stored as rows
+ * packed into a single primitive array.
+ * <p>
+ * Tuples are appended in amortized constant time; the table is
+ * sorted lexicographically and duplicates are removed lazily, the
+ * first time it is queried after tuples are added.  Membership is
+ * then decided by binary search.  This representation is meant for
+ * small or sparse relations, for which a BDD offers no compression
+ * but costs a BDD operation per tuple added or looked up.
+ *
+ * @see	Rel
+ */
+public class TupleTable {
+	private final int arity;
+	// rows [0..numRows) of arity ints each
+	private int[] data;
+	private int numRows;
+	// whether rows [0..numRows) are sorted and distinct
+	private boolean isCompact = true;
+	// reused search key
+	private final int[] key;
+	/**
+	 * Constructor.
+	 *
+	 * @param	arity	The arity of tuples in the table.
+	 */
+	public TupleTable(int arity) {
+		this.arity = arity;
+		data = new int[arity * 16];
+		key = new int[arity];
+	}
+	/**
+	 * Provides the arity of tuples in this table.
+	 *
+	 * @return	The arity of tuples in this table.
+	 */
+	public int arity() {
+		return arity;
+	}
+	/**
+	 * Provides the number of distinct tuples in this table.
+	 *
+	 * @return	The number of distinct tuples in this table.
+	 */
+	public int size() {
+		compact();
+		return numRows;
+	}
+	/**
+	 * Provides the number of tuples added to this table, counting
+	 * duplicates that have not been removed yet.  Unlike
+	 * {@link #size()}, this method takes constant time.
+	 *
+	 * @return	An upper bound on the number of distinct tuples in
+	 * 			this table.
+	 */
+	public int numRows() {
+		return numRows;
+	}
+	/**
+	 * Provides the value at the specified column of the tuple at the
+	 * specified position in the lexicographic order of tuples in this
+	 * table.
+	 *
+	 * @param	row	The position of a tuple in this table.
+	 * @param	col	A column of the tuple.
+	 *
+	 * @return	The value at the specified column of the tuple.
+	 */
+	public int get(int row, int col) {
+		compact();
+		return data[row * arity + col];
+	}
+	public void add(int idx0) {
+		int i = grow();
+		data[i] = idx0;
+	}
+	public void add(int idx0, int idx1) {
+		int i = grow();
+		data[i] = idx0;
+		data[i + 1] = idx1;
+	}
+	public void add(int idx0, int idx1, int idx2) {
+		int i = grow();
+		data[i] = idx0;
+		data[i + 1] = idx1;
+		data[i + 2] = idx2;
+	}
+	/**
+	 * Adds the specified tuple to this table.
+	 *
+	 * @param	idxs	A tuple of the arity of this table.  It is
+	 * 			copied.
+	 */
+	public void add(int[] idxs) {
+		int i = grow();
+		System.arraycopy(idxs, 0, data, i, arity);
+	}
+	public boolean contains(int idx0) {
+		key[0] = idx0;
+		return find(key) >= 0;
+	}
+	public boolean contains(int idx0, int idx1) {
+		key[0] = idx0;
+		key[1] = idx1;
+		return find(key) >= 0;
+	}
+	public boolean contains(int idx0, int idx1, int idx2) {
+		key[0] = idx0;
+		key[1] = idx1;
+		key[2] = idx2;
+		return find(key) >= 0;
+	}
+	/**
+	 * Determines whether this table contains the specified tuple.
+	 *
+	 * @param	idxs	A tuple of the arity of this table.
+	 *
+	 * @return	true iff this table contains the specified tuple.
+	 */
+	public boolean contains(int[] idxs) {
+		return find(idxs) >= 0;
+	}
+	/**
+	 * Removes the specified tuple from this table, if present.
+	 *
+	 * @param	idxs	A tuple of the arity of this table.
+	 */
+	public void remove(int[] idxs) {
+		int row = find(idxs);
+		if (row < 0)
+			return;
+		int i = row * arity;
+		System.arraycopy(data, i + arity, data, i, (numRows - row - 1) * arity);
+		numRows--;
+	}
+	/**
+	 * Calls the specified visitor on each tuple in this table, in
+	 * lexicographic order.
+	 *
+	 * @param	visitor	The visitor to be called on each tuple.  The
+	 * 			array passed to it is reused across calls.
+	 */
+	public void forEachTuple(Rel.IntTupleVisitor visitor) {
+		compact();
+		int[] buf = new int[arity];
+		for (int i = 0, n = numRows * arity; i < n; i += arity) {
+			System.arraycopy(data, i, buf, 0, arity);
+			visitor.visit(buf);
+		}
+	}
+	/**
+	 * Provides the tuples in this table, in lexicographic order.
+	 *
+	 * @return	A fresh array of the tuples in this table.
+	 */
+	public int[][] toArray() {
+		compact();
+		int[][] tuples = new int[numRows][];
+		for (int r = 0; r < numRows; r++) {
+			int[] t = new int[arity];
+			System.arraycopy(data, r * arity, t, 0, arity);
+			tuples[r] = t;
+		}
+		return tuples;
+	}
+	/**
+	 * Provides the join of two tables on the specified columns,
+	 * computed by a hash join that builds a hash index on the second
+	 * table and probes it with each tuple of the first table.
+	 *
+	 * @param	t1	The first table.
+	 * @param	cols1	Join columns of the first table.
+	 * @param	t2	The second table.
+	 * @param	cols2	Join columns of the second table, parallel to
+	 * 			those of the first table.
+	 * @param	outCols2	Columns of the second table to be included
+	 * 			in the result.
+	 *
+	 * @return	A table containing, for each pair of tuples of the
+	 * 			two tables agreeing on the join columns, the tuple of
+	 * 			the first table followed by the specified columns of
+	 * 			the tuple of the second table.
+	 */
+	public static TupleTable join(TupleTable t1, int[] cols1,
+			TupleTable t2, int[] cols2, int[] outCols2) {
+		t1.compact();
+		t2.compact();
+		int a1 = t1.arity;
+		int a2 = t2.arity;
+		int[] d1 = t1.data;
+		int[] d2 = t2.data;
+		int n2 = t2.numRows;
+		int numBuckets = Integer.highestOneBit(Math.max(n2, 1)) << 1;
+		int[] heads = new int[numBuckets];
+		Arrays.fill(heads, -1);
+		int[] next = new int[n2];
+		for (int r = 0; r < n2; r++) {
+			int b = hash(d2, r * a2, cols2) & (numBuckets - 1);
+			next[r] = heads[b];
+			heads[b] = r;
+		}
+		TupleTable result = new TupleTable(a1 + outCols2.length);
+		for (int r1 = 0, n1 = t1.numRows; r1 < n1; r1++) {
+			int i1 = r1 * a1;
+			int b = hash(d1, i1, cols1) & (numBuckets - 1);
+			for (int r2 = heads[b]; r2 != -1; r2 = next[r2]) {
+				int i2 = r2 * a2;
+				boolean match = true;
+				for (int k = 0; k < cols1.length && match; k++)
+					match = (d1[i1 + cols1[k]] == d2[i2 + cols2[k]]);
+				if (!match)
+					continue;
+				int i = result.grow();
+				int[] d = result.data;
+				System.arraycopy(d1, i1, d, i, a1);
+				for (int k = 0; k < outCols2.length; k++)
+					d[i + a1 + k] = d2[i2 + outCols2[k]];
+			}
+		}
+		return result;
+	}
+	private static int hash(int[] d, int i, int[] cols) {
+		int h = 0;
+		for (int col : cols)
+			h = 31 * h + d[i + col];
+		return h ^ (h >>> 16);
+	}
+	// makes room for a row, returning the index of its first value
+	private int grow() {
+		int i = numRows * arity;
+		if (i + arity > data.length) {
+			int[] t = new int[Math.max(data.length * 2, arity)];
+			System.arraycopy(data, 0, t, 0, i);
+			data = t;
+		}
+		numRows++;
+		isCompact = false;
+		return i;
+	}
+	// returns the row of the specified tuple, or a negative value if
+	// it is absent
+	private int find(int[] idxs) {
+		compact();
+		int lo = 0;
+		int hi = numRows - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(data, mid * arity, idxs);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	private int compare(int[] d, int i, int[] idxs) {
+		for (int k = 0; k < arity; k++) {
+			int x = d[i + k];
+			int y = idxs[k];
+			if (x != y)
+				return (x < y) ? -1 : 1;
+		}
+		return 0;
+	}
+	// sorts the rows and removes duplicates
+	private void compact() {
+		if (isCompact)
+			return;
+		isCompact = true;
+		if (arity == 1) {
+			Arrays.sort(data, 0, numRows);
+		} else if (arity == 2) {
+			// indices are non-negative so packed pairs sort like rows
+			long[] packed = new long[numRows];
+			for (int r = 0; r < numRows; r++)
+				packed[r] = ((long) data[2 * r] << 32) | data[2 * r + 1];
+			Arrays.sort(packed);
+			for (int r = 0; r < numRows; r++) {
+				data[2 * r] = (int) (packed[r] >>> 32);
+				data[2 * r + 1] = (int) packed[r];
+			}
+		} else
+			sortRows(0, numRows - 1);
+		int n = 0;
+		for (int r = 0; r < numRows; r++) {
+			int i = r * arity;
+			if (n > 0 && compareRows(i, (n - 1) * arity) == 0)
+				continue;
+			if (n != r)
+				System.arraycopy(data, i, data, n * arity, arity);
+			n++;
+		}
+		numRows = n;
+	}
+	private int compareRows(int i, int j) {
+		for (int k = 0; k < arity; k++) {
+			int x = data[i + k];
+			int y = data[j + k];
+			if (x != y)
+				return (x < y) ? -1 : 1;
+		}
+		return 0;
+	}
+	private void swapRows(int r, int s) {
+		int i = r * arity;
+		int j = s * arity;
+		for (int k = 0; k < arity; k++) {
+			int t = data[i + k];
+			data[i + k] = data[j + k];
+			data[j + k] = t;
+		}
+	}
+	// quicksort of rows [lo..hi], recursing into the smaller part
+	private void sortRows(int lo, int hi) {
+		while (hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			// median of three moved to position lo
+			if (compareRows(mid * arity, lo * arity) < 0)
+				swapRows(mid, lo);
+			if (compareRows(hi * arity, lo * arity) < 0)
+				swapRows(hi, lo);
+			if (compareRows(hi * arity, mid * arity) < 0)
+				swapRows(hi, mid);
+			swapRows(lo, mid);
+			int p = lo * arity;
+			int i = lo + 1;
+			int j = hi;
+			while (true) {
+				while (i <= j && compareRows(i * arity, p) < 0)
+					i++;
+				while (i <= j && compareRows(j * arity, p) > 0)
+					j--;
+				if (i >= j)
+					break;
+				swapRows(i++, j--);
+			}
+			swapRows(lo, j);
+			if (j - lo < hi - j) {
+				sortRows(lo, j - 1);
+				lo = j + 1;
+			} else {
+				sortRows(j + 1, hi);
+				hi = j - 1;
+			}
+		}
+		for (int r = lo + 1; r <= hi; r++) {
+			for (int s = r; s > lo && compareRows(s * arity, (s - 1) * arity) < 0; s--)
+				swapRows(s, s - 1);
+		}
+	}
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import chord.util.IndexMap;
+import chord.util.tuple.integer.IntPair;
+
+/**
+ * Immutable directed graph whose nodes are the integers in the range
+ * [0..N-1], such as the indices of the values of a domain.
+ * <p>
+ * The immediate successors of all nodes are stored contiguously in a
+ * single array, sorted and without duplicates for each node, and the
+ * position in it of the successors of each node in another array;
+ * likewise for immediate predecessors.  No node or edge is boxed.
+ * <p>
+ * It provides the same algorithms as {@link IGraph} over nodes
+ * reachable from its roots: reverse post-order, strongly connected
+ * components, back edges, cycles, shortest paths, and reachability.
+ * All of them are iterative and take time linear in the size of the
+ * graph.
+ * <p>
+ * Graphs are built by {@link MutableIntGraph}, or converted from and
+ * to {@link IGraph} by {@link #fromGraph(IGraph, IndexMap)} and
+ * {@link #toGraph(IndexMap)}.
+ */
+public class IntGraph implements java.io.Serializable {
+	private static final long serialVersionUID = -2405874391624013582L;
+	private final int numNodes;
+	private final int[] roots;
+	private final int[] succOffsets;
+	private final int[] succIdxs;
+	private final int[] predOffsets;
+	private final int[] predIdxs;
+	// creates the graph with the given roots and edges srcs[i] -> dsts[i]
+	IntGraph(int numNodes, int[] roots, int[] srcs, int[] dsts) {
+		this.numNodes = numNodes;
+		this.roots = roots;
+		succOffsets = new int[numNodes + 1];
+		predOffsets = new int[numNodes + 1];
+		succIdxs = toCSR(srcs, dsts, succOffsets);
+		predIdxs = toCSR(dsts, srcs, predOffsets);
+	}
+	// groups the targets of the given edges by source, sorts and
+	// dedups each group, and fills in the offset of each group
+	private int[] toCSR(int[] from, int[] to, int[] offsets) {
+		int numEdges = from.length;
+		int[] counts = new int[numNodes + 1];
+		for (int i = 0; i < numEdges; i++)
+			counts[from[i] + 1]++;
+		for (int v = 0; v < numNodes; v++)
+			counts[v + 1] += counts[v];
+		int[] idxs = new int[numEdges];
+		int[] next = counts.clone();
+		for (int i = 0; i < numEdges; i++)
+			idxs[next[from[i]]++] = to[i];
+		int k = 0;
+		for (int v = 0; v < numNodes; v++) {
+			int lo = counts[v];
+			int hi = counts[v + 1];
+			Arrays.sort(idxs, lo, hi);
+			offsets[v] = k;
+			for (int i = lo; i < hi; i++) {
+				if (i == lo || idxs[i] != idxs[i - 1])
+					idxs[k++] = idxs[i];
+			}
+		}
+		offsets[numNodes] = k;
+		if (k == numEdges)
+			return idxs;
+		int[] dedupedIdxs = new int[k];
+		System.arraycopy(idxs, 0, dedupedIdxs, 0, k);
+		return dedupedIdxs;
+	}
+	/**
+	 * Provides the number of nodes of this graph.
+	 *
+	 * @return	The number of nodes of this graph.
+	 */
+	public int numNodes() {
+		return numNodes;
+	}
+	/**
+	 * Provides the number of edges of this graph.
+	 *
+	 * @return	The number of edges of this graph.
+	 */
+	public int numEdges() {
+		return succIdxs.length;
+	}
+	/**
+	 * Provides the number of roots of this graph.
+	 *
+	 * @return	The number of roots of this graph.
+	 */
+	public int numRoots() {
+		return roots.length;
+	}
+	/**
+	 * Provides the root of this graph at the given position.
+	 *
+	 * @param	i	A position in the range [0..numRoots()-1].
+	 *
+	 * @return	The root of this graph at the given position.
+	 */
+	public int getRoot(int i) {
+		return roots[i];
+	}
+	public int numSuccs(int v) {
+		return succOffsets[v + 1] - succOffsets[v];
+	}
+	/**
+	 * Provides the immediate successor of the given node at the
+	 * given position.  The successors of each node are in increasing
+	 * order.
+	 *
+	 * @param	v	A node.
+	 * @param	i	A position in the range [0..numSuccs(v)-1].
+	 *
+	 * @return	The immediate successor of the given node at the
+	 * 			given position.
+	 */
+	public int getSucc(int v, int i) {
+		return succIdxs[succOffsets[v] + i];
+	}
+	public int numPreds(int v) {
+		return predOffsets[v + 1] - predOffsets[v];
+	}
+	/**
+	 * Provides the immediate predecessor of the given node at the
+	 * given position.  The predecessors of each node are in
+	 * increasing order.
+	 *
+	 * @param	v	A node.
+	 * @param	i	A position in the range [0..numPreds(v)-1].
+	 *
+	 * @return	The immediate predecessor of the given node at the
+	 * 			given position.
+	 */
+	public int getPred(int v, int i) {
+		return predIdxs[predOffsets[v] + i];
+	}
+	public boolean hasEdge(int u, int v) {
+		int lo = succOffsets[u];
+		int hi = succOffsets[u + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int w = succIdxs[mid];
+			if (w < v)
+				lo = mid + 1;
+			else if (w > v)
+				hi = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * Provides all nodes of this graph reachable from its roots and
+	 * ordered in Reverse Post Order (RPO).
+	 *
+	 * @return	All nodes of this graph reachable from its roots and
+	 * 			ordered in RPO.
+	 */
+	public int[] getNodesInRPO() {
+		int[] postOrder = new int[numNodes];
+		int numVisited = 0;
+		BitSet visited = new BitSet(numNodes);
+		int[] stk = new int[numNodes];
+		int[] pos = new int[numNodes];
+		for (int root : roots) {
+			if (visited.get(root))
+				continue;
+			visited.set(root);
+			int top = 0;
+			stk[0] = root;
+			pos[0] = succOffsets[root];
+			while (top >= 0) {
+				int v = stk[top];
+				if (pos[top] < succOffsets[v + 1]) {
+					int w = succIdxs[pos[top]++];
+					if (!visited.get(w)) {
+						visited.set(w);
+						stk[++top] = w;
+						pos[top] = succOffsets[w];
+					}
+				} else {
+					postOrder[numVisited++] = v;
+					top--;
+				}
+			}
+		}
+		int[] rpo = new int[numVisited];
+		for (int i = 0; i < numVisited; i++)
+			rpo[i] = postOrder[numVisited - 1 - i];
+		return rpo;
+	}
+	/**
+	 * Provides all Strongly Connected Components (SCCs) of this graph
+	 * reachable from its roots, in topological order: each SCC comes
+	 * after every SCC having an edge to it.
+	 *
+	 * @return	All SCCs of this graph reachable from its roots, in
+	 * 			topological order.
+	 */
+	public int[][] getTopSortedSCCs() {
+		int[] sccIds = new int[numNodes];
+		int numSCCs = computeSCCs(sccIds, false);
+		int[] sizes = new int[numSCCs];
+		for (int v = 0; v < numNodes; v++) {
+			if (sccIds[v] >= 0)
+				sizes[sccIds[v]]++;
+		}
+		int[][] sccs = new int[numSCCs][];
+		for (int i = 0; i < numSCCs; i++)
+			sccs[i] = new int[sizes[i]];
+		for (int v = numNodes - 1; v >= 0; v--) {
+			int i = sccIds[v];
+			if (i >= 0)
+				sccs[i][--sizes[i]] = v;
+		}
+		return sccs;
+	}
+	/**
+	 * Condenses the Strongly Connected Components (SCCs) of all nodes
+	 * of this graph, whether or not reachable from its roots.
+	 *
+	 * @param	sccIds	An array of size numNodes() to be filled with
+	 * 			the SCC of each node.
+	 *
+	 * @return	The acyclic graph over the SCCs of this graph, having an
+	 * 			edge between distinct SCCs iff this graph has an edge
+	 * 			between some of their nodes.  SCCs are numbered in
+	 * 			topological order, so every edge goes from a smaller
+	 * 			to a larger SCC.  It has no roots.
+	 */
+	IntGraph condense(int[] sccIds) {
+		int numSCCs = computeSCCs(sccIds, true);
+		MutableIntGraph dag = new MutableIntGraph(numSCCs);
+		for (int v = 0; v < numNodes; v++) {
+			int i = sccIds[v];
+			for (int k = succOffsets[v]; k < succOffsets[v + 1]; k++) {
+				int j = sccIds[succIdxs[k]];
+				if (i != j)
+					dag.insertEdge(i, j);
+			}
+		}
+		return dag.build();
+	}
+	// computes the SCCs reachable from the roots (or of all nodes) by
+	// Tarjan's algorithm on explicit stacks, and sets the id of the SCC
+	// of each node in topological order, or -1 for nodes unreachable
+	// from the roots; returns the number of SCCs
+	private int computeSCCs(int[] sccIds, boolean ofAllNodes) {
+		int[] idxs = new int[numNodes];
+		int[] lows = new int[numNodes];
+		Arrays.fill(idxs, -1);
+		Arrays.fill(sccIds, -1);
+		int[] sccStk = new int[numNodes];
+		int sccTop = -1;
+		BitSet onSccStk = new BitSet(numNodes);
+		int[] dfsStk = new int[numNodes];
+		int[] pos = new int[numNodes];
+		int currIdx = 0;
+		// SCCs are found in reverse topological order
+		int numSCCs = 0;
+		int numStarts = ofAllNodes ? numNodes : roots.length;
+		for (int s = 0; s < numStarts; s++) {
+			int root = ofAllNodes ? s : roots[s];
+			if (idxs[root] >= 0)
+				continue;
+			int top = 0;
+			dfsStk[0] = root;
+			pos[0] = succOffsets[root];
+			idxs[root] = lows[root] = currIdx++;
+			sccStk[++sccTop] = root;
+			onSccStk.set(root);
+			while (top >= 0) {
+				int v = dfsStk[top];
+				if (pos[top] < succOffsets[v + 1]) {
+					int w = succIdxs[pos[top]++];
+					if (idxs[w] < 0) {
+						dfsStk[++top] = w;
+						pos[top] = succOffsets[w];
+						idxs[w] = lows[w] = currIdx++;
+						sccStk[++sccTop] = w;
+						onSccStk.set(w);
+					} else if (onSccStk.get(w) && idxs[w] < lows[v])
+						lows[v] = idxs[w];
+					continue;
+				}
+				top--;
+				if (lows[v] == idxs[v]) {
+					int w;
+					do {
+						w = sccStk[sccTop--];
+						onSccStk.clear(w);
+						sccIds[w] = numSCCs;
+					} while (w != v);
+					numSCCs++;
+				}
+				if (top >= 0) {
+					int u = dfsStk[top];
+					if (lows[v] < lows[u])
+						lows[u] = lows[v];
+				}
+			}
+		}
+		for (int v = 0; v < numNodes; v++) {
+			if (sccIds[v] >= 0)
+				sccIds[v] = numSCCs - 1 - sccIds[v];
+		}
+		return numSCCs;
+	}
+	/**
+	 * Determines whether this graph has a cycle reachable from its
+	 * roots.
+	 *
+	 * @return	true iff this graph has a cycle reachable from its
+	 * 			roots.
+	 */
+	public boolean hasCycles() {
+		return !getNodesInCycles().isEmpty();
+	}
+	/**
+	 * Provides all nodes of this graph reachable from its roots that
+	 * are on some cycle.
+	 *
+	 * @return	All nodes of this graph reachable from its roots that
+	 * 			are on some cycle.
+	 */
+	public BitSet getNodesInCycles() {
+		int[] sccIds = new int[numNodes];
+		int numSCCs = computeSCCs(sccIds, false);
+		int[] sizes = new int[numSCCs];
+		for (int v = 0; v < numNodes; v++) {
+			if (sccIds[v] >= 0)
+				sizes[sccIds[v]]++;
+		}
+		BitSet nodes = new BitSet(numNodes);
+		for (int v = 0; v < numNodes; v++) {
+			int i = sccIds[v];
+			if (i >= 0 && (sizes[i] > 1 || hasEdge(v, v)))
+				nodes.set(v);
+		}
+		return nodes;
+	}
+	/**
+	 * Provides all back edges in a depth-first traversal of this
+	 * graph from its roots.
+	 *
+	 * @return	All back edges in a depth-first traversal of this
+	 * 			graph from its roots.
+	 */
+	public List<IntPair> getBackEdges() {
+		List<IntPair> backEdges = new ArrayList<IntPair>();
+		BitSet visitedBef = new BitSet(numNodes);
+		BitSet visitedAft = new BitSet(numNodes);
+		int[] stk = new int[numNodes];
+		int[] pos = new int[numNodes];
+		for (int root : roots) {
+			if (visitedBef.get(root))
+				continue;
+			visitedBef.set(root);
+			int top = 0;
+			stk[0] = root;
+			pos[0] = succOffsets[root];
+			while (top >= 0) {
+				int v = stk[top];
+				if (pos[top] < succOffsets[v + 1]) {
+					int w = succIdxs[pos[top]++];
+					if (visitedBef.get(w)) {
+						if (!visitedAft.get(w))
+							backEdges.add(new IntPair(v, w));
+					} else {
+						visitedBef.set(w);
+						stk[++top] = w;
+						pos[top] = succOffsets[w];
+					}
+				} else {
+					visitedAft.set(v);
+					top--;
+				}
+			}
+		}
+		return backEdges;
+	}
+	/**
+	 * Provides a shortest path between the given nodes.
+	 *
+	 * @param	src	The source node.
+	 * @param	dst	The target node.
+	 *
+	 * @return	The nodes on a shortest path from the source node to
+	 * 			the target node, both included, or null if there is
+	 * 			no such path.
+	 */
+	public int[] getShortestPath(int src, int dst) {
+		int[] prev = new int[numNodes];
+		Arrays.fill(prev, -1);
+		prev[src] = src;
+		int[] queue = new int[numNodes];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = src;
+		while (head < tail && prev[dst] < 0) {
+			int v = queue[head++];
+			for (int k = succOffsets[v]; k < succOffsets[v + 1]; k++) {
+				int w = succIdxs[k];
+				if (prev[w] < 0) {
+					prev[w] = v;
+					queue[tail++] = w;
+				}
+			}
+		}
+		if (prev[dst] < 0)
+			return null;
+		int len = 1;
+		for (int v = dst; v != src; v = prev[v])
+			len++;
+		int[] path = new int[len];
+		for (int v = dst; len > 0; v = prev[v])
+			path[--len] = v;
+		return path;
+	}
+	/**
+	 * Provides all nodes reachable from the given nodes, including
+	 * the given nodes.
+	 *
+	 * @param	srcs	A set of nodes.
+	 *
+	 * @return	All nodes reachable from the given nodes.
+	 */
+	public BitSet getReachableFrom(BitSet srcs) {
+		return traverse(srcs, succOffsets, succIdxs);
+	}
+	/**
+	 * Provides all nodes from which any of the given nodes is
+	 * reachable, including the given nodes.
+	 *
+	 * @param	dsts	A set of nodes.
+	 *
+	 * @return	All nodes from which any of the given nodes is
+	 * 			reachable.
+	 */
+	public BitSet getReachingTo(BitSet dsts) {
+		return traverse(dsts, predOffsets, predIdxs);
+	}
+	private BitSet traverse(BitSet from, int[] offsets, int[] idxs) {
+		BitSet visited = new BitSet(numNodes);
+		int[] stk = new int[numNodes];
+		int top = -1;
+		for (int v = from.nextSetBit(0); v >= 0; v = from.nextSetBit(v + 1)) {
+			visited.set(v);
+			stk[++top] = v;
+		}
+		while (top >= 0) {
+			int v = stk[top--];
+			for (int k = offsets[v]; k < offsets[v + 1]; k++) {
+				int w = idxs[k];
+				if (!visited.get(w)) {
+					visited.set(w);
+					stk[++top] = w;
+				}
+			}
+		}
+		return visited;
+	}
+	/**
+	 * Converts a given graph into a graph over the indices of its
+	 * nodes in a given map, such as a domain.
+	 *
+	 * @param	graph	A directed graph.
+	 * @param	map	A map from nodes to indices.  Nodes of the graph
+	 * 			absent from it are added to it.
+	 *
+	 * @return	The graph over the indices of the nodes of the given
+	 * 			graph.  Its number of nodes is the size of the map.
+	 */
+	public static <Node> IntGraph fromGraph(IGraph<Node> graph,
+			IndexMap<Node> map) {
+		MutableIntGraph g = new MutableIntGraph();
+		for (Node v : graph.getNodes()) {
+			int vIdx = map.set(v);
+			for (Node w : graph.getSuccs(v))
+				g.insertEdge(vIdx, map.set(w));
+		}
+		for (Node v : graph.getRoots())
+			g.insertRoot(map.set(v));
+		if (map.size() > 0)
+			g.insertNode(map.size() - 1);
+		return g.build();
+	}
+	/**
+	 * Converts this graph into a graph over the objects its nodes
+	 * index in a given map, such as a domain.
+	 *
+	 * @param	map	A map from objects to indices containing every
+	 * 			node of this graph.
+	 *
+	 * @return	The graph over the objects indexed by the nodes of
+	 * 			this graph.
+	 */
+	public <Node> MutableGraph<Node> toGraph(IndexMap<Node> map) {
+		MutableGraph<Node> graph = new MutableGraph<Node>();
+		for (int v = 0; v < numNodes; v++)
+			graph.insertNode(map.get(v));
+		for (int root : roots)
+			graph.insertRoot(map.get(root));
+		for (int v = 0; v < numNodes; v++) {
+			Node node = map.get(v);
+			for (int k = succOffsets[v]; k < succOffsets[v + 1]; k++)
+				graph.insertEdge(node, map.get(succIdxs[k]));
+		}
+		return graph;
+	}
+}
@@ -5,6 +5,7 @@
  */
 package chord.util.graph;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -436,33 +437,31 @@ public class MutableGraph<Node> extends AbstractGraph<Node>
 	}
     /** 
      * Computes the transitive closure of the graph.
-     * Considers each pair of edges (u,v) and (v,w) in the graph
-     * such that u != v != w, and adds edge (u,w) if it is not
-     * in the graph.  The process terminates after no more edges
-     * can be added.
+     * Adds edge (u,w) for each pair of distinct nodes u and w
+     * such that there is a path from u to w in the graph, if it
+     * is not in the graph.
+     * <p>
+     * The reachable nodes are computed by {@link TransitiveClosure}
+     * over the indices of the nodes of the graph.
      */
 	public void computeTransitiveClosure() {
-        Set<Node> nodes = nodeToPreds.keySet();
-        boolean changed = true;
-        while (changed) {
-            changed = false;
-            for (Node v : nodes) {
-                Set<Node> Pv = nodeToPreds.get(v);
-                Set<Node> Sv = nodeToSuccs.get(v);
-                for (Node u : Pv) {
-                    if (u != v) { 
-                        Set<Node> Su = nodeToSuccs.get(u);
-                        for (Node w : Sv) {
-                            if (v != w && u != w && Su.add(w)) {
-                                Set<Node> Pw = nodeToPreds.get(w);
-                                Pw.add(u);
-                                changed = true;
-                            }
-                        }
-                    }
-                }
-            }
-        }
+		IndexMap<Node> map = new IndexMap<Node>(numNodes());
+		TransitiveClosure closure =
+			new TransitiveClosure(IntGraph.fromGraph(this, map));
+		int numNodes = map.size();
+		for (int u = 0; u < numNodes; u++) {
+			Node uNode = map.get(u);
+			Set<Node> Su = nodeToSuccs.get(uNode);
+			BitSet reachable = closure.getReachable(u);
+			for (int w = reachable.nextSetBit(0); w >= 0;
+					w = reachable.nextSetBit(w + 1)) {
+				if (w == u)
+					continue;
+				Node wNode = map.get(w);
+				if (Su.add(wNode))
+					nodeToPreds.get(wNode).add(uNode);
+			}
+		}
         // validate();
 		if (cached)
 			evictCache();
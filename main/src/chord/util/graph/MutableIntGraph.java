@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.graph;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.BitSet;
+
+/**
+ * Builder of a directed graph whose nodes are the integers in the
+ * range [0..N-1], such as the indices of the values of a domain.
+ * <p>
+ * Nodes, roots, and edges are added incrementally and the graph is
+ * then snapshotted by {@link #build()} into an immutable
+ * {@link IntGraph} on which all graph algorithms are run.  Adding an
+ * edge more than once has the same effect as adding it once.
+ */
+public class MutableIntGraph {
+	private int numNodes;
+	private final TIntArrayList roots = new TIntArrayList();
+	private final BitSet isRoot = new BitSet();
+	private final TIntArrayList srcs = new TIntArrayList();
+	private final TIntArrayList dsts = new TIntArrayList();
+	/**
+	 * Creates an empty graph.
+	 */
+	public MutableIntGraph() { }
+	/**
+	 * Creates a graph with nodes [0..numNodes-1] and no edges.
+	 *
+	 * @param	numNodes	The number of nodes of the graph.
+	 */
+	public MutableIntGraph(int numNodes) {
+		this.numNodes = numNodes;
+	}
+	/**
+	 * Provides the number of nodes of this graph.
+	 *
+	 * @return	The number of nodes of this graph.
+	 */
+	public int numNodes() {
+		return numNodes;
+	}
+	/**
+	 * Adds a fresh node to this graph.
+	 *
+	 * @return	The added node, which is the number of nodes of this
+	 * 			graph before it was added.
+	 */
+	public int insertNode() {
+		return numNodes++;
+	}
+	/**
+	 * Adds the given node and all nodes less than it to this graph,
+	 * if they are not already present.
+	 *
+	 * @param	v	A non-negative integer.
+	 */
+	public void insertNode(int v) {
+		if (v < 0)
+			throw new IllegalArgumentException("Negative node " + v);
+		if (v >= numNodes)
+			numNodes = v + 1;
+	}
+	/**
+	 * Adds the given node to this graph, if it is not already
+	 * present, and designates it as a root.
+	 *
+	 * @param	v	A non-negative integer.
+	 *
+	 * @return	true iff the given node was not already a root.
+	 */
+	public boolean insertRoot(int v) {
+		insertNode(v);
+		if (isRoot.get(v))
+			return false;
+		isRoot.set(v);
+		roots.add(v);
+		return true;
+	}
+	/**
+	 * Adds an edge between the given nodes to this graph, adding the
+	 * nodes too if they are not already present.
+	 *
+	 * @param	u	The source node of the edge.
+	 * @param	v	The target node of the edge.
+	 */
+	public void insertEdge(int u, int v) {
+		insertNode(u);
+		insertNode(v);
+		srcs.add(u);
+		dsts.add(v);
+	}
+	/**
+	 * Provides the number of edges added to this graph, counting
+	 * each time an edge was added.
+	 *
+	 * @return	The number of edges added to this graph.
+	 */
+	public int numInsertedEdges() {
+		return srcs.size();
+	}
+	/**
+	 * Snapshots this graph into an immutable graph.  This graph may
+	 * be modified further without affecting the snapshot.
+	 *
+	 * @return	An immutable graph with the nodes, roots, and edges of
+	 * 			this graph.
+	 */
+	public IntGraph build() {
+		return new IntGraph(numNodes, roots.toNativeArray(),
+			srcs.toNativeArray(), dsts.toNativeArray());
+	}
+}
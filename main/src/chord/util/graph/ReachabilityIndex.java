@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Index answering reachability queries on a directed graph over
+ * integer nodes without materializing its transitive closure.
+ * <p>
+ * The Strongly Connected Components (SCCs) of the graph are condensed
+ * first.  Each SCC is then labeled with a few intervals, one per
+ * depth-first traversal of the condensed graph from its sources, the
+ * children of each SCC being visited from a randomly chosen one on.
+ * The interval of a SCC ranges from the smallest post-order number of
+ * any SCC reachable from it to its own post-order number, so if a SCC
+ * reaches another then each interval of the former contains the
+ * corresponding interval of the latter.
+ * <p>
+ * A query whose intervals are not all contained is answered negatively
+ * in constant time.  Otherwise a depth-first search is performed from
+ * the source SCC, pruned at SCCs whose intervals do not contain those
+ * of the target SCC or that come after it in topological order.  The
+ * index takes space linear in the size of the graph.
+ * <p>
+ * Queries are not thread-safe.
+ */
+public class ReachabilityIndex {
+	private static final int DEFAULT_NUM_LABELINGS = 2;
+	private final int[] sccIds;
+	private final IntGraph dag;
+	private final int numLabelings;
+	// interval of SCC i in labeling l is
+	// [lows[l * numSCCs + i], posts[l * numSCCs + i]]
+	private final int[] lows;
+	private final int[] posts;
+	// SCCs visited by the current query are marked with its stamp
+	private final int[] marks;
+	private int stamp;
+	private final int[] stk;
+	/**
+	 * Builds the index of the given graph with two labelings.
+	 *
+	 * @param	graph	A directed graph.
+	 */
+	public ReachabilityIndex(IntGraph graph) {
+		this(graph, DEFAULT_NUM_LABELINGS, 0);
+	}
+	/**
+	 * Builds the index of the given graph.
+	 *
+	 * @param	graph	A directed graph.
+	 * @param	numLabelings	The number of intervals per SCC; more
+	 * 			labelings prune more queries and take more space.
+	 * @param	seed	The seed of the random choice of the order of
+	 * 			children in traversals.
+	 */
+	public ReachabilityIndex(IntGraph graph, int numLabelings, long seed) {
+		if (numLabelings < 1) {
+			throw new IllegalArgumentException(
+				"At least one labeling expected; got " + numLabelings);
+		}
+		sccIds = new int[graph.numNodes()];
+		dag = graph.condense(sccIds);
+		this.numLabelings = numLabelings;
+		int numSCCs = dag.numNodes();
+		lows = new int[numLabelings * numSCCs];
+		posts = new int[numLabelings * numSCCs];
+		marks = new int[numSCCs];
+		stk = new int[numSCCs];
+		Random random = new Random(seed);
+		for (int l = 0; l < numLabelings; l++)
+			label(l * numSCCs, random);
+	}
+	// labels each SCC in a depth-first traversal of the condensed
+	// graph, storing its interval at the given offset
+	private void label(int off, Random random) {
+		int numSCCs = dag.numNodes();
+		int[] first = new int[numSCCs];
+		int[] next = new int[numSCCs];
+		boolean[] visited = new boolean[numSCCs];
+		int post = 0;
+		for (int root = 0; root < numSCCs; root++) {
+			if (dag.numPreds(root) > 0)
+				continue;
+			int top = 0;
+			stk[0] = root;
+			visited[root] = true;
+			start(root, off, first, next, random);
+			while (top >= 0) {
+				int i = stk[top];
+				int n = dag.numSuccs(i);
+				if (next[i] < n) {
+					int j = dag.getSucc(i, (first[i] + next[i]++) % n);
+					if (!visited[j]) {
+						visited[j] = true;
+						start(j, off, first, next, random);
+						stk[++top] = j;
+					} else if (lows[off + j] < lows[off + i])
+						lows[off + i] = lows[off + j];
+					continue;
+				}
+				top--;
+				posts[off + i] = post;
+				if (post < lows[off + i])
+					lows[off + i] = post;
+				post++;
+				if (top >= 0) {
+					int p = stk[top];
+					if (lows[off + i] < lows[off + p])
+						lows[off + p] = lows[off + i];
+				}
+			}
+		}
+	}
+	private void start(int i, int off, int[] first, int[] next,
+			Random random) {
+		int n = dag.numSuccs(i);
+		first[i] = (n > 1) ? random.nextInt(n) : 0;
+		next[i] = 0;
+		lows[off + i] = Integer.MAX_VALUE;
+	}
+	// whether every interval of SCC i contains that of SCC j
+	private boolean contains(int i, int j) {
+		int numSCCs = dag.numNodes();
+		for (int off = 0; off < numLabelings * numSCCs; off += numSCCs) {
+			if (lows[off + j] < lows[off + i] ||
+					posts[off + j] > posts[off + i])
+				return false;
+		}
+		return true;
+	}
+	/**
+	 * Determines whether there is a path, possibly empty, from one
+	 * node to another.
+	 *
+	 * @param	u	The source node.
+	 * @param	v	The target node.
+	 *
+	 * @return	true iff there is a path from <tt>u</tt> to <tt>v</tt>;
+	 * 			in particular, each node reaches itself.
+	 */
+	public boolean reaches(int u, int v) {
+		int src = sccIds[u];
+		int dst = sccIds[v];
+		if (src == dst)
+			return true;
+		if (dst < src || !contains(src, dst))
+			return false;
+		if (++stamp == 0) {
+			Arrays.fill(marks, 0);
+			stamp = 1;
+		}
+		int top = 0;
+		stk[0] = src;
+		marks[src] = stamp;
+		while (top >= 0) {
+			int i = stk[top--];
+			for (int k = 0; k < dag.numSuccs(i); k++) {
+				int j = dag.getSucc(i, k);
+				if (j == dst)
+					return true;
+				if (j < dst && marks[j] != stamp && contains(j, dst)) {
+					marks[j] = stamp;
+					stk[++top] = j;
+				}
+			}
+		}
+		return false;
+	}
+	/**
+	 * Provides the Strongly Connected Component (SCC) of a given node.
+	 * SCCs are numbered in topological order.
+	 *
+	 * @param	v	A node.
+	 *
+	 * @return	The SCC of the given node.
+	 */
+	public int getSCC(int v) {
+		return sccIds[v];
+	}
+}
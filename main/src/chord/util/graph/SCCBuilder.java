@@ -8,8 +8,11 @@ package chord.util.graph;
 import gnu.trove.TIntArrayList;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Algorithm for computing the Strongly Connected Components (SCCs) of
@@ -17,60 +20,102 @@ import java.util.Set;
  * 
  * The algorithm implemented here is
  * <a href="http://en.wikipedia.org/wiki/Tarjan's_strongly_connected_components_algorithm">Tarjan's algorithm.</a>
+ * <p>
+ * The depth-first search is performed with an explicit stack instead
+ * of recursion, so that the depth of the graph is not bounded by the
+ * size of the thread's stack.  Each node is assigned a dense index in
+ * the order in which it is discovered, and the membership of nodes in
+ * the stack of the algorithm is kept in a bit set indexed by it, so
+ * that the algorithm runs in time linear in the number of nodes and
+ * edges reachable from the roots of the graph.
+ * <p>
+ * SCCs are visited in reverse topological order: each SCC is visited
+ * before any SCC having an edge to it.
  * 
  * @author Mayur Naik (mhn@cs.stanford.edu)
  */
 public class SCCBuilder<Node> {
 	private final IGraph<Node> graph;
 	private final IGraphEntityVisitor<Node> visitor;
-	private Set<Node> visited;
-	private ArrayList<Node> stk;
-	private TIntArrayList idxStk;
-	private int currIdx;
+	// map from each discovered node to its index
+	private Map<Node, Integer> nodeToIdxMap;
+	// discovered nodes, in order of their indices
+	private List<Node> nodes;
+	// smallest index of a node on the SCC stack known to be
+	// reachable from the node at each index
+	private TIntArrayList lows;
+	// indices of nodes on the SCC stack
+	private TIntArrayList sccStk;
+	private BitSet onSccStk;
+	// indices of nodes on the depth-first search stack, and the
+	// iterators over their remaining successors
+	private TIntArrayList dfsStk;
+	private List<Iterator<Node>> itrStk;
 	public SCCBuilder(IGraph<Node> graph, IGraphEntityVisitor<Node> visitor) {
 		this.graph = graph;
 		this.visitor = visitor;
 	}
 	public void build() {
 		int numNodes = graph.numNodes();
-		visited = new HashSet<Node>(numNodes);
-		stk = new ArrayList<Node>();
-		idxStk = new TIntArrayList();
+		nodeToIdxMap = new HashMap<Node, Integer>(numNodes);
+		nodes = new ArrayList<Node>(numNodes);
+		lows = new TIntArrayList(numNodes);
+		sccStk = new TIntArrayList();
+		onSccStk = new BitSet(numNodes);
+		dfsStk = new TIntArrayList();
+		itrStk = new ArrayList<Iterator<Node>>();
 		for (Node v : graph.getRoots()) {
-			if (visited.add(v))
+			if (!nodeToIdxMap.containsKey(v))
 				visit(v);
 		}
 	}
-	private int visit(Node v) {
-		int vIdx = currIdx;
-		int vLow = currIdx;
-		currIdx++;
-		stk.add(v);
-		idxStk.add(vIdx);
-		for (Node w : graph.getSuccs(v)) {
-			if (visited.add(w)) {
-				int wLow = visit(w);
-				vLow = vLow < wLow ? vLow : wLow;
+	private void push(Node v) {
+		int vIdx = nodes.size();
+		nodeToIdxMap.put(v, vIdx);
+		nodes.add(v);
+		lows.add(vIdx);
+		sccStk.add(vIdx);
+		onSccStk.set(vIdx);
+		dfsStk.add(vIdx);
+		itrStk.add(graph.getSuccs(v).iterator());
+	}
+	private void visit(Node root) {
+		push(root);
+		while (!dfsStk.isEmpty()) {
+			int top = dfsStk.size() - 1;
+			int vIdx = dfsStk.get(top);
+			Iterator<Node> it = itrStk.get(top);
+			if (it.hasNext()) {
+				Node w = it.next();
+				Integer wIdx = nodeToIdxMap.get(w);
+				if (wIdx == null)
+					push(w);
+				else if (onSccStk.get(wIdx)) {
+					if (wIdx < lows.get(vIdx))
+						lows.set(vIdx, wIdx);
+				}
 				continue;
-			}	
-			int i = stk.indexOf(w);
-			if (i != -1) {
-				int wIdx = idxStk.get(i);
-				vLow = vLow < wIdx ? vLow : wIdx;
+			}
+			dfsStk.remove(top);
+			itrStk.remove(top);
+			int vLow = lows.get(vIdx);
+			if (vLow == vIdx) {
+				visitor.prologue();
+				int n = sccStk.size() - 1;
+				int wIdx;
+				do {
+					wIdx = sccStk.remove(n);
+					onSccStk.clear(wIdx);
+					visitor.visit(nodes.get(wIdx));
+					n--;
+				} while (wIdx != vIdx);
+				visitor.epilogue();
+			}
+			if (top > 0) {
+				int uIdx = dfsStk.get(top - 1);
+				if (vLow < lows.get(uIdx))
+					lows.set(uIdx, vLow);
 			}
 		}
-		if (vLow == vIdx) {
-			visitor.prologue();
-			int n = stk.size() - 1;
-			Node w;
-			do {
-				w = stk.remove(n);
-				idxStk.remove(n);
-				visitor.visit(w);
-				n--;
-			} while (w != v);
-			visitor.epilogue();
-		}
-		return vLow;
 	}
 }
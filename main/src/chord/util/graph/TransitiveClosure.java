@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-07, The Trustees of Stanford University.  All
+ * rights reserved.
+ * Licensed under the terms of the GNU GPL; see COPYING for details.
+ */
+package chord.util.graph;
+
+import java.util.BitSet;
+
+/**
+ * Transitive closure of a directed graph over integer nodes.
+ * <p>
+ * The Strongly Connected Components (SCCs) of the graph are condensed
+ * first, since all nodes of a SCC reach the same nodes.  The SCCs
+ * reachable from each SCC are then computed as a bit vector of
+ * <tt>long</tt> words, in reverse topological order, as the union of
+ * the bit vectors of its successors.  Since SCCs are numbered in
+ * topological order, a SCC reaches only SCCs numbered at least as
+ * large, and its bit vector omits the words of smaller ones.
+ * <p>
+ * The closure takes space quadratic in the number of SCCs; see
+ * {@link ReachabilityIndex} for answering reachability queries
+ * without materializing it.
+ */
+public class TransitiveClosure {
+	private final int[] sccIds;
+	// nodes of each SCC
+	private final int[][] sccNodes;
+	// bit vector of SCCs reachable from each SCC i, starting at the
+	// word containing bit i
+	private final long[][] sccReach;
+	/**
+	 * Computes the transitive closure of the given graph.
+	 *
+	 * @param	graph	A directed graph.
+	 */
+	public TransitiveClosure(IntGraph graph) {
+		int numNodes = graph.numNodes();
+		sccIds = new int[numNodes];
+		IntGraph dag = graph.condense(sccIds);
+		int numSCCs = dag.numNodes();
+		int[] sizes = new int[numSCCs];
+		for (int v = 0; v < numNodes; v++)
+			sizes[sccIds[v]]++;
+		sccNodes = new int[numSCCs][];
+		for (int i = 0; i < numSCCs; i++)
+			sccNodes[i] = new int[sizes[i]];
+		for (int v = numNodes - 1; v >= 0; v--) {
+			int i = sccIds[v];
+			sccNodes[i][--sizes[i]] = v;
+		}
+		int numWords = (numSCCs + 63) >>> 6;
+		sccReach = new long[numSCCs][];
+		for (int i = numSCCs - 1; i >= 0; i--) {
+			int base = i >>> 6;
+			long[] reach = new long[numWords - base];
+			reach[0] = 1L << (i & 63);
+			for (int k = 0; k < dag.numSuccs(i); k++) {
+				int j = dag.getSucc(i, k);
+				long[] succReach = sccReach[j];
+				int off = (j >>> 6) - base;
+				for (int w = 0; w < succReach.length; w++)
+					reach[w + off] |= succReach[w];
+			}
+			sccReach[i] = reach;
+		}
+	}
+	/**
+	 * Determines whether there is a path, possibly empty, from one
+	 * node to another.
+	 *
+	 * @param	u	The source node.
+	 * @param	v	The target node.
+	 *
+	 * @return	true iff there is a path from <tt>u</tt> to <tt>v</tt>;
+	 * 			in particular, each node reaches itself.
+	 */
+	public boolean reaches(int u, int v) {
+		int i = sccIds[u];
+		int j = sccIds[v];
+		if (j < i)
+			return false;
+		int w = (j >>> 6) - (i >>> 6);
+		return (sccReach[i][w] & (1L << (j & 63))) != 0;
+	}
+	/**
+	 * Provides all nodes reachable from a given node, including
+	 * itself.
+	 *
+	 * @param	u	A node.
+	 *
+	 * @return	All nodes reachable from the given node.
+	 */
+	public BitSet getReachable(int u) {
+		int i = sccIds[u];
+		int base = (i >>> 6) << 6;
+		long[] reach = sccReach[i];
+		BitSet nodes = new BitSet(sccIds.length);
+		for (int w = 0; w < reach.length; w++) {
+			long bits = reach[w];
+			while (bits != 0) {
+				int j = base + (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				for (int v : sccNodes[j])
+					nodes.set(v);
+			}
+		}
+		return nodes;
+	}
+	/**
+	 * Provides the Strongly Connected Component (SCC) of a given node.
+	 * SCCs are numbered in topological order.
+	 *
+	 * @param	v	A node.
+	 *
+	 * @return	The SCC of the given node.
+	 */
+	public int getSCC(int v) {
+		return sccIds[v];
+	}
+}